@@ -5,6 +5,7 @@ import com.boydti.fawe.FaweCache;
 import com.boydti.fawe.bukkit.BukkitPlayer;
 import com.boydti.fawe.bukkit.FaweBukkit;
 import com.boydti.fawe.example.CharFaweChunk;
+import com.boydti.fawe.example.ChunkSectionCache;
 import com.boydti.fawe.example.NMSMappedFaweQueue;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FawePlayer;
@@ -30,6 +31,7 @@ import org.bukkit.World;
 import org.bukkit.WorldCreator;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.WorldInitEvent;
@@ -115,6 +117,12 @@ public abstract class BukkitQueue_0<CHUNK, CHUNKSECTIONS, SECTION> extends NMSMa
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public static void onChunkUnloaded(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        ChunkSectionCache.invalidate(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+    }
+
     @Override
     public boolean queueChunkLoad(int cx, int cz) {
         if (super.queueChunkLoad(cx, cz)) {
@@ -86,6 +86,18 @@ public class BukkitChunk_1_7 extends CharFaweChunk<Chunk, BukkitQueue17> {
         this.setBlock(x, y, z, id, 0);
     }
 
+    @Override
+    public void fillCuboid(int x1, int x2, int y1, int y2, int z1, int z2, int id, byte data) {
+        // The byte id and data arrays are only kept in sync by setBlock
+        for (int y = y1; y <= y2; y++) {
+            for (int z = z1; z <= z2; z++) {
+                for (int x = x1; x <= x2; x++) {
+                    setBlock(x, y, z, id, data);
+                }
+            }
+        }
+    }
+
     @Override
     public void setBlock(int x, int y, int z, int id, int data) {
         int i = FaweCache.CACHE_I[y][z][x];
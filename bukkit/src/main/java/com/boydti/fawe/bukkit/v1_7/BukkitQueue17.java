@@ -556,6 +556,14 @@ public class BukkitQueue17 extends BukkitQueue_0<net.minecraft.server.v1_7_R4.Ch
         return new BukkitChunk_1_7(this, x, z);
     }
 
+    /**
+     * Palette chunks only copy the combined ids, but placement here reads the byte id and data arrays
+     */
+    @Override
+    public FaweChunk getQueuedFaweChunk(int x, int z) {
+        return getFaweChunk(x, z);
+    }
+
     @Override
     public void setSkyLight(ChunkSection section, int x, int y, int z, int value) {
         section.setSkyLight(x & 15, y & 15, z & 15, value);
@@ -140,18 +140,58 @@ public class BukkitChunk_1_9 extends CharFaweChunk<Chunk, BukkitQueue_1_9_R1> {
         }
     }
 
-    public void optimize() {
+    /**
+     * Create a palette where every block is the same<br>
+     *     - The packed storage is filled directly instead of setting each block
+     * @param combinedId
+     * @return
+     */
+    @Override
+    public DataPaletteBlock newUniformPalette(char combinedId) {
+        DataPaletteBlock palette = newDataPaletteBlock();
+        IBlockData block = Block.getById(combinedId >> 4).fromLegacyData(combinedId & 0xF);
+        palette.setBlock(0, 0, 0, block);
+        try {
+            long[] raw = ((DataBits) BukkitQueue_1_9_R1.fieldBits.get(palette)).a();
+            if (fillUniformPalette(raw)) {
+                return palette;
+            }
+        } catch (Throwable e) {
+            MainUtil.handleError(e);
+        }
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    palette.setBlock(x, y, z, block);
+                }
+            }
+        }
+        return palette;
+    }
+
+    @Override
+    protected void onSectionChange(int layer) {
         if (sectionPalettes != null) {
-            return;
+            sectionPalettes[layer] = null;
         }
+    }
+
+    public synchronized void optimize() {
         char[][] arrays = getCombinedIdArrays();
         IBlockData lastBlock = null;
         char lastChar = Character.MAX_VALUE;
         for (int layer = 0; layer < 16; layer++) {
-            if (getCount(layer) > 0) {
+            // Only whole sections are swapped for their palette (a palette which is still set is up to date)
+            int count = getCount(layer);
+            if (count >= 4096 && count > getAir(layer) && (sectionPalettes == null || sectionPalettes[layer] == null)) {
                 if (sectionPalettes == null) {
                     sectionPalettes = new DataPaletteBlock[16];
                 }
+                DataPaletteBlock uniform = getUniformPalette(layer);
+                if (uniform != null) {
+                    sectionPalettes[layer] = uniform;
+                    continue;
+                }
                 DataPaletteBlock palette = newDataPaletteBlock();
                 char[] blocks = getIdArray(layer);
                 for (int y = 0; y < 16; y++) {
@@ -164,6 +204,7 @@ public class BukkitChunk_1_9 extends CharFaweChunk<Chunk, BukkitQueue_1_9_R1> {
                         }
                     }
                 }
+                sectionPalettes[layer] = palette;
             }
         }
     }
@@ -174,7 +215,7 @@ public class BukkitChunk_1_9 extends CharFaweChunk<Chunk, BukkitQueue_1_9_R1> {
     }
 
     @Override
-    public FaweChunk call() {
+    public synchronized FaweChunk call() {
         final Chunk chunk = (Chunk) this.getChunk();
         final World world = chunk.getWorld();
         int bx = this.getX() << 4;
@@ -336,9 +377,10 @@ public class BukkitChunk_1_9 extends CharFaweChunk<Chunk, BukkitQueue_1_9_R1> {
                     if (count == countAir) {
                         continue;
                     }
-                    if (this.sectionPalettes != null && this.sectionPalettes[j] != null) {
+                    DataPaletteBlock palette = getSectionPalette(this.sectionPalettes, j);
+                    if (palette != null) {
                         section = sections[j] = getParent().newChunkSection(j << 4, flag, null);
-                        getParent().setPalette(section, this.sectionPalettes[j]);
+                        getParent().setPalette(section, palette);
                         getParent().setCount(0, count - this.getAir(j), section);
                         continue;
                     } else {
@@ -350,8 +392,9 @@ public class BukkitChunk_1_9 extends CharFaweChunk<Chunk, BukkitQueue_1_9_R1> {
                         sections[j] = null;
                         continue;
                     }
-                    if (this.sectionPalettes != null && this.sectionPalettes[j] != null) {
-                        getParent().setPalette(section, this.sectionPalettes[j]);
+                    DataPaletteBlock palette = getSectionPalette(this.sectionPalettes, j);
+                    if (palette != null) {
+                        getParent().setPalette(section, palette);
                         getParent().setCount(0, count - this.getAir(j), section);
                         continue;
                     } else {
@@ -6,6 +6,7 @@ import com.boydti.fawe.config.BBC;
 import com.boydti.fawe.config.Commands;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.object.FawePlayer;
+import com.boydti.fawe.object.changeset.HistoryCompactor;
 import com.boydti.fawe.object.brush.visualization.VisualQueue;
 import com.boydti.fawe.regions.general.plot.PlotSquaredFeature;
 import com.boydti.fawe.util.FaweTimer;
@@ -274,6 +275,11 @@ public class Fawe {
 
         TaskManager.IMP.repeat(timer, 1);
 
+        if (Settings.IMP.HISTORY.USE_DISK && Settings.IMP.HISTORY.COMPACT_AFTER_HOURS > 0) {
+            // Hourly
+            TaskManager.IMP.repeatAsync(new HistoryCompactor(MainUtil.getFile(IMP.getDirectory(), Settings.IMP.PATHS.HISTORY)), 72000);
+        }
+
         if (Settings.IMP.UPDATE && isJava8()) {
             // Delayed updating
             updater = new Updater();
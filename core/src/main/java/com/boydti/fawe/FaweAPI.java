@@ -52,6 +52,7 @@ import java.lang.reflect.Field;
 import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -62,6 +63,10 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPInputStream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -291,7 +296,7 @@ public class FaweAPI {
      *                Reading only part of the file will result in unreliable bounds info for large edits
      * @return
      */
-    public static List<DiskStorageHistory> getBDFiles(FaweLocation origin, UUID user, int radius, long timediff, boolean shallow) {
+    public static List<DiskStorageHistory> getBDFiles(FaweLocation origin, UUID user, int radius, long timediff, final boolean shallow) {
         File history = MainUtil.getFile(Fawe.imp().getDirectory(), Settings.IMP.PATHS.HISTORY + File.separator + origin.world);
         if (!history.exists()) {
             return new ArrayList<>();
@@ -336,31 +341,60 @@ public class FaweAPI {
             }
         });
         RegionWrapper bounds = new RegionWrapper(origin.x - radius, origin.x + radius, origin.z - radius, origin.z + radius);
-        RegionWrapper boundsPlus = new RegionWrapper(bounds.minX - 64, bounds.maxX + 512, bounds.minZ - 64, bounds.maxZ + 512);
-        HashSet<RegionWrapper> regionSet = new HashSet<RegionWrapper>(Arrays.asList(bounds));
-        ArrayList<DiskStorageHistory> result = new ArrayList<>();
+        final RegionWrapper boundsPlus = new RegionWrapper(bounds.minX - 64, bounds.maxX + 512, bounds.minZ - 64, bounds.maxZ + 512);
+        // Each summary only depends on its own file, so they are read on the pool and used in index order below
+        // - Only a few are read ahead, so returning early doesn't leave the rest of the files being read
+        ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
+        int readAhead = pool.getParallelism() * 2;
+        final AtomicBoolean finished = new AtomicBoolean();
+        List<DiskStorageHistory> histories = new ArrayList<>(files.size());
         for (File file : files) {
             UUID uuid = UUID.fromString(file.getParentFile().getName());
-            DiskStorageHistory dsh = new DiskStorageHistory(world, uuid, Integer.parseInt(file.getName().split("\\.")[0]));
-            DiskStorageHistory.DiskStorageSummary summary = dsh.summarize(boundsPlus, shallow);
-            RegionWrapper region = new RegionWrapper(summary.minX, summary.maxX, summary.minZ, summary.maxZ);
-            boolean encompassed = false;
-            boolean isIn = false;
-            for (RegionWrapper allowed : regionSet) {
-                isIn = isIn || allowed.intersects(region);
-                if (encompassed = allowed.isIn(region.minX, region.maxX) && allowed.isIn(region.minZ, region.maxZ)) {
-                    break;
+            histories.add(new DiskStorageHistory(world, uuid, Integer.parseInt(file.getName().split("\\.")[0])));
+        }
+        ArrayDeque<ForkJoinTask<DiskStorageHistory.DiskStorageSummary>> summaries = new ArrayDeque<>(readAhead + 1);
+        int submitted = 0;
+        HashSet<RegionWrapper> regionSet = new HashSet<RegionWrapper>(Arrays.asList(bounds));
+        ArrayList<DiskStorageHistory> result = new ArrayList<>();
+        try {
+            for (int i = 0; i < histories.size(); i++) {
+                for (; submitted < histories.size() && submitted <= i + readAhead; submitted++) {
+                    final DiskStorageHistory next = histories.get(submitted);
+                    summaries.add(pool.submit(new Callable<DiskStorageHistory.DiskStorageSummary>() {
+                        @Override
+                        public DiskStorageHistory.DiskStorageSummary call() {
+                            // Summaries which started after returning aren't needed
+                            return finished.get() ? null : next.summarize(boundsPlus, shallow);
+                        }
+                    }));
                 }
-            }
-            if (isIn) {
-                result.add(0, dsh);
-                if (!encompassed) {
-                    regionSet.add(region);
+                DiskStorageHistory dsh = histories.get(i);
+                DiskStorageHistory.DiskStorageSummary summary = summaries.poll().join();
+                RegionWrapper region = new RegionWrapper(summary.minX, summary.maxX, summary.minZ, summary.maxZ);
+                boolean encompassed = false;
+                boolean isIn = false;
+                for (RegionWrapper allowed : regionSet) {
+                    isIn = isIn || allowed.intersects(region);
+                    if (encompassed = allowed.isIn(region.minX, region.maxX) && allowed.isIn(region.minZ, region.maxZ)) {
+                        break;
+                    }
                 }
-                if (shallow && result.size() > 64) {
-                    return result;
+                if (isIn) {
+                    result.add(0, dsh);
+                    if (!encompassed) {
+                        regionSet.add(region);
+                    }
+                    if (shallow && result.size() > 64) {
+                        return result;
+                    }
                 }
             }
+        } finally {
+            // Summaries which are no longer needed
+            finished.set(true);
+            for (ForkJoinTask<?> task : summaries) {
+                task.cancel(false);
+            }
         }
         return result;
     }
@@ -3,22 +3,27 @@ package com.boydti.fawe.command;
 import com.boydti.fawe.Fawe;
 import com.boydti.fawe.FaweCache;
 import com.boydti.fawe.config.BBC;
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.jnbt.NBTStreamer;
+import com.boydti.fawe.jnbt.anvil.MCABlockIndex;
 import com.boydti.fawe.jnbt.anvil.MCAChunk;
 import com.boydti.fawe.jnbt.anvil.MCAClipboard;
 import com.boydti.fawe.jnbt.anvil.MCAFile;
 import com.boydti.fawe.jnbt.anvil.MCAFilter;
 import com.boydti.fawe.jnbt.anvil.MCAFilterCounter;
 import com.boydti.fawe.jnbt.anvil.MCAQueue;
+import com.boydti.fawe.jnbt.anvil.MCASectionFilter;
 import com.boydti.fawe.object.FawePlayer;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.RegionWrapper;
 import com.boydti.fawe.object.RunnableVal;
 import com.boydti.fawe.object.RunnableVal2;
+import com.boydti.fawe.object.RunnableVal3;
 import com.boydti.fawe.object.RunnableVal4;
 import com.boydti.fawe.object.mask.FaweBlockMatcher;
 import com.boydti.fawe.object.number.MutableLong;
 import com.boydti.fawe.util.ArrayUtil;
+import com.boydti.fawe.util.MainUtil;
 import com.boydti.fawe.util.SetQueue;
 import com.boydti.fawe.util.StringMan;
 import com.sk89q.minecraft.util.commands.Command;
@@ -46,7 +51,9 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
@@ -87,9 +94,34 @@ public class AnvilCommands {
             }
             matchFrom = FaweBlockMatcher.fromBlocks(worldEdit.getBlocks(player, from, true), useData);
         }
-        final FaweBlockMatcher matchTo = FaweBlockMatcher.setBlocks(worldEdit.getBlocks(player, to, true));
+        Set<BaseBlock> toBlocks = worldEdit.getBlocks(player, to, true);
         File root = new File(folder + File.separator + "region");
         MCAQueue queue = new MCAQueue(folder, root, true);
+        if (toBlocks.size() == 1) {
+            // A single block can be replaced a whole section at a time
+            BaseBlock toBlock = toBlocks.iterator().next();
+            int combinedTo = FaweCache.getCombined(toBlock.getId(), toBlock.getData() & 15);
+            final int[] table = MCASectionFilter.createTable();
+            for (int combined = 0; combined < table.length; combined++) {
+                if (matchFrom.apply(FaweCache.CACHE_BLOCK[combined])) {
+                    table[combined] = combinedTo;
+                }
+            }
+            MCASectionFilter<MutableLong> filter = queue.filterWorld(new MCASectionFilter<MutableLong>() {
+                @Override
+                public void applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, MutableLong count) {
+                    count.add(replace(chunk, layer, table));
+                }
+
+                @Override
+                public MutableLong init() {
+                    return new MutableLong();
+                }
+            });
+            player.print(BBC.getPrefix() + BBC.VISITOR_BLOCK.format(getTotal(filter)));
+            return;
+        }
+        final FaweBlockMatcher matchTo = FaweBlockMatcher.setBlocks(toBlocks);
         MCAFilterCounter counter = queue.filterWorld(new MCAFilterCounter() {
             @Override
             public void applyBlock(int x, int y, int z, BaseBlock block, MutableLong ignore) {
@@ -99,6 +131,14 @@ public class AnvilCommands {
         player.print(BBC.getPrefix() + BBC.VISITOR_BLOCK.format(counter.getTotal()));
     }
 
+    private static long getTotal(MCAFilter<MutableLong> filter) {
+        long total = 0;
+        for (MutableLong value : filter.getAll()) {
+            total += value.get();
+        }
+        return total;
+    }
+
     @Command(
             aliases = {"deleteallold"},
             usage = "<folder> <age-ticks> [file-age=60000]",
@@ -296,58 +336,185 @@ public class AnvilCommands {
         for (BaseBlock block : searchBlocks) {
             allowedId[block.getId()] = true;
         }
-        MCAFilterCounter filter;
+        MCASectionFilter<MutableLong> filter;
         if (useData) { // Optimize for both cases
             final boolean[] allowed = new boolean[Character.MAX_VALUE];
             for (BaseBlock block : searchBlocks) {
-                allowed[FaweCache.getCombined(block)] = true;
+                if (FaweCache.hasData(block.getId())) {
+                    allowed[FaweCache.getCombined(block)] = true;
+                } else {
+                    // The data of these blocks is ignored
+                    for (int data = 0; data < 16; data++) {
+                        allowed[FaweCache.getCombined(block.getId(), data)] = true;
+                    }
+                }
             }
-            filter = new MCAFilterCounter() {
+            filter = new MCASectionFilter<MutableLong>() {
                 @Override
-                public MCAChunk applyChunk(MCAChunk chunk, MutableLong count) {
-                    for (int layer = 0; layer < chunk.ids.length; layer++) {
-                        byte[] ids = chunk.ids[layer];
-                        if (ids == null) {
-                            continue;
-                        }
-                        byte[] datas = chunk.data[layer];
-                        for (int i = 0; i < ids.length; i++) {
-                            int id = ids[i] & 0xFF;
-                            if (!allowedId[id]) {
-                                continue;
-                            }
-                            int combined = (id) << 4;
-                            if (FaweCache.hasData(id)) {
-                                combined += chunk.getNibble(i, datas);
-                            }
-                            if (allowed[combined]) {
-                                count.increment();
-                            }
-                        }
-                    }
-                    return null;
+                public void applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, MutableLong count) {
+                    count.add(count(ids, data, allowed));
+                }
+
+                @Override
+                public MutableLong init() {
+                    return new MutableLong();
                 }
             };
         } else {
-            filter = new MCAFilterCounter() {
+            filter = new MCASectionFilter<MutableLong>() {
                 @Override
-                public MCAChunk applyChunk(MCAChunk chunk, MutableLong count) {
-                    for (int layer = 0; layer < chunk.ids.length; layer++) {
-                        byte[] ids = chunk.ids[layer];
-                        if (ids != null) {
-                            for (byte i : ids) {
-                                if (allowedId[i & 0xFF]) {
-                                    count.increment();
-                                }
-                            }
-                        }
-                    }
-                    return null;
+                public void applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, MutableLong count) {
+                    count.add(count(ids, allowedId));
+                }
+
+                @Override
+                public MutableLong init() {
+                    return new MutableLong();
                 }
             };
         }
         queue.filterWorld(filter);
-        player.print(BBC.getPrefix() + BBC.SELECTION_COUNT.format(filter.getTotal()));
+        player.print(BBC.getPrefix() + BBC.SELECTION_COUNT.format(getTotal(filter)));
+    }
+
+    private final Map<String, MCABlockIndex> indexes = new HashMap<>();
+
+    private MCABlockIndex getIndex(String folder) {
+        synchronized (indexes) {
+            MCABlockIndex index = indexes.get(folder);
+            if (index == null) {
+                File root = new File(folder + File.separator + "region");
+                MCAQueue queue = new MCAQueue(folder, root, true);
+                File indexFolder = MainUtil.getFile(Fawe.imp().getDirectory(), Settings.IMP.PATHS.INDEX + File.separator + new File(folder).getName());
+                indexes.put(folder, index = new MCABlockIndex(queue, indexFolder));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return true for each combined id of the blocks (every data value, unless data was specified)
+     */
+    private boolean[] getCombinedIds(Player player, String arg, boolean useData) throws WorldEditException {
+        if (arg.contains(":")) {
+            useData = true;
+        }
+        boolean[] allowed = new boolean[4096];
+        for (BaseBlock block : worldEdit.getBlocks(player, arg, true)) {
+            if (useData && FaweCache.hasData(block.getId())) {
+                allowed[FaweCache.getCombined(block) & 4095] = true;
+            } else {
+                for (int data = 0; data < 16; data++) {
+                    allowed[FaweCache.getCombined(block.getId(), data) & 4095] = true;
+                }
+            }
+        }
+        return allowed;
+    }
+
+    @Command(
+            aliases = {"index"},
+            usage = "<folder>",
+            desc = "Index where all blocks and tiles are in a world (only regions which changed are scanned again)",
+            min = 1,
+            max = 1
+    )
+    @CommandPermissions("worldedit.anvil.index")
+    public void index(Player player, String folder) throws WorldEditException {
+        long start = System.currentTimeMillis();
+        int regions = getIndex(folder).update();
+        player.print(BBC.getPrefix() + BBC.ANVIL_INDEXED.format(regions, System.currentTimeMillis() - start));
+    }
+
+    @Command(
+            aliases = {"indexcount"},
+            usage = "<folder> <id>",
+            desc = "Count blocks (or tiles with -t) in an indexed world",
+            flags = "dt",
+            min = 2,
+            max = 2
+    )
+    @CommandPermissions("worldedit.anvil.index")
+    public void indexCount(Player player, String folder, String arg, @Switch('d') boolean useData, @Switch('t') boolean tiles) throws WorldEditException {
+        MCABlockIndex index = getIndex(folder);
+        if (!index.exists()) {
+            player.print(BBC.getPrefix() + BBC.ANVIL_NOT_INDEXED.format(folder));
+            return;
+        }
+        long count = tiles ? index.countTiles(arg) : index.count(getCombinedIds(player, arg, useData));
+        player.print(BBC.getPrefix() + BBC.SELECTION_COUNT.format(count));
+    }
+
+    @Command(
+            aliases = {"indexfind"},
+            usage = "<folder> <id>",
+            desc = "List the regions (or the chunks with -c) which contain blocks in an indexed world",
+            flags = "dc",
+            min = 2,
+            max = 2
+    )
+    @CommandPermissions("worldedit.anvil.index")
+    public void indexFind(final Player player, String folder, String arg, @Switch('d') boolean useData, @Switch('c') boolean chunks) throws WorldEditException {
+        MCABlockIndex index = getIndex(folder);
+        if (!index.exists()) {
+            player.print(BBC.getPrefix() + BBC.ANVIL_NOT_INDEXED.format(folder));
+            return;
+        }
+        boolean[] allowed = getCombinedIds(player, arg, useData);
+        final MutableLong found = new MutableLong();
+        if (chunks) {
+            try {
+                index.locate(allowed, new RunnableVal2<Integer, Integer>() {
+                    @Override
+                    public void run(Integer cx, Integer cz) {
+                        found.increment();
+                        player.print(BBC.getPrefix() + BBC.ANVIL_INDEX_CHUNK.format(cx, cz, cx << 4, cz << 4));
+                    }
+                });
+            } catch (IOException e) {
+                MainUtil.handleError(e);
+            }
+        } else {
+            index.regions(allowed, new RunnableVal3<Integer, Integer, Long>() {
+                @Override
+                public void run(Integer mcaX, Integer mcaZ, Long count) {
+                    found.increment();
+                    player.print(BBC.getPrefix() + BBC.ANVIL_INDEX_REGION.format(mcaX, mcaZ, count));
+                }
+            });
+        }
+        player.print(BBC.getPrefix() + (chunks ? BBC.ANVIL_INDEX_FOUND_CHUNKS : BBC.ANVIL_INDEX_FOUND_REGIONS).format(found.get()));
+    }
+
+    @Command(
+            aliases = {"indextiles"},
+            usage = "<folder> <type> [limit=100]",
+            desc = "List the positions of a type of tile (e.g. chest, mob_spawner) in an indexed world",
+            min = 2,
+            max = 3
+    )
+    @CommandPermissions("worldedit.anvil.index")
+    public void indexTiles(final Player player, String folder, String type, @Optional("100") final int limit) throws WorldEditException {
+        MCABlockIndex index = getIndex(folder);
+        if (!index.exists()) {
+            player.print(BBC.getPrefix() + BBC.ANVIL_NOT_INDEXED.format(folder));
+            return;
+        }
+        final MutableLong found = new MutableLong();
+        try {
+            index.tiles(type, new RunnableVal3<Integer, Integer, Integer>() {
+                @Override
+                public void run(Integer x, Integer y, Integer z) {
+                    found.increment();
+                    if (found.get() <= limit) {
+                        player.print(BBC.getPrefix() + BBC.ANVIL_INDEX_TILE.format(x, y, z));
+                    }
+                }
+            });
+        } catch (IOException e) {
+            MainUtil.handleError(e);
+        }
+        player.print(BBC.getPrefix() + BBC.ANVIL_INDEX_FOUND_TILES.format(found.get(), type));
     }
 
     @Command(
@@ -105,6 +105,15 @@ public enum BBC {
     SELECTION_SHIFT("Region shifted", "WorldEdit.Selection"),
     SELECTION_CLEARED("Selection cleared", "WorldEdit.Selection"),
 
+    ANVIL_INDEXED("Indexed %s0 regions in %s1ms", "WorldEdit.Anvil"),
+    ANVIL_NOT_INDEXED("The world hasn't been indexed, use /anvil index %s0", "WorldEdit.Anvil"),
+    ANVIL_INDEX_CHUNK("Chunk %s0, %s1 (%s2, %s3)", "WorldEdit.Anvil"),
+    ANVIL_INDEX_REGION("r.%s0.%s1.mca: %s2", "WorldEdit.Anvil"),
+    ANVIL_INDEX_FOUND_CHUNKS("Found in %s0 chunks", "WorldEdit.Anvil"),
+    ANVIL_INDEX_FOUND_REGIONS("Found in %s0 regions", "WorldEdit.Anvil"),
+    ANVIL_INDEX_TILE("%s0, %s1, %s2", "WorldEdit.Anvil"),
+    ANVIL_INDEX_FOUND_TILES("Found %s0 %s1", "WorldEdit.Anvil"),
+
     BRUSH_RESET("Reset your brush.", "WorldEdit.Brush"),
     BRUSH_NONE("You aren't holding a brush!", "WorldEdit.Brush"),
     BRUSH_SCROLL_ACTION_SET("Set scroll action to %s0", "WorldEdit.Brush"),
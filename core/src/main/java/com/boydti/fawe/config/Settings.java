@@ -70,6 +70,8 @@ public class Settings extends Config {
     public static final class PATHS {
         public String HISTORY = "history";
         public String CLIPBOARD = "clipboard";
+        @Comment("Anvil block indexes (see /anvil index)")
+        public String INDEX = "index";
         @Comment("Each player has their own sub directory for schematics")
         public boolean PER_PLAYER_SCHEMATICS = true;
     }
@@ -128,6 +130,11 @@ public class Settings extends Config {
             "Place chunks instead of individual blocks"
         })
         public boolean FAST_PLACEMENT = true;
+        @Comment({
+                "Share of placement time when several players are editing at once",
+                " - A weight of 2 gets twice as much time as a weight of 1",
+        })
+        public int QUEUE_WEIGHT = 1;
     }
 
     public static class HISTORY {
@@ -170,6 +177,30 @@ public class Settings extends Config {
                 " - Larger = better ratio but uses more upfront memory"
         })
         public int BUFFER_SIZE = 531441;
+        @Comment({
+                "Store block history on disk as separately compressed chunks, with an index at the end:",
+                " - Rollback, inspect and summaries only read the chunks they need",
+                " - History written with this disabled can still be read",
+        })
+        public boolean CHUNK_INDEX = true;
+        @Comment({
+                "Compress and write chunk indexed history on a shared background thread:",
+                " - Edits only wait for it if it falls behind",
+                " - Fewer history files are open at once",
+        })
+        public boolean ASYNC_WRITER = true;
+        @Comment({
+                "When history is kept in memory (use-disk is false), store block changes outside of the java heap:",
+                " - Large edits don't cause long garbage collections",
+                " - Once an edit uses this many MB, the rest is written to a temporary file",
+                " - 0 = Disabled (compress it on the heap instead)",
+        })
+        public int OFF_HEAP_MB = 256;
+        @Comment({
+                "The most MB that all off heap history can use together",
+                " - Once reached, new block changes of every edit are written to temporary files",
+        })
+        public int OFF_HEAP_TOTAL_MB = 1024;
 
 
         @Comment({
@@ -191,6 +222,18 @@ public class Settings extends Config {
         public int CHUNK_WAIT_MS = 1000;
         @Comment("Delete history on disk after a number of days")
         public int DELETE_AFTER_DAYS = 7;
+        @Comment({
+                "Recompress history on disk once it is this many hours old (0 = disabled)",
+                " - Old history is rarely undone, so it is worth a slower compression",
+        })
+        public int COMPACT_AFTER_HOURS = 6;
+        @Comment("The compression level to recompress old history with (see compression-level)")
+        public int COMPACT_COMPRESSION_LEVEL = 9;
+        @Comment({
+                "Limit how fast old history is recompressed (0 = unlimited)",
+                " - Keeps the disk free for edits and chunk saving",
+        })
+        public int COMPACT_MB_PER_SECOND = 8;
         @Comment("Delete history in memory on logout (does not effect disk)")
         public boolean DELETE_ON_LOGOUT = true;
         @Comment({
@@ -221,6 +264,8 @@ public class Settings extends Config {
         public int PARALLEL_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
         @Create
         public static PROGRESS PROGRESS;
+        @Create
+        public static FAIR FAIR;
         @Comment({
             "When doing edits that effect more than this many chunks:",
             " - FAWE will start placing before all calculations are finished",
@@ -254,6 +299,34 @@ public class Settings extends Config {
         })
         public int PRELOAD_CHUNKS = 32;
 
+        @Comment({
+                "The most preloaded chunks which can be waiting on the main thread at once",
+                " - Further chunks are sent once earlier ones have loaded",
+        })
+        public int PRELOAD_IN_FLIGHT = 64;
+
+        @Comment({
+                "Split the queued chunks into independently locked stripes",
+                " - Edit threads can keep queueing chunks while others are being placed",
+                " - Useful when several edits run at the same time",
+        })
+        public boolean SHARDED_MAP = false;
+
+        @Comment({
+                "Store queued blocks as a compact palette instead of 8KB per chunk section",
+                " - Uses far less memory for edits with only a few different blocks",
+                " - Sections are not prepared in advance, so placement uses a bit more CPU",
+                " - Not used on 1.7, which needs separate id and data arrays",
+        })
+        public boolean PALETTE_CHUNKS = false;
+
+        @Comment({
+                "Split large set, replace, naturalize and distribution operations between threads by chunk",
+                " - Only used when the edit has no history extent, mask or block bag in the way",
+                " - Only used with simple masks and patterns, which are safe to share between threads",
+        })
+        public boolean PARALLEL_REGION_OPS = true;
+
         @Comment({
                 "Discard edits which have been idle for a certain amount of time (ms)",
                 " - E.g. A plugin creates an EditSession but never does anything with it",
@@ -261,6 +334,22 @@ public class Settings extends Config {
         })
         public static int DISCARD_AFTER_MS = 60000;
 
+        public static class FAIR {
+            @Comment({
+                    "Share placement time between players instead of placing edits in order",
+                    " - A small edit won't have to wait for someone else's large edit to finish",
+                    " - Each player gets time based on the `queue-weight` of their limit group"
+            })
+            public boolean ENABLED = true;
+            @Comment("The weight for edits without a player (e.g. console or plugins)")
+            public int CONSOLE_WEIGHT = 1;
+            @Comment({
+                    "Override the weight for specific players",
+                    " - Format: <name>:<weight>"
+            })
+            public List<String> PLAYER_WEIGHTS = new ArrayList<>();
+        }
+
         public static class PROGRESS {
             @Comment({"Display constant titles about the progress of a user's edit",
                     " - false = disabled",
@@ -285,6 +374,12 @@ public class Settings extends Config {
                 "Directly modify the region files.",
         })
         public boolean ANVIL_QUEUE_MODE = false;
+        @Comment({
+                "How many region files a whole world anvil operation (e.g. /anvil replaceall) works on at once",
+                " - Files are read ahead, filtered and written back at the same time",
+                " - Each file being worked on may use up to its size in memory"
+        })
+        public int ANVIL_PIPELINE_FILES = 4;
     }
 
     public static class WEB {
@@ -389,6 +484,7 @@ public class Settings extends Config {
                 limit.INVENTORY_MODE = Math.min(limit.INVENTORY_MODE, newLimit.INVENTORY_MODE);
                 limit.SPEED_REDUCTION = Math.min(limit.SPEED_REDUCTION, newLimit.SPEED_REDUCTION);
                 limit.FAST_PLACEMENT |= newLimit.FAST_PLACEMENT;
+                limit.QUEUE_WEIGHT = Math.max(limit.QUEUE_WEIGHT, newLimit.QUEUE_WEIGHT);
             }
         }
         return limit;
@@ -18,6 +18,7 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
@@ -32,6 +33,11 @@ public class RollbackDatabase {
 
     private String INSERT_EDIT;
     private String CREATE_TABLE;
+    private String CREATE_INDEX_TIME;
+    private String CREATE_RTREE;
+    private String CREATE_TRIGGER_INSERT;
+    private String CREATE_TRIGGER_DELETE;
+    private String FILL_RTREE;
 //    private String GET_EDITS_POINT;
     private String GET_EDITS;
     private String GET_EDITS_USER;
@@ -39,6 +45,11 @@ public class RollbackDatabase {
     private String DELETE_EDIT_USER;
     private String PURGE;
 
+    /**
+     * If the edit bounds are indexed by an R*Tree (the SQLite build may not include the module)
+     */
+    private boolean spatial;
+
     private ConcurrentLinkedQueue<RollbackOptimizedHistory> historyChanges = new ConcurrentLinkedQueue<>();
     private ConcurrentLinkedQueue<Runnable> notify = new ConcurrentLinkedQueue<>();
 
@@ -56,11 +67,18 @@ public class RollbackDatabase {
         INSERT_EDIT = "INSERT OR REPLACE INTO `" + prefix + "edits` (`player`,`id`,`x1`,`y1`,`z1`,`x2`,`y2`,`z2`,`time`) VALUES(?,?,?,?,?,?,?,?,?)";
         PURGE = "DELETE FROM `" + prefix + "edits` WHERE `time`<?";
 //        GET_EDITS_POINT = "SELECT `player`,`id` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=?";
-        GET_EDITS = "SELECT `player`,`id` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? ORDER BY `time` DESC, `id` DESC";
-        GET_EDITS_USER = "SELECT `player`,`id` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? AND `player`=? ORDER BY `time` DESC, `id` DESC";
+        CREATE_INDEX_TIME = "CREATE INDEX IF NOT EXISTS `" + prefix + "edits_time` ON `" + prefix + "edits` (`time`)";
+        // The bounds are stored as 32 bit floats, which the R*Tree rounds outwards, so the exact bounds are checked on the edits table as well
+        CREATE_RTREE = "CREATE VIRTUAL TABLE IF NOT EXISTS `" + prefix + "edits_bounds` USING rtree(`id`,`x1`,`x2`,`y1`,`y2`,`z1`,`z2`,`t1`,`t2`)";
+        CREATE_TRIGGER_INSERT = "CREATE TRIGGER IF NOT EXISTS `" + prefix + "edits_bounds_insert` AFTER INSERT ON `" + prefix + "edits` BEGIN " +
+                "INSERT OR REPLACE INTO `" + prefix + "edits_bounds` VALUES(new.rowid,new.`x1`,new.`x2`,new.`y1`,new.`y2`,new.`z1`,new.`z2`,new.`time`,new.`time`); END";
+        CREATE_TRIGGER_DELETE = "CREATE TRIGGER IF NOT EXISTS `" + prefix + "edits_bounds_delete` AFTER DELETE ON `" + prefix + "edits` BEGIN " +
+                "DELETE FROM `" + prefix + "edits_bounds` WHERE `id`=old.rowid; END";
+        FILL_RTREE = "INSERT OR REPLACE INTO `" + prefix + "edits_bounds` SELECT rowid,`x1`,`x2`,`y1`,`y2`,`z1`,`z2`,`time`,`time` FROM `" + prefix + "edits`";
         DELETE_EDITS_USER = "DELETE FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? AND `player`=?";
         DELETE_EDIT_USER = "DELETE FROM `" + prefix + "edits` WHERE `player`=? AND `id`=?";
         init();
+        setQueries();
         purge((int) TimeUnit.DAYS.toMillis(Settings.IMP.HISTORY.DELETE_AFTER_DAYS));
         TaskManager.IMP.async(new Runnable() {
             @Override
@@ -92,6 +110,65 @@ public class RollbackDatabase {
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        try (PreparedStatement stmt = connection.prepareStatement(CREATE_INDEX_TIME)) {
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        spatial = initSpatial();
+    }
+
+    /**
+     * Create the R*Tree of the edit bounds, and fill it from the edits table if it is new
+     * @return false if the R*Tree module isn't available
+     */
+    private boolean initSpatial() {
+        try (Statement stmt = connection.createStatement()) {
+            // So replacing an edit also removes its old bounds
+            stmt.execute("PRAGMA recursive_triggers = ON");
+            boolean exists;
+            try (ResultSet result = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE `name`='" + prefix + "edits_bounds'")) {
+                exists = result.next();
+            }
+            stmt.executeUpdate(CREATE_RTREE);
+            stmt.executeUpdate(CREATE_TRIGGER_INSERT);
+            stmt.executeUpdate(CREATE_TRIGGER_DELETE);
+            if (!exists) {
+                stmt.executeUpdate(FILL_RTREE);
+            }
+            return true;
+        } catch (SQLException e) {
+            Fawe.debug("Unable to create the spatial index for " + worldName + " (edit lookups will scan every edit): " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void setQueries() {
+        if (spatial) {
+            String select = "SELECT e.`player`,e.`id` FROM `" + prefix + "edits_bounds` b JOIN `" + prefix + "edits` e ON e.rowid=b.`id` " +
+                    "WHERE b.`x2`>=? AND b.`x1`<=? AND b.`y2`>=? AND b.`y1`<=? AND b.`z2`>=? AND b.`z1`<=? AND b.`t2`>? " +
+                    "AND e.`x2`>=? AND e.`x1`<=? AND e.`y2`>=? AND e.`y1`<=? AND e.`z2`>=? AND e.`z1`<=? AND e.`time`>?";
+            GET_EDITS = select + " ORDER BY e.`time` DESC, e.`id` DESC";
+            GET_EDITS_USER = select + " AND e.`player`=? ORDER BY e.`time` DESC, e.`id` DESC";
+        } else {
+            GET_EDITS = "SELECT `player`,`id` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? ORDER BY `time` DESC, `id` DESC";
+            GET_EDITS_USER = "SELECT `player`,`id` FROM `" + prefix + "edits` WHERE `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=? AND `time`>? AND `player`=? ORDER BY `time` DESC, `id` DESC";
+        }
+    }
+
+    /**
+     * Set the bounds and time of an edit query
+     * @return the next parameter index
+     */
+    private int setBounds(PreparedStatement stmt, int index, Vector pos1, Vector pos2, long minTime) throws SQLException {
+        stmt.setInt(index++, pos1.getBlockX());
+        stmt.setInt(index++, pos2.getBlockX());
+        stmt.setByte(index++, (byte) (pos1.getBlockY() - 128));
+        stmt.setByte(index++, (byte) (pos2.getBlockY() - 128));
+        stmt.setInt(index++, pos1.getBlockZ());
+        stmt.setInt(index++, pos2.getBlockZ());
+        stmt.setInt(index++, (int) (minTime / 1000));
+        return index;
     }
 
     public void addFinishTask(Runnable run) {
@@ -106,6 +183,7 @@ public class RollbackDatabase {
                     byte[] uuidBytes = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
                     stmt.setBytes(1, uuidBytes);
                     stmt.setInt(2, id);
+                    stmt.executeUpdate();
                 } catch (SQLException e) {
                     e.printStackTrace();
                 }
@@ -135,16 +213,13 @@ public class RollbackDatabase {
             @Override
             public void run() {
                 try (PreparedStatement stmt = connection.prepareStatement(uuid == null ? GET_EDITS : GET_EDITS_USER)) {
-                    stmt.setInt(1, pos1.getBlockX());
-                    stmt.setInt(2, pos2.getBlockX());
-                    stmt.setByte(3, (byte) (pos1.getBlockY() - 128));
-                    stmt.setByte(4, (byte) (pos2.getBlockY() - 128));
-                    stmt.setInt(5, pos1.getBlockZ());
-                    stmt.setInt(6, pos2.getBlockZ());
-                    stmt.setInt(7, (int) (minTime / 1000));
+                    int param = setBounds(stmt, 1, pos1, pos2, minTime);
+                    if (spatial) {
+                        param = setBounds(stmt, param, pos1, pos2, minTime);
+                    }
                     if (uuid != null) {
                         byte[] uuidBytes = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
-                        stmt.setBytes(8, uuidBytes);
+                        stmt.setBytes(param, uuidBytes);
                     }
                     ResultSet result = stmt.executeQuery();
                     if (!result.next()) {
@@ -168,15 +243,10 @@ public class RollbackDatabase {
                 }
                 if (delete && uuid != null) {
                     try (PreparedStatement stmt = connection.prepareStatement(DELETE_EDITS_USER)) {
-                        stmt.setInt(1, pos1.getBlockX());
-                        stmt.setInt(2, pos2.getBlockX());
-                        stmt.setByte(3, (byte) (pos1.getBlockY() - 128));
-                        stmt.setByte(4, (byte) (pos2.getBlockY() - 128));
-                        stmt.setInt(5, pos1.getBlockZ());
-                        stmt.setInt(6, pos2.getBlockZ());
-                        stmt.setInt(7, (int) (minTime / 1000));
+                        int param = setBounds(stmt, 1, pos1, pos2, minTime);
                         byte[] uuidBytes = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
-                        stmt.setBytes(8, uuidBytes);
+                        stmt.setBytes(param, uuidBytes);
+                        stmt.executeUpdate();
                     } catch (SQLException e) {
                         e.printStackTrace();
                     }
@@ -238,9 +308,9 @@ public class RollbackDatabase {
                     stmt.setByte(7, (byte) (change.getMaxY() - 128));
                     stmt.setInt(8, change.getMaxZ());
                     stmt.setInt(9, (int) (change.getTime() / 1000));
-                    stmt.executeUpdate();
-                    stmt.clearParameters();
+                    stmt.addBatch();
                 }
+                stmt.executeBatch();
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -0,0 +1,252 @@
+package com.boydti.fawe.database;
+
+import com.boydti.fawe.object.RegionWrapper;
+import com.boydti.fawe.object.RunnableVal;
+import com.boydti.fawe.object.change.MutableFullBlockChange;
+import com.boydti.fawe.object.changeset.DiskStorageHistory;
+import com.boydti.fawe.object.io.ChunkIndexedBlockReader;
+import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.TaskManager;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.world.World;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds the block changes inside a region, across every stored edit of a world<br>
+ * - Edits are found from the spatial index of the RollbackDatabase<br>
+ * - Chunk indexed history only decompresses the chunks which may have changes inside the region<br>
+ * - Each edit is decoded on the fork join pool, and results are passed on newest first as they are ready<br>
+ * <br>
+ * user: Only edits by this player (defaults to everyone)<br>
+ * since / before: The time window, in milliseconds since the epoch<br>
+ * blocks: Only changes from or to these block ids (defaults to every block)<br>
+ * limitPerEdit: Stop decoding an edit once this many changes were found (e.g. 1 to check if an edit touched the region)<br>
+ * maxEdits: The maximum number of edits with changes to return
+ */
+public class RollbackQuery {
+
+    /**
+     * The changes found in an edit
+     */
+    public static class Result {
+        private final DiskStorageHistory history;
+        private int[] changes = new int[5 * 16];
+        private int size;
+
+        private Result(DiskStorageHistory history) {
+            this.history = history;
+        }
+
+        private void add(int x, int y, int z, int from, int to) {
+            int index = size * 5;
+            if (index + 5 > changes.length) {
+                changes = Arrays.copyOf(changes, changes.length << 1);
+            }
+            changes[index] = x;
+            changes[index + 1] = y;
+            changes[index + 2] = z;
+            changes[index + 3] = from;
+            changes[index + 4] = to;
+            size++;
+        }
+
+        public DiskStorageHistory getHistory() {
+            return history;
+        }
+
+        /**
+         * @return the number of changes found
+         */
+        public int size() {
+            return size;
+        }
+
+        public int getX(int i) {
+            return changes[i * 5];
+        }
+
+        public int getY(int i) {
+            return changes[i * 5 + 1];
+        }
+
+        public int getZ(int i) {
+            return changes[i * 5 + 2];
+        }
+
+        /**
+         * @param i
+         * @return the combined id before the change
+         */
+        public int getFrom(int i) {
+            return changes[i * 5 + 3];
+        }
+
+        /**
+         * @param i
+         * @return the combined id after the change (0 if redo isn't stored)
+         */
+        public int getTo(int i) {
+            return changes[i * 5 + 4];
+        }
+    }
+
+    private final World world;
+    private final RegionWrapper region;
+    private UUID user;
+    private long since;
+    private long before = Long.MAX_VALUE;
+    private boolean[] blocks;
+    private int limitPerEdit = Integer.MAX_VALUE;
+    private int maxEdits = Integer.MAX_VALUE;
+
+    /**
+     * @param world
+     * @param region the region (inclusive)
+     */
+    public RollbackQuery(@Nonnull World world, @Nonnull RegionWrapper region) {
+        checkNotNull(world);
+        checkNotNull(region);
+        this.world = world;
+        this.region = new RegionWrapper(region.minX, region.maxX, Math.max(0, region.minY), region.maxY, region.minZ, region.maxZ);
+    }
+
+    public RollbackQuery user(@Nullable UUID user) {
+        this.user = user;
+        return this;
+    }
+
+    public RollbackQuery since(long time) {
+        this.since = time;
+        return this;
+    }
+
+    public RollbackQuery before(long time) {
+        this.before = time;
+        return this;
+    }
+
+    public RollbackQuery blocks(int... ids) {
+        this.blocks = new boolean[4096];
+        for (int id : ids) {
+            blocks[id & 4095] = true;
+        }
+        return this;
+    }
+
+    public RollbackQuery limitPerEdit(int limit) {
+        this.limitPerEdit = limit;
+        return this;
+    }
+
+    public RollbackQuery maxEdits(int max) {
+        this.maxEdits = max;
+        return this;
+    }
+
+    /**
+     * Run the query (on the database thread)
+     * @param onEach called for each edit with changes, newest first
+     * @param whenDone called once every edit has been checked
+     */
+    public void run(final RunnableVal<Result> onEach, final Runnable whenDone) {
+        final ArrayDeque<ForkJoinTask<Result>> pending = new ArrayDeque<>();
+        final int[] found = new int[1];
+        RollbackDatabase db = DBHandler.IMP.getDatabase(world);
+        Vector pos1 = new Vector(region.minX, region.minY, region.minZ);
+        Vector pos2 = new Vector(region.maxX, region.maxY, region.maxZ);
+        db.getPotentialEdits(user, since, pos1, pos2, new RunnableVal<DiskStorageHistory>() {
+            @Override
+            public void run(final DiskStorageHistory history) {
+                if (found[0] >= maxEdits || history.getBDFile().lastModified() > before) {
+                    return;
+                }
+                pending.add(TaskManager.IMP.getPublicForkJoinPool().submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        return search(history);
+                    }
+                }));
+                // Pass on what has finished so far, keeping the order
+                while (!pending.isEmpty() && pending.peek().isDone()) {
+                    deliver(pending.poll(), onEach, found);
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                while (!pending.isEmpty()) {
+                    deliver(pending.poll(), onEach, found);
+                }
+                if (whenDone != null) {
+                    whenDone.run();
+                }
+            }
+        }, false);
+    }
+
+    private void deliver(ForkJoinTask<Result> task, RunnableVal<Result> onEach, int[] found) {
+        Result result;
+        try {
+            result = task.join();
+        } catch (RuntimeException e) {
+            MainUtil.handleError(e);
+            return;
+        }
+        if (result != null && result.size() > 0 && found[0] < maxEdits) {
+            found[0]++;
+            onEach.run(result);
+        }
+    }
+
+    private boolean matches(int from, int to) {
+        return blocks == null || blocks[from >> 4] || blocks[to >> 4];
+    }
+
+    /**
+     * Find the changes of an edit inside the region
+     * @param history
+     * @return
+     * @throws IOException
+     */
+    private Result search(DiskStorageHistory history) throws IOException {
+        final Result result = new Result(history);
+        try (ChunkIndexedBlockReader reader = history.getBlockReader()) {
+            if (reader != null) {
+                ChunkIndexedBlockReader.BlockVisitor visitor = new ChunkIndexedBlockReader.BlockVisitor() {
+                    @Override
+                    public void run(int x, int y, int z, int from, int to) {
+                        if (result.size < limitPerEdit && matches(from, to)) {
+                            result.add(x, y, z, from, to);
+                        }
+                    }
+                };
+                for (ChunkIndexedBlockReader.Entry entry : reader.getEntries(region)) {
+                    reader.forEach(entry, region, visitor);
+                    if (result.size >= limitPerEdit) {
+                        break;
+                    }
+                }
+                return result;
+            }
+        }
+        Iterator<MutableFullBlockChange> iter = history.getFullBlockIterator(null, 0, false, region);
+        while (iter.hasNext() && result.size < limitPerEdit) {
+            MutableFullBlockChange change = iter.next();
+            if (matches(change.from, change.to)) {
+                result.add(change.x, change.y, change.z, change.from, change.to);
+            }
+        }
+        return result;
+    }
+}
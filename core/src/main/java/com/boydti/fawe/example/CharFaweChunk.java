@@ -5,6 +5,7 @@ import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.util.MathMan;
 import com.sk89q.jnbt.CompoundTag;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -18,6 +19,16 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
     public final short[] air;
     public final byte[] heightMap;
 
+    /**
+     * The value every change in a section has been set to, or 0 if they differ
+     */
+    protected final char[] uniform;
+
+    /**
+     * If a section was scanned and has different values, until it is next changed
+     */
+    private final boolean[] notUniform;
+
     public byte[] biomes;
     public HashMap<Short, CompoundTag> tiles;
     public HashSet<CompoundTag> entities;
@@ -31,6 +42,8 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
         this.count = count;
         this.air = air;
         this.heightMap = heightMap;
+        this.uniform = new char[ids.length];
+        this.notUniform = new boolean[ids.length];
     }
 
     /**
@@ -46,6 +59,8 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
         this.count = new short[HEIGHT >> 4];
         this.air = new short[HEIGHT >> 4];
         this.heightMap = new byte[256];
+        this.uniform = new char[HEIGHT >> 4];
+        this.notUniform = new boolean[HEIGHT >> 4];
     }
 
     @Override
@@ -86,6 +101,103 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
         this.count[i] = value;
     }
 
+    /**
+     * Get the value if every block in a section is being set to the same thing<br>
+     *     - Tracked as blocks are set, so usually no scan of the section is needed<br>
+     *     - Other sections are scanned once, and the result is kept until the section is next changed
+     * @param i
+     * @return the queued id, or 0 if the section is not full or has different values
+     */
+    public char getUniformId(final int i) {
+        if (this.count[i] < 4096 || this.notUniform[i]) {
+            return 0;
+        }
+        char value = this.uniform[i];
+        if (value == 0) {
+            char[] vs = this.ids[i];
+            if (vs == null) {
+                return 0;
+            }
+            value = vs[0];
+            for (int j = 1; j < vs.length; j++) {
+                if (vs[j] != value) {
+                    this.notUniform[i] = true;
+                    return 0;
+                }
+            }
+            this.uniform[i] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Create a palette where every block is the same, for versions which store sections as palettes<br>
+     *     - Returns null by default, so the section is set from its id array
+     * @param combinedId
+     * @return
+     */
+    public Object newUniformPalette(char combinedId) {
+        return null;
+    }
+
+    /**
+     * Get a new palette for a section if every block in it is being set to the same thing
+     * @param i
+     * @param <P> the palette type of the version
+     * @return the palette, or null if the section has to be set block by block
+     */
+    public <P> P getUniformPalette(final int i) {
+        char uniformId = getUniformId(i);
+        if (uniformId > 1) {
+            return (P) newUniformPalette(uniformId);
+        }
+        return null;
+    }
+
+    /**
+     * Get the palette to set a whole section with, if it doesn't have to be set block by block<br>
+     *     - A palette built by optimize() is used first, otherwise one is created if every block is the same
+     * @param palettes the palettes built by optimize(), or null
+     * @param i
+     * @param <P> the palette type of the version
+     * @return the palette, or null
+     */
+    public <P> P getSectionPalette(P[] palettes, final int i) {
+        if (palettes != null && palettes[i] != null) {
+            return palettes[i];
+        }
+        return getUniformPalette(i);
+    }
+
+    /**
+     * Fill the packed storage of a palette which has a single block at index 0
+     * @param raw the backing array of the palette
+     * @return false if the palette doesn't use 4 bits per block
+     */
+    protected static boolean fillUniformPalette(long[] raw) {
+        if (raw.length != 256) {
+            return false;
+        }
+        // 4 bits per block, so each long is the palette index repeated 16 times
+        Arrays.fill(raw, (raw[0] & 0xF) * 0x1111111111111111L);
+        return true;
+    }
+
+    /**
+     * Track whether a section only has one value
+     * @param i
+     * @param combined
+     * @param first if this is the first change in the section
+     */
+    protected final void setUniform(final int i, final char combined, final boolean first) {
+        this.notUniform[i] = false;
+        if (first) {
+            this.uniform[i] = combined;
+        } else if (this.uniform[i] != combined) {
+            this.uniform[i] = 0;
+        }
+    }
+
     public int getTotalCount() {
         int total = 0;
         for (int i = 0; i < count.length; i++) {
@@ -192,14 +304,24 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
         return entityRemoves == null ? new HashSet<UUID>() : entityRemoves;
     }
 
+    /**
+     * Called when blocks in a section are changed<br>
+     *     - Anything optimize() prepared for that section is out of date
+     * @param layer
+     */
+    protected void onSectionChange(int layer) {}
+
     @Override
     public void setBlock(int x, int y, int z, int id) {
         final int i = FaweCache.CACHE_I[y][z][x];
         final int j = FaweCache.CACHE_J[y][z][x];
+        onSectionChange(i);
         char[] vs = this.ids[i];
+        char combined = id == 0 ? (char) 1 : (char) (id << 4);
         if (vs == null) {
             vs = this.ids[i] = new char[4096];
             this.count[i]++;
+            setUniform(i, combined, true);
         } else {
             switch (vs[j]) {
                 case 0:
@@ -209,6 +331,7 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
                     this.air[i]--;
                     break;
             }
+            setUniform(i, combined, false);
         }
         switch (id) {
             case 0:
@@ -242,10 +365,13 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
     public void setBlock(final int x, final int y, final int z, final int id, int data) {
         final int i = FaweCache.CACHE_I[y][z][x];
         final int j = FaweCache.CACHE_J[y][z][x];
+        onSectionChange(i);
         char[] vs = this.ids[i];
+        char combined = getQueuedId(id, data);
         if (vs == null) {
             vs = this.ids[i] = new char[4096];
             this.count[i]++;
+            setUniform(i, combined, true);
         } else {
             switch (vs[j]) {
                 case 0:
@@ -255,12 +381,82 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
                     this.air[i]--;
                     break;
             }
+            setUniform(i, combined, false);
+        }
+        vs[j] = combined;
+        if (combined == 1) {
+            this.air[i]++;
+        } else {
+            heightMap[z << 4 | x] = (byte) y;
+        }
+    }
+
+    @Override
+    public void fillCuboid(int x1, int x2, int y1, int y2, int z1, int z2, int id, byte data) {
+        char combined = getQueuedId(id, data);
+        boolean column = x1 == 0 && x2 == 15 && z1 == 0 && z2 == 15;
+        for (int layer = y1 >> 4; layer <= y2 >> 4; layer++) {
+            int minY = Math.max(y1, layer << 4);
+            int maxY = Math.min(y2, (layer << 4) + 15);
+            onSectionChange(layer);
+            char[] vs = this.ids[layer];
+            if (column && minY == layer << 4 && maxY == (layer << 4) + 15) {
+                // Whole section
+                if (vs == null) {
+                    vs = this.ids[layer] = new char[4096];
+                }
+                Arrays.fill(vs, combined);
+                this.count[layer] = 4096;
+                this.air[layer] = (short) (combined == 1 ? 4096 : 0);
+                setUniform(layer, combined, true);
+            } else {
+                setUniform(layer, combined, vs == null);
+                if (vs == null) {
+                    vs = this.ids[layer] = new char[4096];
+                }
+                // Indexes are contiguous along the x axis
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = z1; z <= z2; z++) {
+                        int j = FaweCache.CACHE_J[y][z][x1];
+                        for (int x = x1; x <= x2; x++, j++) {
+                            switch (vs[j]) {
+                                case 0:
+                                    this.count[layer]++;
+                                    break;
+                                case 1:
+                                    this.air[layer]--;
+                                    break;
+                            }
+                            vs[j] = combined;
+                        }
+                    }
+                }
+                if (combined == 1) {
+                    this.air[layer] += (maxY - minY + 1) * (z2 - z1 + 1) * (x2 - x1 + 1);
+                }
+            }
+            if (combined != 1) {
+                for (int z = z1; z <= z2; z++) {
+                    for (int x = x1; x <= x2; x++) {
+                        heightMap[z << 4 | x] = (byte) maxY;
+                    }
+                }
+            }
         }
+    }
+
+    /**
+     * Get the value stored in the id arrays for a block<br>
+     *     - 0 = unchanged, 1 = air, otherwise (id << 4) + data<br>
+     *     - Data is dropped for blocks where it is not needed
+     * @param id
+     * @param data
+     * @return
+     */
+    public static char getQueuedId(int id, int data) {
         switch (id) {
             case 0:
-                this.air[i]++;
-                vs[j] = (char) 1;
-                return;
+                return 1;
             case 11:
             case 39:
             case 40:
@@ -323,9 +519,7 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
             case 190:
             case 191:
             case 192:
-                vs[j] = (char) (id << 4);
-                heightMap[z << 4 | x] = (byte) y;
-                return;
+                return (char) (id << 4);
             case 130:
             case 76:
             case 62:
@@ -337,9 +531,7 @@ public abstract class CharFaweChunk<T, V extends FaweQueue> extends FaweChunk<T>
             case 65:
             case 68: // removed
             default:
-                vs[j] = (char) ((id << 4) + data);
-                heightMap[z << 4 | x] = (byte) y;
-                return;
+                return (char) ((id << 4) + data);
         }
     }
 
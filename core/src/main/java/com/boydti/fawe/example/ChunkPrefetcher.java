@@ -0,0 +1,202 @@
+package com.boydti.fawe.example;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.SetQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads chunks on the main thread ahead of an operation reading them<br>
+ * - Operations call prefetch(cx, cz) with the chunks they will need next, in the order they need them<br>
+ * - Loads are sent to the main thread in batches, with a cap on how many can be waiting at once<br>
+ * - Reads of the chunks it was asked to load are counted as hits if the chunk was loaded by then, otherwise as misses (logged when the queue is done, see report())
+ */
+public class ChunkPrefetcher {
+
+    /**
+     * The most chunks loaded by a single main thread task
+     */
+    private static final int BATCH_SIZE = 4;
+
+    /**
+     * Misses are only logged past this, as a small edit is expected to load a few chunks itself
+     */
+    private static final int MIN_REPORTED_MISSES = 64;
+
+    private final MappedFaweQueue queue;
+
+    /**
+     * Chunks which have been requested, but not sent to the main thread yet
+     */
+    private final LongArrayFIFOQueue waiting = new LongArrayFIFOQueue();
+
+    /**
+     * Chunks which are waiting or being loaded
+     */
+    private final LongOpenHashSet requested = new LongOpenHashSet();
+
+    /**
+     * Chunks which were loaded, but have not been read yet
+     */
+    private final LongOpenHashSet loaded = new LongOpenHashSet();
+
+    private int inFlight;
+    private final AtomicLong lastPair = new AtomicLong(Long.MIN_VALUE);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ChunkPrefetcher(MappedFaweQueue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Request that a chunk is loaded
+     * @param cx
+     * @param cz
+     * @return true if a load was requested, false if the chunk is loaded or already requested
+     */
+    public boolean prefetch(int cx, int cz) {
+        long pair = MathMan.pairInt(cx, cz);
+        if (lastPair.getAndSet(pair) == pair) {
+            return false;
+        }
+        if (isLoaded(cx, cz)) {
+            return false;
+        }
+        synchronized (this) {
+            if (!requested.add(pair)) {
+                return false;
+            }
+            waiting.enqueue(pair);
+        }
+        submit();
+        return true;
+    }
+
+    /**
+     * Record whether a chunk was loaded when it was read<br>
+     *     - Only chunks which were requested are counted, and a chunk loaded here only once
+     * @param cx
+     * @param cz
+     * @param hit
+     */
+    public void record(int cx, int cz, boolean hit) {
+        long pair = MathMan.pairInt(cx, cz);
+        synchronized (this) {
+            if (!loaded.remove(pair) && !requested.contains(pair)) {
+                return;
+            }
+        }
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of reads which found the chunk loaded, or 1 if there were none
+     */
+    public double getHitRate() {
+        long hit = hits.get();
+        long total = hit + misses.get();
+        return total == 0 ? 1 : hit / (double) total;
+    }
+
+    /**
+     * Log the hits and misses (if enough reads had to wait for a chunk), then reset them
+     */
+    public void report() {
+        synchronized (this) {
+            loaded.clear();
+        }
+        long hit = hits.getAndSet(0);
+        long miss = misses.getAndSet(0);
+        if (miss > MIN_REPORTED_MISSES && miss > hit) {
+            Fawe.debug("Chunks were loaded while blocks were read (hits=" + hit + ", misses=" + miss + "), try increasing queue.preload-chunks");
+        }
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Forget the requests which have not been sent to the main thread yet
+     */
+    public synchronized void clear() {
+        while (!waiting.isEmpty()) {
+            requested.remove(waiting.dequeueLong());
+        }
+        lastPair.set(Long.MIN_VALUE);
+    }
+
+    private boolean isLoaded(int cx, int cz) {
+        return queue.getCachedChunk(queue.getWorld(), cx, cz) != null;
+    }
+
+    /**
+     * Send batches to the main thread while under the in-flight cap
+     */
+    private void submit() {
+        int max = Math.max(1, Settings.IMP.QUEUE.PRELOAD_IN_FLIGHT);
+        while (true) {
+            final long[] batch;
+            synchronized (this) {
+                int size = Math.min(Math.min(BATCH_SIZE, max - inFlight), waiting.size());
+                if (size <= 0) {
+                    return;
+                }
+                batch = new long[size];
+                for (int i = 0; i < size; i++) {
+                    batch[i] = waiting.dequeueLong();
+                }
+                inFlight += size;
+            }
+            SetQueue.IMP.addTask(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (long pair : batch) {
+                            int cx = MathMan.unpairIntX(pair);
+                            int cz = MathMan.unpairIntY(pair);
+                            if (!isLoaded(cx, cz)) {
+                                queue.loadChunk(queue.getWorld(), cx, cz, true);
+                            }
+                        }
+                    } finally {
+                        synchronized (ChunkPrefetcher.this) {
+                            for (long pair : batch) {
+                                requested.remove(pair);
+                                loaded.add(pair);
+                            }
+                            inFlight -= batch.length;
+                        }
+                        submit();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHits() + ", misses=" + getMisses() + ", in-flight=" + getInFlight() + ", waiting=" + getWaiting();
+    }
+}
@@ -0,0 +1,138 @@
+package com.boydti.fawe.example;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small fixed size cache of the sections of loaded chunks, keyed by chunk coordinate<br>
+ * - Lock free, and safe to share between reader threads<br>
+ * - Each slot holds one immutable entry, so a reader can never see a key paired with another chunk's sections<br>
+ * - Section arrays are copied when cached, so a section the world replaces later isn't seen half way<br>
+ * - Arrays with a missing (empty) section aren't cached, as the world may create that section later<br>
+ * - Colliding chunks simply replace each other<br>
+ * - Platforms call {@link #invalidate(String, int, int)} when a chunk is unloaded, and queues call it when they change a chunk
+ * @param <T> the sections type of the queue
+ */
+public class ChunkSectionCache<T> {
+
+    private static final class Entry<T> {
+        private final int x;
+        private final int z;
+        private final T sections;
+
+        private Entry(int x, int z, T sections) {
+            this.x = x;
+            this.z = z;
+            this.sections = sections;
+        }
+    }
+
+    // Every cache, so unloaded chunks can be removed from the ones for that world
+    private static final Set<ChunkSectionCache<?>> CACHES = Collections.newSetFromMap(new WeakHashMap<ChunkSectionCache<?>, Boolean>());
+
+    private final String world;
+    private final AtomicReferenceArray<Entry<T>> entries;
+    private final int mask;
+
+    /**
+     * @param world the name of the world the sections are from
+     * @param size the number of slots (rounded up to a power of two)
+     */
+    public ChunkSectionCache(String world, int size) {
+        int slots = 1;
+        while (slots < size) {
+            slots <<= 1;
+        }
+        this.world = world;
+        this.entries = new AtomicReferenceArray<>(slots);
+        this.mask = slots - 1;
+        synchronized (CACHES) {
+            CACHES.add(this);
+        }
+    }
+
+    /**
+     * Remove a chunk from every cache for a world (e.g. when it is unloaded)
+     * @param world
+     * @param cx
+     * @param cz
+     */
+    public static void invalidate(String world, int cx, int cz) {
+        synchronized (CACHES) {
+            for (ChunkSectionCache<?> cache : CACHES) {
+                if (world == null ? cache.world == null : world.equals(cache.world)) {
+                    cache.invalidate(cx, cz);
+                }
+            }
+        }
+    }
+
+    private int getIndex(int cx, int cz) {
+        int hash = cx * 0x9E3779B9 ^ cz * 0x85EBCA6B;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Get the cached sections of a chunk
+     * @param cx
+     * @param cz
+     * @return the sections, or null if not cached
+     */
+    public T get(int cx, int cz) {
+        Entry<T> entry = entries.get(getIndex(cx, cz));
+        if (entry != null && entry.x == cx && entry.z == cz) {
+            return entry.sections;
+        }
+        return null;
+    }
+
+    public void put(int cx, int cz, T sections) {
+        if (sections instanceof Object[]) {
+            Object[] array = (Object[]) sections;
+            for (Object section : array) {
+                if (section == null) {
+                    return;
+                }
+            }
+            sections = (T) array.clone();
+        }
+        entries.set(getIndex(cx, cz), new Entry<>(cx, cz, sections));
+    }
+
+    /**
+     * Remove a chunk (e.g. after changes have been applied to it)
+     * @param cx
+     * @param cz
+     */
+    public void invalidate(int cx, int cz) {
+        int index = getIndex(cx, cz);
+        Entry<T> entry = entries.get(index);
+        if (entry != null && entry.x == cx && entry.z == cz) {
+            entries.compareAndSet(index, entry, null);
+        }
+    }
+
+    /**
+     * Remove every chunk within an area (e.g. the chunks of a region file)
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     */
+    public void invalidate(int minX, int minZ, int maxX, int maxZ) {
+        for (int i = 0; i < entries.length(); i++) {
+            Entry<T> entry = entries.get(i);
+            if (entry != null && entry.x >= minX && entry.x <= maxX && entry.z >= minZ && entry.z <= maxZ) {
+                entries.compareAndSet(i, entry, null);
+            }
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.boydti.fawe.example;
 
+import com.boydti.fawe.object.ChunkCostModel;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.RunnableVal;
@@ -111,7 +112,7 @@ public class DefaultFaweQueueMap implements IFaweQueueMap {
     }
 
     private FaweChunk getNewFaweChunk(int cx, int cz) {
-        return parent.getFaweChunk(cx, cz);
+        return parent.getQueuedFaweChunk(cx, cz);
     }
 
     private volatile FaweChunk lastWrappedChunk;
@@ -124,23 +125,31 @@ public class DefaultFaweQueueMap implements IFaweQueueMap {
             try {
                 boolean skip = parent.getStage() == SetQueue.QueueStage.INACTIVE;
                 int added = 0;
+                ChunkCostModel model = parent.getCostModel();
+                long budget = ChunkCostModel.toNanos(time);
                 Iterator<Map.Entry<Long, FaweChunk>> iter = blocks.entrySet().iterator();
                 if (amount == 1) {
-                    long start = System.currentTimeMillis();
+                    long start = System.nanoTime();
                     do {
                         if (iter.hasNext()) {
                             FaweChunk chunk = iter.next().getValue();
                             if (skip && chunk == lastWrappedChunk) {
                                 continue;
                             }
+                            if (added != 0 && System.nanoTime() - start + model.estimate(chunk) > budget) {
+                                break;
+                            }
                             iter.remove();
                             parent.start(chunk);
+                            long callStart = System.nanoTime();
                             chunk.call();
+                            model.record(chunk, System.nanoTime() - callStart);
                             parent.end(chunk);
+                            added++;
                         } else {
                             break;
                         }
-                    } while (System.currentTimeMillis() - start < time);
+                    } while (System.nanoTime() - start < budget);
                 } else {
                     ExecutorCompletionService service = SetQueue.IMP.getCompleterService();
                     ForkJoinPool pool = SetQueue.IMP.getForkJoinPool();
@@ -155,22 +164,26 @@ public class DefaultFaweQueueMap implements IFaweQueueMap {
                         }
                         iter.remove();
                         parent.start(chunk);
-                        service.submit(chunk);
+                        service.submit(model.measure(chunk));
                         added++;
                     }
                     // if result, then submitted = amount
                     if (result) {
-                        long start = System.currentTimeMillis();
-                        while (System.currentTimeMillis() - start < time && result) {
+                        long start = System.nanoTime();
+                        while (System.nanoTime() - start < budget && result) {
                             if (result = iter.hasNext()) {
                                 Map.Entry<Long, FaweChunk> item = iter.next();
                                 FaweChunk chunk = item.getValue();
                                 if (skip && chunk == lastWrappedChunk) {
                                     continue;
                                 }
+                                // Work is spread over the pool, so the remaining window shrinks by a share of the cost
+                                if (System.nanoTime() - start + model.estimate(chunk) / amount > budget) {
+                                    break;
+                                }
                                 iter.remove();
                                 parent.start(chunk);
-                                service.submit(chunk);
+                                service.submit(model.measure(chunk));
                                 Future future = service.poll(50, TimeUnit.MILLISECONDS);
                                 if (future != null) {
                                     FaweChunk fc = (FaweChunk) future.get();
@@ -6,6 +6,7 @@ import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.IntegerPair;
+import com.boydti.fawe.object.RegionWrapper;
 import com.boydti.fawe.object.RunnableVal;
 import com.boydti.fawe.object.exception.FaweException;
 import com.boydti.fawe.util.MainUtil;
@@ -13,7 +14,11 @@ import com.boydti.fawe.util.MathMan;
 import com.boydti.fawe.util.SetQueue;
 import com.boydti.fawe.util.TaskManager;
 import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockMaterial;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.pattern.Pattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.biome.BaseBiome;
 import com.sk89q.worldedit.world.registry.BundledBlockData;
@@ -23,6 +28,7 @@ import java.util.Collection;
 import java.util.UUID;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> extends FaweQueue {
 
@@ -30,6 +36,13 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
 
     private IFaweQueueMap map;
 
+    private final ChunkPrefetcher prefetcher = new ChunkPrefetcher(this);
+
+    /**
+     * Sections of loaded chunks, shared by threads reading blocks
+     */
+    private final ChunkSectionCache<CHUNKSECTIONS> sectionCache = new ChunkSectionCache<>(getWorldName(), 256);
+
     public int lastSectionX = Integer.MIN_VALUE;
     public int lastSectionZ = Integer.MIN_VALUE;
     public int lastSectionY = Integer.MIN_VALUE;
@@ -38,6 +51,10 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
     public SECTION lastSection;
 
     private CHUNK cachedLoadChunk;
+    /**
+     * @deprecated Not safe to share between threads, use {@link #ensureChunkLoaded(int, int)}
+     */
+    @Deprecated
     public final RunnableVal<IntegerPair> loadChunk = new RunnableVal<IntegerPair>() {
 
         {
@@ -56,13 +73,13 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
 
     public MappedFaweQueue(final String world) {
         super(world);
-        map = Settings.IMP.PREVENT_CRASHES ? new WeakFaweQueueMap(this) : new DefaultFaweQueueMap(this);
+        map = newFaweQueueMap();
     }
 
     public MappedFaweQueue(final String world, IFaweQueueMap map) {
         super(world);
         if (map == null) {
-            map = Settings.IMP.PREVENT_CRASHES ? new WeakFaweQueueMap(this) : new DefaultFaweQueueMap(this);
+            map = newFaweQueueMap();
         }
         this.map = map;
     }
@@ -70,11 +87,25 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
     public MappedFaweQueue(final World world, IFaweQueueMap map) {
         super(world);
         if (map == null) {
-            map = Settings.IMP.PREVENT_CRASHES ? new WeakFaweQueueMap(this) : new DefaultFaweQueueMap(this);
+            map = newFaweQueueMap();
         }
         this.map = map;
     }
 
+    /**
+     * Create the chunk map used when none is provided to the constructor
+     * @return
+     */
+    protected IFaweQueueMap newFaweQueueMap() {
+        if (Settings.IMP.PREVENT_CRASHES) {
+            return new WeakFaweQueueMap(this);
+        }
+        if (Settings.IMP.QUEUE.SHARDED_MAP) {
+            return new ShardedFaweQueueMap(this);
+        }
+        return new DefaultFaweQueueMap(this);
+    }
+
     public IFaweQueueMap getFaweQueueMap() {
         return map;
     }
@@ -84,6 +115,9 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
         return map.getFaweCunks();
     }
 
+    /**
+     * Prepare the queued chunks on the public pool, and wait for them to finish
+     */
     @Override
     public void optimize() {
         final ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
@@ -133,6 +167,20 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
 
     public abstract CHUNK getCachedChunk(WORLD world, int cx, int cz);
 
+    /**
+     * Create the chunk which holds changes until it is dispatched
+     * @see Settings.QUEUE#PALETTE_CHUNKS
+     * @param cx
+     * @param cz
+     * @return
+     */
+    public FaweChunk getQueuedFaweChunk(int cx, int cz) {
+        if (Settings.IMP.QUEUE.PALETTE_CHUNKS && this instanceof NMSMappedFaweQueue) {
+            return new PaletteFaweChunk(this, cx, cz);
+        }
+        return getFaweChunk(cx, cz);
+    }
+
     public WORLD getWorld() {
         if (impWorld != null) {
             return impWorld;
@@ -142,7 +190,20 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
 
     @Override
     public boolean regenerateChunk(int x, int z, BaseBiome biome, Long seed) {
-        return regenerateChunk(getWorld(), x, z, biome, seed);
+        boolean result = regenerateChunk(getWorld(), x, z, biome, seed);
+        sectionCache.invalidate(x, z);
+        return result;
+    }
+
+    /**
+     * Remove the cached sections of the chunks within an area (e.g. when they have been replaced)
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     */
+    public void invalidateSections(int minX, int minZ, int maxX, int maxZ) {
+        sectionCache.invalidate(minX, minZ, maxX, maxZ);
     }
 
     @Override
@@ -151,6 +212,69 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
         chunk.addNotifyTask(runnable);
     }
 
+    /**
+     * Fill a cuboid a section at a time<br>
+     *     - Chunks with no other changes share the arrays of a single filled chunk<br>
+     *     - Other chunks are filled in place
+     */
+    @Override
+    public int setBlocks(CuboidRegion cuboid, final int id, final int data) {
+        RegionWrapper current = new RegionWrapper(cuboid.getMinimumPoint(), cuboid.getMaximumPoint());
+        final int minY = cuboid.getMinimumY();
+        final int maxY = cuboid.getMaximumY();
+        final byte dataByte = (byte) data;
+        MainUtil.chunkTaskSync(current, new RunnableVal<int[]>() {
+            private FaweChunk template;
+
+            @Override
+            public void run(int[] value) {
+                int cx = value[0];
+                int cz = value[1];
+                int bx = value[2] & 15;
+                int tx = value[4] & 15;
+                int bz = value[3] & 15;
+                int tz = value[5] & 15;
+                if (bx == 0 && tx == 15 && bz == 0 && tz == 15 && map.getCachedFaweChunk(cx, cz) == null) {
+                    if (template == null) {
+                        template = getFaweChunk(cx, cz);
+                        template.fillCuboid(0, 15, minY, maxY, 0, 15, id, dataByte);
+                        template.optimize();
+                    }
+                    FaweChunk newChunk = template.copy(true);
+                    newChunk.setLoc(MappedFaweQueue.this, cx, cz);
+                    map.add(newChunk);
+                } else {
+                    map.getFaweChunk(cx, cz).fillCuboid(bx, tx, minY, maxY, bz, tz, id, dataByte);
+                }
+            }
+        });
+        return cuboid.getArea();
+    }
+
+    @Override
+    public int setBlocks(CuboidRegion cuboid, final Pattern pattern, @Nullable final Extent tileExtent) {
+        RegionWrapper current = new RegionWrapper(cuboid.getMinimumPoint(), cuboid.getMaximumPoint());
+        final int minY = cuboid.getMinimumY();
+        final int maxY = cuboid.getMaximumY();
+        MainUtil.chunkTaskSync(current, new RunnableVal<int[]>() {
+            @Override
+            public void run(int[] value) {
+                FaweChunk fc = map.getFaweChunk(value[0], value[1]);
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = value[3]; z <= value[5]; z++) {
+                        for (int x = value[2]; x <= value[4]; x++) {
+                            BaseBlock block = pattern.apply(x, y, z);
+                            if (!setTileBlock(x, y, z, block, tileExtent)) {
+                                fc.setBlock(x & 15, y, z & 15, block.getId(), block.getData());
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        return cuboid.getArea();
+    }
+
     @Override
     public boolean setBlock(int x, int y, int z, int id, int data) {
         int cx = x >> 4;
@@ -221,6 +345,8 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
     }
 
     public void end(FaweChunk chunk) {
+        // Other queues for this world may have the chunk cached too
+        ChunkSectionCache.invalidate(getWorldName(), chunk.getX(), chunk.getZ());
         if (getProgressTask() != null) {
             getProgressTask().run(ProgressType.DISPATCH, size() + 1);
         }
@@ -230,6 +356,7 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
     @Override
     public void runTasks() {
         super.runTasks();
+        prefetcher.report();
         if (getProgressTask() != null) {
             try {
                 getProgressTask().run(ProgressType.DONE, 1);
@@ -264,6 +391,7 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
         lastSectionY = -1;
         lastChunk = null;
         lastChunkSections = null;
+        sectionCache.clear();
         map.clear();
         runTasks();
     }
@@ -274,7 +402,29 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
     }
 
     public SECTION getCachedSection(CHUNKSECTIONS chunk, int cy) {
-        return (SECTION) lastChunkSections;
+        return (SECTION) chunk;
+    }
+
+    /**
+     * Get the sections of a chunk, loading it if needed<br>
+     *     - Unlike the lastChunk fields, this is safe to call from several threads
+     * @param cx
+     * @param cz
+     * @return the sections, or null if the chunk could not be loaded
+     */
+    public CHUNKSECTIONS getChunkSections(int cx, int cz) throws FaweException.FaweChunkLoadException {
+        CHUNKSECTIONS sections = sectionCache.get(cx, cz);
+        if (sections == null) {
+            CHUNK chunk = ensureChunkLoaded(cx, cz);
+            if (chunk == null) {
+                return null;
+            }
+            sections = getSections(chunk);
+            if (sections != null) {
+                sectionCache.put(cx, cz, sections);
+            }
+        }
+        return sections;
     }
 
     public abstract int getCombinedId4Data(SECTION section, int x, int y, int z);
@@ -283,8 +433,9 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
 
     public abstract CompoundTag getTileEntity(CHUNK chunk, int x, int y, int z);
 
-    public CHUNK ensureChunkLoaded(int cx, int cz) throws FaweException.FaweChunkLoadException {
+    public CHUNK ensureChunkLoaded(final int cx, final int cz) throws FaweException.FaweChunkLoadException {
         CHUNK chunk = getCachedChunk(getWorld(), cx, cz);
+        prefetcher.record(cx, cz, chunk != null);
         if (chunk != null) {
             return chunk;
         }
@@ -292,28 +443,31 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
         if (sync) {
             return loadChunk(getWorld(), cx, cz, true);
         } else if (Settings.IMP.HISTORY.CHUNK_WAIT_MS > 0) {
-            cachedLoadChunk = null;
-            loadChunk.value.x = cx;
-            loadChunk.value.z = cz;
-            TaskManager.IMP.syncWhenFree(loadChunk, Settings.IMP.HISTORY.CHUNK_WAIT_MS);
-            return cachedLoadChunk;
+            // A new task each time, as several threads may be reading from this queue
+            return TaskManager.IMP.syncWhenFree(new RunnableVal<CHUNK>() {
+                @Override
+                public void run(CHUNK value) {
+                    this.value = loadChunk(getWorld(), cx, cz, true);
+                }
+            }, Settings.IMP.HISTORY.CHUNK_WAIT_MS);
         } else {
             return null;
         }
     }
 
+    /**
+     * Request a chunk is loaded before it is needed
+     * @see ChunkPrefetcher
+     * @param cx
+     * @param cz
+     * @return true if a load was requested
+     */
     public boolean queueChunkLoad(final int cx, final int cz) {
-        CHUNK chunk = getCachedChunk(getWorld(), cx, cz);
-        if (chunk == null) {
-            SetQueue.IMP.addTask(new Runnable() {
-                @Override
-                public void run() {
-                    loadChunk(getWorld(), cx, cz, true);
-                }
-            });
-            return true;
-        }
-        return false;
+        return prefetcher.prefetch(cx, cz);
+    }
+
+    public ChunkPrefetcher getPrefetcher() {
+        return prefetcher;
     }
 
     @Override
@@ -586,58 +740,30 @@ public abstract class MappedFaweQueue<WORLD, CHUNK, CHUNKSECTIONS, SECTION> exte
                 return combined;
             }
         }
-        int cy = y >> 4;
-        if (cx != lastSectionX || cz != lastSectionZ) {
-            lastSectionX = cx;
-            lastSectionZ = cz;
-            lastChunk = ensureChunkLoaded(cx, cz);
-            if (lastChunk != null) {
-                lastChunkSections = getSections(lastChunk);
-                lastSection = getCachedSection(lastChunkSections, cy);
-            } else {
-                lastChunkSections = null;
-                return 0;
-            }
-        } else if (cy != lastSectionY) {
-            if (lastChunkSections != null) {
-                lastSection = getCachedSection(lastChunkSections, cy);
-            } else {
-                return 0;
-            }
+        CHUNKSECTIONS sections = getChunkSections(cx, cz);
+        if (sections == null) {
+            return 0;
         }
-        if (lastSection == null) {
+        SECTION section = getCachedSection(sections, y >> 4);
+        if (section == null) {
             return 0;
         }
-        return getCombinedId4Data(lastSection, x, y, z);
+        return getCombinedId4Data(section, x, y, z);
     }
 
     @Override
     public int getCombinedId4Data(int x, int y, int z) throws FaweException.FaweChunkLoadException {
         int cx = x >> 4;
         int cz = z >> 4;
-        int cy = y >> 4;
-        if (cx != lastSectionX || cz != lastSectionZ) {
-            lastSectionX = cx;
-            lastSectionZ = cz;
-            lastChunk = ensureChunkLoaded(cx, cz);
-            if (lastChunk != null) {
-                lastChunkSections = getSections(lastChunk);
-                lastSection = getCachedSection(lastChunkSections, cy);
-            } else {
-                lastChunkSections = null;
-                return 0;
-            }
-        } else if (cy != lastSectionY) {
-            if (lastChunkSections != null) {
-                lastSection = getCachedSection(lastChunkSections, cy);
-            } else {
-                return 0;
-            }
+        CHUNKSECTIONS sections = getChunkSections(cx, cz);
+        if (sections == null) {
+            return 0;
         }
-        if (lastSection == null) {
+        SECTION section = getCachedSection(sections, y >> 4);
+        if (section == null) {
             return 0;
         }
-        return getCombinedId4Data(lastSection, x, y, z);
+        return getCombinedId4Data(section, x, y, z);
     }
 
     @Override
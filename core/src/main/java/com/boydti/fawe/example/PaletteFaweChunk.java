@@ -0,0 +1,426 @@
+package com.boydti.fawe.example;
+
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.object.FaweChunk;
+import com.boydti.fawe.object.FaweQueue;
+import com.boydti.fawe.object.visitor.FaweChunkVisitor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A queued chunk which stores each section as bit packed indexes into a palette<br>
+ * - A section only becomes a dense char[4096] once it holds more than 256 different blocks<br>
+ * - When dispatched, the changes are copied to the queue's own chunk type which is then placed
+ */
+public class PaletteFaweChunk<T, V extends FaweQueue> extends CharFaweChunk<T, V> {
+
+    private final Section[] sections;
+    private CharFaweChunk<T, V> dense;
+
+    public PaletteFaweChunk(FaweQueue parent, int x, int z) {
+        super(parent, x, z);
+        this.sections = new Section[HEIGHT >> 4];
+    }
+
+    private PaletteFaweChunk(FaweQueue parent, int x, int z, char[][] ids, short[] count, short[] air, byte[] heightMap, Section[] sections) {
+        super(parent, x, z, ids, count, air, heightMap);
+        this.sections = sections;
+    }
+
+    /**
+     * A section of 4096 blocks with a palette of up to 256 values<br>
+     * - Palette index 0 is always 0 (unchanged)
+     */
+    private static final class Section {
+        private char[] palette;
+        private int size;
+        private int bits;
+        private long[] data;
+
+        private char lastValue;
+        private int lastIndex;
+
+        private Section() {
+            this.palette = new char[2];
+            this.size = 1;
+            this.bits = 1;
+            this.data = new long[64];
+        }
+
+        /**
+         * A section where every block is set to the same value
+         * @param value
+         */
+        private Section(char value) {
+            this.palette = new char[] {0, value};
+            this.size = 2;
+            this.bits = 1;
+            this.data = new long[64];
+            Arrays.fill(data, -1L);
+            this.lastValue = value;
+            this.lastIndex = 1;
+        }
+
+        private Section(Section other) {
+            this.palette = other.palette.clone();
+            this.size = other.size;
+            this.bits = other.bits;
+            this.data = other.data.clone();
+        }
+
+        private int getIndex(int j) {
+            int bitIndex = j * bits;
+            return (int) (data[bitIndex >> 6] >>> (bitIndex & 63)) & ((1 << bits) - 1);
+        }
+
+        private void setIndex(int j, int index) {
+            int bitIndex = j * bits;
+            int shift = bitIndex & 63;
+            long mask = ((1L << bits) - 1) << shift;
+            int i = bitIndex >> 6;
+            data[i] = (data[i] & ~mask) | ((long) index << shift);
+        }
+
+        private char get(int j) {
+            return palette[getIndex(j)];
+        }
+
+        /**
+         * Set a value
+         * @param j
+         * @param value
+         * @return false if the palette is full
+         */
+        private boolean set(int j, char value) {
+            int index;
+            if (value == lastValue && lastIndex != 0) {
+                index = lastIndex;
+            } else {
+                index = -1;
+                for (int i = 0; i < size; i++) {
+                    if (palette[i] == value) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index == -1) {
+                    if (size == 256) {
+                        return false;
+                    }
+                    if (size == 1 << bits) {
+                        resize(bits << 1);
+                    }
+                    if (size == palette.length) {
+                        palette = Arrays.copyOf(palette, Math.min(256, size << 1));
+                    }
+                    index = size++;
+                    palette[index] = value;
+                }
+                lastValue = value;
+                lastIndex = index;
+            }
+            setIndex(j, index);
+            return true;
+        }
+
+        private void resize(int newBits) {
+            long[] oldData = data;
+            int oldBits = bits;
+            int oldMask = (1 << oldBits) - 1;
+            data = new long[(4096 * newBits) >> 6];
+            bits = newBits;
+            for (int j = 0; j < 4096; j++) {
+                int bitIndex = j * oldBits;
+                int index = (int) (oldData[bitIndex >> 6] >>> (bitIndex & 63)) & oldMask;
+                if (index != 0) {
+                    setIndex(j, index);
+                }
+            }
+        }
+
+        private char[] toArray() {
+            char[] array = new char[4096];
+            if (size == 2 && bits == 1) {
+                char value = palette[1];
+                for (int i = 0; i < data.length; i++) {
+                    long word = data[i];
+                    if (word == 0) {
+                        continue;
+                    }
+                    int offset = i << 6;
+                    if (word == -1L) {
+                        Arrays.fill(array, offset, offset + 64, value);
+                        continue;
+                    }
+                    for (int bit = 0; bit < 64; bit++) {
+                        if ((word & (1L << bit)) != 0) {
+                            array[offset + bit] = value;
+                        }
+                    }
+                }
+                return array;
+            }
+            for (int j = 0; j < 4096; j++) {
+                array[j] = palette[getIndex(j)];
+            }
+            return array;
+        }
+    }
+
+    @Override
+    public T getNewChunk() {
+        return getDense().getChunk();
+    }
+
+    @Override
+    public void setLoc(FaweQueue parent, int x, int z) {
+        super.setLoc(parent, x, z);
+        this.dense = null;
+    }
+
+    @Override
+    public int getBitMask() {
+        int bitMask = 0;
+        for (int section = 0; section < ids.length; section++) {
+            if (ids[section] != null || sections[section] != null) {
+                bitMask += 1 << section;
+            }
+        }
+        return bitMask;
+    }
+
+    /**
+     * Get the raw data for a section<br>
+     *     - Packed sections are unpacked to a new array
+     * @param i
+     * @return
+     */
+    @Override
+    public char[] getIdArray(int i) {
+        char[] array = this.ids[i];
+        if (array != null) {
+            return array;
+        }
+        Section section = sections[i];
+        return section == null ? null : section.toArray();
+    }
+
+    @Override
+    public char[][] getCombinedIdArrays() {
+        char[][] arrays = new char[ids.length][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = getIdArray(i);
+        }
+        return arrays;
+    }
+
+    @Override
+    public int getBlockCombinedId(int x, int y, int z) {
+        int i = FaweCache.CACHE_I[y][z][x];
+        char[] array = this.ids[i];
+        if (array != null) {
+            return array[FaweCache.CACHE_J[y][z][x]];
+        }
+        Section section = sections[i];
+        if (section == null) {
+            return 0;
+        }
+        return section.get(FaweCache.CACHE_J[y][z][x]);
+    }
+
+    @Override
+    public void forEachQueuedBlock(FaweChunkVisitor onEach) {
+        for (int i = 0; i < ids.length; i++) {
+            char[] array = this.ids[i];
+            Section section = sections[i];
+            if (array == null && section == null) {
+                continue;
+            }
+            int by = i << 4;
+            int j = 0;
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++, j++) {
+                        int combined = array != null ? array[j] : section.get(j);
+                        if (combined != 0) {
+                            onEach.run(x, by + y, z, combined);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setBlock(int x, int y, int z, int id) {
+        setQueuedId(x, y, z, id == 0 ? (char) 1 : (char) (id << 4));
+    }
+
+    @Override
+    public void setBlock(int x, int y, int z, int id, int data) {
+        setQueuedId(x, y, z, getQueuedId(id, data));
+    }
+
+    private void setQueuedId(int x, int y, int z, char combined) {
+        dense = null;
+        int i = FaweCache.CACHE_I[y][z][x];
+        int j = FaweCache.CACHE_J[y][z][x];
+        char previous;
+        char[] array = this.ids[i];
+        Section section = null;
+        if (array != null) {
+            previous = array[j];
+            array[j] = combined;
+            setUniform(i, combined, false);
+        } else {
+            section = sections[i];
+            if (section == null) {
+                section = sections[i] = new Section();
+                setUniform(i, combined, true);
+            } else {
+                setUniform(i, combined, false);
+            }
+            previous = section.get(j);
+            if (!section.set(j, combined)) {
+                // Too many different blocks, switch to a dense array
+                array = this.ids[i] = section.toArray();
+                sections[i] = null;
+                array[j] = combined;
+            }
+        }
+        switch (previous) {
+            case 0:
+                this.count[i]++;
+                break;
+            case 1:
+                this.air[i]--;
+                break;
+        }
+        if (combined == 1) {
+            this.air[i]++;
+        } else {
+            heightMap[z << 4 | x] = (byte) y;
+        }
+    }
+
+    @Override
+    public void fillCuboid(int x1, int x2, int y1, int y2, int z1, int z2, int id, byte data) {
+        dense = null;
+        char combined = getQueuedId(id, data);
+        boolean column = x1 == 0 && x2 == 15 && z1 == 0 && z2 == 15;
+        for (int layer = y1 >> 4; layer <= y2 >> 4; layer++) {
+            int minY = Math.max(y1, layer << 4);
+            int maxY = Math.min(y2, (layer << 4) + 15);
+            if (!column || minY != layer << 4 || maxY != (layer << 4) + 15) {
+                // The section may be packed, so it can't be written to directly
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = z1; z <= z2; z++) {
+                        for (int x = x1; x <= x2; x++) {
+                            setQueuedId(x, y, z, combined);
+                        }
+                    }
+                }
+                continue;
+            }
+            // Whole section
+            ids[layer] = null;
+            sections[layer] = new Section(combined);
+            count[layer] = 4096;
+            setUniform(layer, combined, true);
+            if (combined == 1) {
+                air[layer] = 4096;
+            } else {
+                air[layer] = 0;
+                Arrays.fill(heightMap, (byte) maxY);
+            }
+        }
+    }
+
+    /**
+     * Get the queue's own chunk type with the changes copied to it<br>
+     * - The copy is discarded whenever a block is changed, so it never misses a change
+     * @return
+     */
+    public CharFaweChunk<T, V> getDense() {
+        if (dense == null) {
+            dense = createDense();
+        }
+        return dense;
+    }
+
+    private CharFaweChunk<T, V> createDense() {
+        CharFaweChunk<T, V> fc = (CharFaweChunk<T, V>) getParent().getFaweChunk(getX(), getZ());
+        for (int i = 0; i < ids.length; i++) {
+            fc.ids[i] = getIdArray(i);
+            fc.count[i] = count[i];
+            fc.air[i] = air[i];
+            fc.uniform[i] = uniform[i];
+        }
+        System.arraycopy(heightMap, 0, fc.heightMap, 0, heightMap.length);
+        fc.biomes = biomes;
+        fc.tiles = tiles;
+        fc.entities = entities;
+        fc.entityRemoves = entityRemoves;
+        return fc;
+    }
+
+    /**
+     * Sections are kept packed until the chunk is dispatched (unpacking them here would defeat the purpose)
+     */
+    @Override
+    public void optimize() {}
+
+    @Override
+    public void start() {
+        // Always dispatch a fresh copy of the current changes
+        dense = createDense();
+        dense.start();
+    }
+
+    @Override
+    public FaweChunk call() {
+        getDense().call();
+        return this;
+    }
+
+    @Override
+    public void end() {
+        if (dense != null) {
+            dense.end();
+            dense = null;
+        }
+    }
+
+    @Override
+    public CharFaweChunk<T, V> copy(boolean shallow) {
+        PaletteFaweChunk<T, V> copy;
+        if (shallow) {
+            copy = new PaletteFaweChunk<>(getParent(), getX(), getZ(), ids, count, air, heightMap, sections);
+        } else {
+            Section[] sectionsCopy = new Section[sections.length];
+            char[][] idsCopy = new char[ids.length][];
+            for (int i = 0; i < sections.length; i++) {
+                if (sections[i] != null) {
+                    sectionsCopy[i] = new Section(sections[i]);
+                }
+                if (ids[i] != null) {
+                    idsCopy[i] = ids[i].clone();
+                }
+            }
+            copy = new PaletteFaweChunk<>(getParent(), getX(), getZ(), idsCopy, count.clone(), air.clone(), heightMap.clone(), sectionsCopy);
+        }
+        System.arraycopy(uniform, 0, copy.uniform, 0, uniform.length);
+        copy.biomes = shallow || biomes == null ? biomes : biomes.clone();
+        if (shallow) {
+            copy.tiles = tiles;
+            copy.entities = entities;
+            copy.entityRemoves = entityRemoves;
+        } else {
+            copy.tiles = tiles == null ? null : new HashMap<>(tiles);
+            copy.entities = entities == null ? null : new HashSet<>(entities);
+            copy.entityRemoves = entityRemoves == null ? null : new HashSet<>(entityRemoves);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,145 @@
+package com.boydti.fawe.example;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.FaweChunk;
+import com.boydti.fawe.object.HasFaweQueue;
+import com.boydti.fawe.object.changeset.DiskStorageHistory;
+import com.boydti.fawe.object.io.ChunkIndexedBlockReader;
+import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.TaskManager;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.inventory.BlockBag;
+import com.sk89q.worldedit.history.UndoContext;
+import com.sk89q.worldedit.history.changeset.ChangeSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Applies the block changes of a chunk indexed {@link DiskStorageHistory} on the fork join pool<br>
+ * - Blocks are decoded straight into detached chunks, without creating a Change for each block<br>
+ * - Every block of a chunk column is handled by the same thread, in the order it was recorded (so the result is the same as a serial undo)<br>
+ * - The chunks are added to the queue on the calling thread once every column is done
+ */
+public class ParallelHistoryTask {
+
+    private static final int GROUPS_PER_THREAD = 4;
+
+    /**
+     * Check if a change set could be applied in parallel (the history still has to be chunk indexed)
+     * @param changeSet
+     * @param blockBag
+     * @param inventory
+     * @return
+     */
+    public static boolean isEnabled(ChangeSet changeSet, BlockBag blockBag, int inventory) {
+        if (!Settings.IMP.QUEUE.PARALLEL_REGION_OPS || !(changeSet instanceof DiskStorageHistory)) {
+            return false;
+        }
+        // The inventory is used one block at a time
+        if (blockBag != null && inventory > 0) {
+            return false;
+        }
+        return TaskManager.IMP.getPublicForkJoinPool().getParallelism() >= 2;
+    }
+
+    /**
+     * Apply the block changes of a history to the queue of an undo context<br>
+     * - Only when the context writes to the queue directly, as the blocks skip any extents in between (e.g. ones added by other plugins)
+     * @param history
+     * @param context
+     * @param redo
+     * @return false if nothing was applied, and the history should be replayed as usual
+     */
+    public static boolean apply(DiskStorageHistory history, UndoContext context, final boolean redo) {
+        Extent extent = context.getExtent();
+        if (!(extent instanceof HasFaweQueue) || !(((HasFaweQueue) extent).getQueue() instanceof MappedFaweQueue)) {
+            return false;
+        }
+        final MappedFaweQueue queue = (MappedFaweQueue) ((HasFaweQueue) extent).getQueue();
+        history.close();
+        try (final ChunkIndexedBlockReader reader = history.getBlockReader()) {
+            if (reader == null || (redo && !reader.hasRedo())) {
+                return false;
+            }
+            Long2ObjectLinkedOpenHashMap<List<ChunkIndexedBlockReader.Entry>> columnMap = new Long2ObjectLinkedOpenHashMap<>();
+            for (ChunkIndexedBlockReader.Entry entry : reader.getEntries()) {
+                long pair = MathMan.pairInt(entry.chunkX, entry.chunkZ);
+                List<ChunkIndexedBlockReader.Entry> column = columnMap.get(pair);
+                if (column == null) {
+                    column = new ArrayList<>();
+                    columnMap.put(pair, column);
+                }
+                column.add(entry);
+            }
+            final List<List<ChunkIndexedBlockReader.Entry>> columns = new ArrayList<>(columnMap.values());
+            if (columns.isEmpty()) {
+                return true;
+            }
+            ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
+            int groups = Math.min(columns.size(), pool.getParallelism() * GROUPS_PER_THREAD);
+            final FaweChunk[] chunks = new FaweChunk[columns.size()];
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(groups);
+            for (int group = 0; group < groups; group++) {
+                final int start = (int) ((long) columns.size() * group / groups);
+                final int end = (int) ((long) columns.size() * (group + 1) / groups);
+                tasks.add(pool.submit(new Runnable() {
+                    private FaweChunk chunk;
+
+                    private final ChunkIndexedBlockReader.BlockVisitor visitor = new ChunkIndexedBlockReader.BlockVisitor() {
+                        @Override
+                        public void run(int x, int y, int z, int combinedFrom, int combinedTo) {
+                            int combined = redo ? combinedTo : combinedFrom;
+                            chunk.setBlock(x & 15, y, z & 15, combined >> 4, combined & 15);
+                        }
+                    };
+
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = start; i < end; i++) {
+                                List<ChunkIndexedBlockReader.Entry> column = columns.get(i);
+                                ChunkIndexedBlockReader.Entry first = column.get(0);
+                                chunk = queue.getFaweChunk(first.chunkX, first.chunkZ);
+                                for (ChunkIndexedBlockReader.Entry entry : column) {
+                                    reader.forEach(entry, visitor);
+                                }
+                                chunks[i] = chunk;
+                            }
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                        chunk = null;
+                    }
+                }));
+            }
+            // Wait for every task before the reader is closed
+            RuntimeException error = null;
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.join();
+                } catch (RuntimeException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            IFaweQueueMap map = queue.getFaweQueueMap();
+            for (FaweChunk chunk : chunks) {
+                ParallelRegionTask.merge(map, chunk);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Nothing has been added to the queue yet, so the serial undo can still be used
+            MainUtil.handleError(e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.boydti.fawe.example;
+
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.FaweChunk;
+import com.boydti.fawe.object.FaweQueue;
+import com.boydti.fawe.object.extent.FastWorldEditExtent;
+import com.boydti.fawe.object.visitor.FaweChunkVisitor;
+import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.SetQueue;
+import com.boydti.fawe.util.TaskManager;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import com.sk89q.worldedit.function.mask.ExistingBlockMask;
+import com.sk89q.worldedit.function.mask.FuzzyBlockMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.mask.MaskIntersection;
+import com.sk89q.worldedit.function.mask.MaskUnion;
+import com.sk89q.worldedit.function.mask.SolidBlockMask;
+import com.sk89q.worldedit.function.pattern.BlockPattern;
+import com.sk89q.worldedit.function.pattern.Pattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs an operation over a cuboid on the fork join pool, a chunk column at a time<br>
+ * - The columns are split into contiguous groups, and each group gets its own Worker (so worker fields are only used by one thread)<br>
+ * - Changes are written to detached chunks owned by the worker, which are added to the queue on the calling thread once every group is done<br>
+ * - Blocks are read from the world, the same as the bypassed extents do, so a column never sees the changes of another
+ * @param <T> the worker type
+ */
+public abstract class ParallelRegionTask<T extends ParallelRegionTask.Worker> {
+
+    /**
+     * Groups per pool thread, so one slow group (e.g. waiting on a chunk load) doesn't hold up the rest
+     */
+    private static final int GROUPS_PER_THREAD = 4;
+
+    /**
+     * Handles the columns of one group
+     */
+    public static abstract class Worker {
+        private final List<FaweChunk> chunks = new ArrayList<>();
+        private MappedFaweQueue queue;
+        private FaweChunk chunk;
+        private int cx;
+        private int cz;
+
+        protected int checked;
+        protected int changed;
+
+        /**
+         * Get the chunk to write the current column's changes to (created on first use)
+         * @return
+         */
+        protected FaweChunk getChunk() {
+            if (chunk == null) {
+                chunk = queue.getFaweChunk(cx, cz);
+                chunks.add(chunk);
+            }
+            return chunk;
+        }
+
+        /**
+         * @return the number of blocks tested
+         */
+        public int getChecked() {
+            return checked;
+        }
+
+        /**
+         * @return the number of blocks changed
+         */
+        public int getChanged() {
+            return changed;
+        }
+
+        /**
+         * Handle a column (the bounds are inclusive, and clipped to the region)
+         * @param cx
+         * @param cz
+         * @param minX
+         * @param minZ
+         * @param maxX
+         * @param maxZ
+         * @param minY
+         * @param maxY
+         */
+        public abstract void run(int cx, int cz, int minX, int minZ, int maxX, int maxZ, int minY, int maxY);
+    }
+
+    private final MappedFaweQueue queue;
+    private final int minX, minY, minZ, maxX, maxY, maxZ;
+
+    public ParallelRegionTask(MappedFaweQueue queue, CuboidRegion region) {
+        this.queue = queue;
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        this.minX = min.getBlockX();
+        this.minY = Math.max(0, min.getBlockY());
+        this.minZ = min.getBlockZ();
+        this.maxX = max.getBlockX();
+        this.maxY = Math.min(FaweChunk.HEIGHT - 1, max.getBlockY());
+        this.maxZ = max.getBlockZ();
+    }
+
+    /**
+     * Check if a region operation on a queue can be split between threads
+     * @param queue
+     * @param region
+     * @return false if disabled, or the region is a single chunk column
+     */
+    public static boolean isEnabled(FaweQueue queue, Region region) {
+        if (!Settings.IMP.QUEUE.PARALLEL_REGION_OPS || !(queue instanceof MappedFaweQueue) || !(region instanceof CuboidRegion)) {
+            return false;
+        }
+        if (TaskManager.IMP.getPublicForkJoinPool().getParallelism() < 2) {
+            return false;
+        }
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        return (min.getBlockX() >> 4) != (max.getBlockX() >> 4) || (min.getBlockZ() >> 4) != (max.getBlockZ() >> 4);
+    }
+
+    /**
+     * Check if a mask only reads blocks, so each worker can test its own copy (see {@link #copy(Mask, Extent)})
+     * @param mask
+     * @return
+     */
+    public static boolean isThreadSafe(Mask mask) {
+        Class<?> clazz = mask.getClass();
+        if (clazz == BlockMask.class || clazz == FuzzyBlockMask.class || clazz == SolidBlockMask.class || clazz == ExistingBlockMask.class) {
+            return true;
+        }
+        if (clazz == MaskIntersection.class || clazz == MaskUnion.class) {
+            for (Mask other : ((MaskIntersection) mask).getMasks()) {
+                if (!isThreadSafe(other)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get a queue for one worker to read the world through<br>
+     * - Block reads go through the section a queue last read (the lastSection fields), so workers can't share the edit's queue
+     * @param queue the edit's queue
+     * @return
+     */
+    public static FaweQueue newQueue(FaweQueue queue) {
+        return SetQueue.IMP.getNewQueue(queue.getWorldName(), true, false);
+    }
+
+    /**
+     * Get an extent which reads the world through a worker's own queue
+     * @see #newQueue(FaweQueue)
+     * @param reader
+     * @return
+     */
+    public static Extent newExtent(FaweQueue reader) {
+        return new FastWorldEditExtent(reader.getWEWorld(), reader);
+    }
+
+    /**
+     * Copy a thread safe mask, so that it reads from another extent
+     * @see #isThreadSafe(Mask)
+     * @param mask
+     * @param extent
+     * @return
+     */
+    public static Mask copy(Mask mask, Extent extent) {
+        Class<?> clazz = mask.getClass();
+        if (clazz == ExistingBlockMask.class) {
+            return new ExistingBlockMask(extent);
+        }
+        if (mask instanceof BlockMask) {
+            // Fuzzy and solid block masks are tested the same way
+            BlockMask other = (BlockMask) mask;
+            BlockMask copy = new BlockMask(extent);
+            System.arraycopy(other.blocks, 0, copy.blocks, 0, copy.blocks.length);
+            System.arraycopy(other.blockIds, 0, copy.blockIds, 0, copy.blockIds.length);
+            return copy;
+        }
+        if (clazz == MaskIntersection.class || clazz == MaskUnion.class) {
+            List<Mask> masks = new ArrayList<>();
+            for (Mask other : ((MaskIntersection) mask).getMasks()) {
+                masks.add(copy(other, extent));
+            }
+            return clazz == MaskUnion.class ? new MaskUnion(masks) : new MaskIntersection(masks);
+        }
+        throw new IllegalArgumentException("Mask is not thread safe: " + mask);
+    }
+
+    /**
+     * Check if a pattern has no state or tile entities, so it can be applied from several threads at once<br>
+     * - Random patterns share a random number generator, so they can't be used
+     * @param pattern
+     * @return
+     */
+    public static boolean isThreadSafe(Pattern pattern) {
+        if (pattern.getClass() == BlockPattern.class) {
+            // Tile entities would share (and re-position) the same tag
+            return !((BlockPattern) pattern).getBlock().hasNbtData();
+        }
+        return false;
+    }
+
+    /**
+     * Create the worker for a group (called on the calling thread)
+     * @return
+     */
+    protected abstract T newWorker();
+
+    /**
+     * Run every column, then add the changes to the queue
+     * @return the workers, for their results to be merged
+     */
+    public List<T> run() {
+        final int bcx = minX >> 4;
+        final int bcz = minZ >> 4;
+        final int width = (maxX >> 4) - bcx + 1;
+        int columns = width * ((maxZ >> 4) - bcz + 1);
+        for (int i = 0; i < columns; i++) {
+            queue.queueChunkLoad(bcx + i % width, bcz + i / width);
+        }
+        ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
+        int groups = Math.min(columns, pool.getParallelism() * GROUPS_PER_THREAD);
+        List<T> workers = new ArrayList<>(groups);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(groups);
+        for (int group = 0; group < groups; group++) {
+            final int start = (int) ((long) columns * group / groups);
+            final int end = (int) ((long) columns * (group + 1) / groups);
+            T created = newWorker();
+            workers.add(created);
+            final Worker worker = created;
+            worker.queue = queue;
+            tasks.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = start; i < end; i++) {
+                        int cx = bcx + i % width;
+                        int cz = bcz + i / width;
+                        int bx = cx << 4;
+                        int bz = cz << 4;
+                        worker.cx = cx;
+                        worker.cz = cz;
+                        worker.chunk = null;
+                        worker.run(cx, cz, Math.max(minX, bx), Math.max(minZ, bz), Math.min(maxX, bx + 15), Math.min(maxZ, bz + 15), minY, maxY);
+                    }
+                    worker.chunk = null;
+                }
+            }));
+        }
+        RuntimeException error = null;
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.join();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        IFaweQueueMap map = queue.getFaweQueueMap();
+        for (Worker worker : workers) {
+            for (FaweChunk chunk : worker.chunks) {
+                merge(map, chunk);
+            }
+            worker.chunks.clear();
+        }
+        return workers;
+    }
+
+    /**
+     * Add a chunk to the queue, or copy its changes over the chunk already queued there
+     * @param map
+     * @param chunk
+     */
+    static void merge(IFaweQueueMap map, FaweChunk chunk) {
+        final FaweChunk existing = map.getCachedFaweChunk(chunk.getX(), chunk.getZ());
+        if (existing == null) {
+            map.add(chunk);
+            return;
+        }
+        chunk.forEachQueuedBlock(new FaweChunkVisitor() {
+            @Override
+            public void run(int localX, int y, int localZ, int combined) {
+                if (combined == 1) {
+                    existing.setBlock(localX, y, localZ, 0, 0);
+                } else {
+                    existing.setBlock(localX, y, localZ, FaweCache.getId(combined), FaweCache.getData(combined));
+                }
+            }
+        });
+        Map<Short, CompoundTag> tiles = chunk.getTiles();
+        for (Map.Entry<Short, CompoundTag> entry : tiles.entrySet()) {
+            int triple = entry.getKey();
+            existing.setTile(MathMan.untripleBlockCoordX(triple), MathMan.untripleBlockCoordY(triple), MathMan.untripleBlockCoordZ(triple), entry.getValue());
+        }
+    }
+}
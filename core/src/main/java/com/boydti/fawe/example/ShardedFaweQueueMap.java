@@ -0,0 +1,318 @@
+package com.boydti.fawe.example;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.ChunkCostModel;
+import com.boydti.fawe.object.FaweChunk;
+import com.boydti.fawe.object.FaweQueue;
+import com.boydti.fawe.object.RunnableVal;
+import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.SetQueue;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chunk map split into independently locked stripes<br>
+ * - Edit threads only contend when they touch chunks in the same stripe<br>
+ * - Dispatching swaps a stripe out in O(1) and never holds a lock while chunks are applied
+ */
+public class ShardedFaweQueueMap implements IFaweQueueMap {
+
+    private final MappedFaweQueue parent;
+    private final Shard[] shards;
+    private final int mask;
+
+    /**
+     * Chunks which have been drained from a stripe, but not dispatched yet (each stripe also indexes its own by position)
+     */
+    private final ConcurrentLinkedDeque<FaweChunk> pending = new ConcurrentLinkedDeque<>();
+
+    private volatile FaweChunk lastWrappedChunk;
+    private int drainIndex;
+
+    public ShardedFaweQueueMap(MappedFaweQueue parent) {
+        this(parent, Settings.IMP.QUEUE.PARALLEL_THREADS << 2);
+    }
+
+    public ShardedFaweQueueMap(MappedFaweQueue parent, int stripes) {
+        this.parent = parent;
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    private static final class Shard {
+        private Long2ObjectOpenHashMap<FaweChunk> blocks = new Long2ObjectOpenHashMap<>();
+        // Drained chunks which can still be written to
+        private Long2ObjectOpenHashMap<FaweChunk> pending = new Long2ObjectOpenHashMap<>();
+
+        private FaweChunk get(long pair) {
+            FaweChunk chunk = blocks.get(pair);
+            if (chunk == null && !pending.isEmpty()) {
+                chunk = pending.get(pair);
+            }
+            return chunk;
+        }
+    }
+
+    private Shard getShard(int cx, int cz) {
+        int hash = cx * 0x9E3779B9 ^ cz;
+        return shards[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    @Override
+    public Collection<FaweChunk> getFaweCunks() {
+        final HashSet<FaweChunk> set = new HashSet<>();
+        forEachChunk(new RunnableVal<FaweChunk>() {
+            @Override
+            public void run(FaweChunk value) {
+                set.add(value);
+            }
+        });
+        return set;
+    }
+
+    @Override
+    public void forEachChunk(RunnableVal<FaweChunk> onEach) {
+        for (FaweChunk chunk : pending) {
+            onEach.run(chunk);
+        }
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (FaweChunk chunk : shard.blocks.values()) {
+                    onEach.run(chunk);
+                }
+            }
+        }
+    }
+
+    @Override
+    public FaweChunk getFaweChunk(int cx, int cz) {
+        long pair = MathMan.pairInt(cx, cz);
+        Shard shard = getShard(cx, cz);
+        FaweChunk chunk;
+        synchronized (shard) {
+            chunk = shard.get(pair);
+            if (chunk == null) {
+                chunk = parent.getQueuedFaweChunk(cx, cz);
+                shard.blocks.put(pair, chunk);
+            } else {
+                return lastWrappedChunk = chunk;
+            }
+        }
+        if (parent.getProgressTask() != null) {
+            try {
+                parent.getProgressTask().run(FaweQueue.ProgressType.QUEUE, size());
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+        return lastWrappedChunk = chunk;
+    }
+
+    @Override
+    public FaweChunk getCachedFaweChunk(int cx, int cz) {
+        long pair = MathMan.pairInt(cx, cz);
+        Shard shard = getShard(cx, cz);
+        synchronized (shard) {
+            return shard.get(pair);
+        }
+    }
+
+    @Override
+    public void add(FaweChunk chunk) {
+        long pair = MathMan.pairInt(chunk.getX(), chunk.getZ());
+        Shard shard = getShard(chunk.getX(), chunk.getZ());
+        synchronized (shard) {
+            if (shard.get(pair) == null) {
+                shard.blocks.put(pair, chunk);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.blocks.clear();
+                shard.pending.clear();
+            }
+        }
+        pending.clear();
+    }
+
+    @Override
+    public int size() {
+        int size = pending.size();
+        for (Shard shard : shards) {
+            size += shard.blocks.size();
+        }
+        return size;
+    }
+
+    /**
+     * Swap out the next non empty stripe and move its chunks to the pending deque
+     * @return false if every stripe is empty
+     */
+    private boolean drain() {
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[drainIndex++ & mask];
+            synchronized (shard) {
+                if (shard.blocks.isEmpty()) {
+                    continue;
+                }
+                Long2ObjectOpenHashMap<FaweChunk> snapshot = shard.blocks;
+                shard.blocks = new Long2ObjectOpenHashMap<>();
+                if (shard.pending.isEmpty()) {
+                    shard.pending = snapshot;
+                } else {
+                    shard.pending.putAll(snapshot);
+                }
+                pending.addAll(snapshot.values());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take the next chunk to dispatch
+     * @param skip a chunk which will be put back, so it stays indexed
+     * @return the chunk, or null if there are none
+     */
+    private FaweChunk poll(FaweChunk skip) {
+        FaweChunk chunk = pending.poll();
+        if (chunk == null && drain()) {
+            chunk = pending.poll();
+        }
+        if (chunk != null && chunk != skip) {
+            // From here it is dispatched, so a new chunk is created for any later changes
+            long pair = MathMan.pairInt(chunk.getX(), chunk.getZ());
+            Shard shard = getShard(chunk.getX(), chunk.getZ());
+            synchronized (shard) {
+                if (shard.pending.get(pair) == chunk) {
+                    shard.pending.remove(pair);
+                }
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Put back a chunk which was taken but not dispatched
+     * @param chunk
+     */
+    private void requeue(FaweChunk chunk) {
+        long pair = MathMan.pairInt(chunk.getX(), chunk.getZ());
+        Shard shard = getShard(chunk.getX(), chunk.getZ());
+        synchronized (shard) {
+            if (shard.get(pair) == null) {
+                shard.pending.put(pair, chunk);
+            }
+        }
+        pending.addFirst(chunk);
+    }
+
+    @Override
+    public boolean next(int amount, long time) {
+        // The chunk currently being written to is held back until the edit has finished
+        FaweChunk skip = parent.getStage() == SetQueue.QueueStage.INACTIVE ? lastWrappedChunk : null;
+        FaweChunk held = null;
+        ChunkCostModel model = parent.getCostModel();
+        long budget = ChunkCostModel.toNanos(time);
+        try {
+            if (amount == 1) {
+                int added = 0;
+                long start = System.nanoTime();
+                do {
+                    FaweChunk chunk = poll(skip);
+                    if (chunk == null) {
+                        break;
+                    }
+                    if (chunk == skip) {
+                        held = chunk;
+                        continue;
+                    }
+                    if (added != 0 && System.nanoTime() - start + model.estimate(chunk) > budget) {
+                        requeue(chunk);
+                        break;
+                    }
+                    parent.start(chunk);
+                    long callStart = System.nanoTime();
+                    chunk.call();
+                    model.record(chunk, System.nanoTime() - callStart);
+                    parent.end(chunk);
+                    added++;
+                } while (System.nanoTime() - start < budget);
+            } else {
+                ExecutorCompletionService service = SetQueue.IMP.getCompleterService();
+                ForkJoinPool pool = SetQueue.IMP.getForkJoinPool();
+                boolean result = true;
+                for (int i = 0; i < amount; i++) {
+                    FaweChunk chunk = poll(skip);
+                    if (result = chunk != null) {
+                        if (chunk == skip) {
+                            held = chunk;
+                            i--;
+                            continue;
+                        }
+                        parent.start(chunk);
+                        service.submit(model.measure(chunk));
+                    } else {
+                        break;
+                    }
+                }
+                // if result, then submitted = amount
+                if (result) {
+                    long start = System.nanoTime();
+                    while (System.nanoTime() - start < budget) {
+                        FaweChunk chunk = poll(skip);
+                        if (chunk == null) {
+                            break;
+                        }
+                        if (chunk == skip) {
+                            held = chunk;
+                            continue;
+                        }
+                        // Work is spread over the pool, so the remaining window shrinks by a share of the cost
+                        if (System.nanoTime() - start + model.estimate(chunk) / amount > budget) {
+                            requeue(chunk);
+                            break;
+                        }
+                        parent.start(chunk);
+                        service.submit(model.measure(chunk));
+                        Future future = service.poll(50, TimeUnit.MILLISECONDS);
+                        if (future != null) {
+                            FaweChunk fc = (FaweChunk) future.get();
+                            parent.end(fc);
+                        }
+                    }
+                }
+                pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                Future future;
+                while ((future = service.poll()) != null) {
+                    FaweChunk fc = (FaweChunk) future.get();
+                    parent.end(fc);
+                }
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            if (held != null) {
+                pending.addFirst(held);
+            }
+        }
+        return size() != 0;
+    }
+}
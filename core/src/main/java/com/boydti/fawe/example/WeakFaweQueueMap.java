@@ -1,6 +1,7 @@
 package com.boydti.fawe.example;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.object.ChunkCostModel;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.RunnableVal;
@@ -144,7 +145,7 @@ public class WeakFaweQueueMap implements IFaweQueueMap {
     }
 
     private FaweChunk getNewFaweChunk(int cx, int cz) {
-        return parent.getFaweChunk(cx, cz);
+        return parent.getQueuedFaweChunk(cx, cz);
     }
 
     private FaweChunk lastWrappedChunk;
@@ -157,9 +158,11 @@ public class WeakFaweQueueMap implements IFaweQueueMap {
             try {
                 boolean skip = parent.getStage() == SetQueue.QueueStage.INACTIVE;
                 int added = 0;
+                ChunkCostModel model = parent.getCostModel();
+                long budget = ChunkCostModel.toNanos(time);
                 Iterator<Map.Entry<Long, Reference<FaweChunk>>> iter = blocks.entrySet().iterator();
                 if (amount == 1) {
-                    long start = System.currentTimeMillis();
+                    long start = System.nanoTime();
                     do {
                         if (iter.hasNext()) {
                             Map.Entry<Long, Reference<FaweChunk>> entry = iter.next();
@@ -168,18 +171,24 @@ public class WeakFaweQueueMap implements IFaweQueueMap {
                             if (skip && chunk == lastWrappedChunk) {
                                 continue;
                             }
+                            if (chunk != null && added != 0 && System.nanoTime() - start + model.estimate(chunk) > budget) {
+                                break;
+                            }
                             iter.remove();
                             if (chunk != null) {
                                 parent.start(chunk);
+                                long callStart = System.nanoTime();
                                 chunk.call();
+                                model.record(chunk, System.nanoTime() - callStart);
                                 parent.end(chunk);
+                                added++;
                             } else {
                                 Fawe.debug("Skipped modifying chunk due to low memory (3)");
                             }
                         } else {
                             break;
                         }
-                    } while (System.currentTimeMillis() - start < time);
+                    } while (System.nanoTime() - start < budget);
                     return !blocks.isEmpty();
                 }
                 ExecutorCompletionService service = SetQueue.IMP.getCompleterService();
@@ -196,7 +205,7 @@ public class WeakFaweQueueMap implements IFaweQueueMap {
                     iter.remove();
                     if (chunk != null) {
                         parent.start(chunk);
-                        service.submit(chunk);
+                        service.submit(model.measure(chunk));
                         added++;
                         i++;
                     } else {
@@ -205,8 +214,8 @@ public class WeakFaweQueueMap implements IFaweQueueMap {
                 }
                 // if result, then submitted = amount
                 if (result) {
-                    long start = System.currentTimeMillis();
-                    while (System.currentTimeMillis() - start < time && result) {
+                    long start = System.nanoTime();
+                    while (System.nanoTime() - start < budget && result) {
                         if (result = iter.hasNext()) {
                             Map.Entry<Long, Reference<FaweChunk>> item = iter.next();
                             Reference<FaweChunk> chunkReference = item.getValue();
@@ -214,10 +223,14 @@ public class WeakFaweQueueMap implements IFaweQueueMap {
                             if (skip && chunk == lastWrappedChunk) {
                                 continue;
                             }
+                            // Work is spread over the pool, so the remaining window shrinks by a share of the cost
+                            if (chunk != null && System.nanoTime() - start + model.estimate(chunk) / amount > budget) {
+                                break;
+                            }
                             iter.remove();
                             if (chunk != null) {
                                 parent.start(chunk);
-                                service.submit(chunk);
+                                service.submit(model.measure(chunk));
                                 Future future = service.poll(50, TimeUnit.MILLISECONDS);
                                 if (future != null) {
                                     FaweChunk fc = (FaweChunk) future.get();
@@ -0,0 +1,487 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.object.RunnableVal2;
+import com.boydti.fawe.object.RunnableVal3;
+import com.boydti.fawe.object.io.FastByteArrayInputStream;
+import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.MathMan;
+import com.sk89q.jnbt.CompoundTag;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An index of where the blocks and tiles of a world are, built from the region files<br>
+ * - Each region has an index file: combined id -> count and the chunks it is in, tile type -> positions<br>
+ * - update() scans the regions in parallel (MCAQueue.filterWorld), skipping those which haven't changed since they were indexed<br>
+ * - count / regions are answered from the summaries (kept in memory), locate / tiles only read the index files of the regions with a match<br>
+ * - Air isn't indexed, and blocks without data (see FaweCache.hasData) are indexed with data 0<br>
+ * - Tile types are compared ignoring case, underscores and the minecraft: prefix (e.g. MobSpawner = minecraft:mob_spawner)
+ */
+public class MCABlockIndex {
+
+    private static final int MAGIC = 0x46424958;
+    private static final int VERSION = 1;
+
+    /**
+     * The bits of the data nibble which are indexed for each id
+     */
+    private static final int[] DATA_MASK = new int[256];
+
+    static {
+        for (int id = 0; id < DATA_MASK.length; id++) {
+            DATA_MASK[id] = FaweCache.hasData(id) ? 15 : 0;
+        }
+    }
+
+    /**
+     * The start of an index file, which is kept in memory
+     */
+    private static final class Summary {
+        private final int mcaX;
+        private final int mcaZ;
+        private final long lastModified;
+        private final short[] ids;
+        private final long[] counts;
+        private final String[] tileTypes;
+        private final int[] tileCounts;
+
+        private Summary(int mcaX, int mcaZ, DataInputStream in) throws IOException {
+            this.mcaX = mcaX;
+            this.mcaZ = mcaZ;
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a block index");
+            }
+            this.lastModified = in.readLong();
+            int size = in.readInt();
+            this.ids = new short[size];
+            this.counts = new long[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = in.readShort();
+                counts[i] = in.readLong();
+            }
+            size = in.readInt();
+            this.tileTypes = new String[size];
+            this.tileCounts = new int[size];
+            for (int i = 0; i < size; i++) {
+                tileTypes[i] = in.readUTF();
+                tileCounts[i] = in.readInt();
+            }
+        }
+
+        private long count(boolean[] allowed) {
+            long total = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (allowed[ids[i]]) {
+                    total += counts[i];
+                }
+            }
+            return total;
+        }
+
+        private int getTileCount(String type) {
+            for (int i = 0; i < tileTypes.length; i++) {
+                if (tileTypes[i].equals(type)) {
+                    return tileCounts[i];
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * The index of a region while it's being built
+     */
+    static final class Builder {
+        private final long lastModified;
+        private final long[] counts = new long[4096];
+        // A bit for each chunk in the region: (cx & 31) | (cz & 31) << 5
+        private final long[][] chunks = new long[4096][];
+        private final Map<String, IntArrayList> tiles = new HashMap<>();
+
+        Builder(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        synchronized void add(int cx, int cz, int[] blocks, List<CompoundTag> chunkTiles) {
+            int bit = (cx & 31) | (cz & 31) << 5;
+            for (int combined = 0; combined < blocks.length; combined++) {
+                int count = blocks[combined];
+                if (count == 0) {
+                    continue;
+                }
+                blocks[combined] = 0;
+                if (combined < 16) {
+                    continue;
+                }
+                counts[combined] += count;
+                long[] bitmap = chunks[combined];
+                if (bitmap == null) {
+                    bitmap = chunks[combined] = new long[16];
+                }
+                bitmap[bit >> 6] |= 1L << (bit & 63);
+            }
+            for (CompoundTag tile : chunkTiles) {
+                String type = getType(tile.getString("id"));
+                IntArrayList positions = tiles.get(type);
+                if (positions == null) {
+                    tiles.put(type, positions = new IntArrayList());
+                }
+                positions.add(tile.getInt("x"));
+                positions.add(tile.getInt("y"));
+                positions.add(tile.getInt("z"));
+            }
+        }
+
+        /**
+         * magic, version, region last modified<br>
+         * {short combined, long count}...<br>
+         * {utf type, int count}...<br>
+         * {long[16] chunks} for each combined id<br>
+         * {int x, int y, int z}... for each tile type
+         */
+        synchronized void write(File file) throws IOException {
+            File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+            List<String> types = new ArrayList<>(tiles.keySet());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 8192))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeLong(lastModified);
+                int size = 0;
+                for (long[] bitmap : chunks) {
+                    if (bitmap != null) size++;
+                }
+                out.writeInt(size);
+                for (int combined = 0; combined < counts.length; combined++) {
+                    if (chunks[combined] != null) {
+                        out.writeShort(combined);
+                        out.writeLong(counts[combined]);
+                    }
+                }
+                out.writeInt(types.size());
+                for (String type : types) {
+                    out.writeUTF(type);
+                    out.writeInt(tiles.get(type).size() / 3);
+                }
+                for (long[] bitmap : chunks) {
+                    if (bitmap != null) {
+                        for (long bits : bitmap) {
+                            out.writeLong(bits);
+                        }
+                    }
+                }
+                for (String type : types) {
+                    IntArrayList positions = tiles.get(type);
+                    for (int i = 0; i < positions.size(); i++) {
+                        out.writeInt(positions.getInt(i));
+                    }
+                }
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private final MCAQueue queue;
+    private final File regionFolder;
+    private final File indexFolder;
+    private Long2ObjectOpenHashMap<Summary> summaries;
+
+    /**
+     * @param queue the queue for the world to index
+     * @param indexFolder where the index files are kept
+     */
+    public MCABlockIndex(MCAQueue queue, File indexFolder) {
+        this(queue, queue.getSaveFolder(), indexFolder);
+    }
+
+    MCABlockIndex(MCAQueue queue, File regionFolder, File indexFolder) {
+        this.queue = queue;
+        this.regionFolder = regionFolder;
+        this.indexFolder = indexFolder;
+    }
+
+    /**
+     * Get the type a tile is indexed by
+     * @param id e.g. Chest or minecraft:chest
+     * @return
+     */
+    public static String getType(String id) {
+        String type = id.toLowerCase(Locale.ROOT);
+        if (type.startsWith("minecraft:")) {
+            type = type.substring(10);
+        }
+        return type.replace("_", "");
+    }
+
+    private File getRegionFile(int mcaX, int mcaZ) {
+        return new File(regionFolder, "r." + mcaX + "." + mcaZ + ".mca");
+    }
+
+    private File getIndexFile(int mcaX, int mcaZ) {
+        return new File(indexFolder, "r." + mcaX + "." + mcaZ + ".idx");
+    }
+
+    static long readLastModified(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                return -1;
+            }
+            return in.readLong();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Index the regions which changed since they were last indexed (or weren't yet)<br>
+     * - The index of regions which no longer exist is removed
+     * @return the number of regions indexed
+     */
+    public int update() {
+        indexFolder.mkdirs();
+        File[] files = indexFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String[] split = file.getName().split("\\.");
+                if (split.length == 4 && !new File(regionFolder, "r." + split[1] + "." + split[2] + ".mca").exists()) {
+                    file.delete();
+                }
+            }
+        }
+        final Long2ObjectOpenHashMap<Builder> building = new Long2ObjectOpenHashMap<>();
+        final AtomicInteger indexed = new AtomicInteger();
+        queue.filterWorld(new MCASectionFilter<int[]>() {
+            @Override
+            public boolean appliesFile(int mcaX, int mcaZ) {
+                File index = getIndexFile(mcaX, mcaZ);
+                return !index.exists() || readLastModified(index) != getRegionFile(mcaX, mcaZ).lastModified();
+            }
+
+            @Override
+            public MCAFile applyFile(MCAFile file) {
+                Builder builder = new Builder(file.getFile().lastModified());
+                synchronized (building) {
+                    building.put(MathMan.pairInt(file.getX(), file.getZ()), builder);
+                }
+                return file;
+            }
+
+            @Override
+            public void applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, int[] blocks) {
+                for (int i = 0, j = 0; j < 2048; i += 2, j++) {
+                    int nibbles = data[j];
+                    int id1 = ids[i] & 0xFF;
+                    int id2 = ids[i + 1] & 0xFF;
+                    blocks[id1 << 4 | (nibbles & DATA_MASK[id1])]++;
+                    blocks[id2 << 4 | ((nibbles >> 4) & DATA_MASK[id2])]++;
+                }
+            }
+
+            @Override
+            public void finishChunk(MCAChunk chunk, int[] blocks) {
+                Builder builder;
+                synchronized (building) {
+                    builder = building.get(MathMan.pairInt(chunk.getX() >> 5, chunk.getZ() >> 5));
+                }
+                List<CompoundTag> tiles = chunk.hasTiles() ? new ArrayList<>(chunk.getTiles().values()) : new ArrayList<CompoundTag>();
+                builder.add(chunk.getX(), chunk.getZ(), blocks, tiles);
+            }
+
+            @Override
+            public void finishFile(MCAFile file) {
+                Builder builder;
+                synchronized (building) {
+                    builder = building.remove(MathMan.pairInt(file.getX(), file.getZ()));
+                }
+                if (builder != null) {
+                    try {
+                        builder.write(getIndexFile(file.getX(), file.getZ()));
+                        indexed.incrementAndGet();
+                    } catch (IOException e) {
+                        MainUtil.handleError(e);
+                    }
+                }
+            }
+
+            @Override
+            public int[] init() {
+                return new int[4096];
+            }
+        });
+        synchronized (this) {
+            summaries = null;
+        }
+        return indexed.get();
+    }
+
+    private synchronized Long2ObjectOpenHashMap<Summary> getSummaries() {
+        if (summaries == null) {
+            summaries = new Long2ObjectOpenHashMap<>();
+            File[] files = indexFolder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String[] split = file.getName().split("\\.");
+                    if (split.length != 4 || !split[3].equals("idx")) {
+                        continue;
+                    }
+                    int mcaX = Integer.parseInt(split[1]);
+                    int mcaZ = Integer.parseInt(split[2]);
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192))) {
+                        summaries.put(MathMan.pairInt(mcaX, mcaZ), new Summary(mcaX, mcaZ, in));
+                    } catch (IOException e) {
+                        Fawe.debug("Ignoring invalid block index " + file + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return summaries;
+    }
+
+    private List<Summary> getSummaryList() {
+        Long2ObjectOpenHashMap<Summary> map = getSummaries();
+        synchronized (this) {
+            return new ArrayList<>(map.values());
+        }
+    }
+
+    /**
+     * @return if the world has been indexed
+     */
+    public boolean exists() {
+        return !getSummaries().isEmpty();
+    }
+
+    /**
+     * Count the blocks in the world
+     * @param allowed true for each combined id to count (4096)
+     * @return
+     */
+    public long count(boolean[] allowed) {
+        long total = 0;
+        for (Summary summary : getSummaryList()) {
+            total += summary.count(allowed);
+        }
+        return total;
+    }
+
+    /**
+     * Find the regions which contain any of the blocks
+     * @param allowed true for each combined id to find (4096)
+     * @param onEach mcaX, mcaZ, count
+     */
+    public void regions(boolean[] allowed, RunnableVal3<Integer, Integer, Long> onEach) {
+        for (Summary summary : getSummaryList()) {
+            long count = summary.count(allowed);
+            if (count != 0) {
+                onEach.run(summary.mcaX, summary.mcaZ, count);
+            }
+        }
+    }
+
+    /**
+     * Find the chunks which contain any of the blocks
+     * @param allowed true for each combined id to find (4096)
+     * @param onEach cx, cz
+     * @throws IOException
+     */
+    public void locate(boolean[] allowed, RunnableVal2<Integer, Integer> onEach) throws IOException {
+        long[] union = new long[16];
+        for (Summary summary : getSummaryList()) {
+            if (summary.count(allowed) == 0) {
+                continue;
+            }
+            DataInputStream in = read(summary);
+            Arrays.fill(union, 0);
+            for (short id : summary.ids) {
+                boolean found = allowed[id];
+                for (int i = 0; i < 16; i++) {
+                    long bits = in.readLong();
+                    if (found) union[i] |= bits;
+                }
+            }
+            for (int i = 0; i < 16; i++) {
+                long bits = union[i];
+                while (bits != 0) {
+                    int bit = (i << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    onEach.run((summary.mcaX << 5) + (bit & 31), (summary.mcaZ << 5) + (bit >> 5));
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the tiles of a type in the world
+     * @param type e.g. chest
+     * @return
+     */
+    public long countTiles(String type) {
+        type = getType(type);
+        long total = 0;
+        for (Summary summary : getSummaryList()) {
+            total += summary.getTileCount(type);
+        }
+        return total;
+    }
+
+    /**
+     * Find the tiles of a type
+     * @param type e.g. chest
+     * @param onEach x, y, z
+     * @throws IOException
+     */
+    public void tiles(String type, RunnableVal3<Integer, Integer, Integer> onEach) throws IOException {
+        type = getType(type);
+        for (Summary summary : getSummaryList()) {
+            if (summary.getTileCount(type) == 0) {
+                continue;
+            }
+            DataInputStream in = read(summary);
+            in.skipBytes(summary.ids.length * 16 * 8);
+            for (int i = 0; i < summary.tileTypes.length; i++) {
+                int count = summary.tileCounts[i];
+                if (!summary.tileTypes[i].equals(type)) {
+                    in.skipBytes(count * 12);
+                    continue;
+                }
+                for (int j = 0; j < count; j++) {
+                    onEach.run(in.readInt(), in.readInt(), in.readInt());
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Read the index file of a region, positioned after the summary
+     */
+    private DataInputStream read(Summary summary) throws IOException {
+        byte[] bytes = Files.readAllBytes(getIndexFile(summary.mcaX, summary.mcaZ).toPath());
+        DataInputStream in = new DataInputStream(new FastByteArrayInputStream(bytes));
+        new Summary(summary.mcaX, summary.mcaZ, in);
+        return in;
+    }
+}
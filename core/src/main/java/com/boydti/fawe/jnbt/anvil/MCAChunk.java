@@ -5,6 +5,7 @@ import com.boydti.fawe.jnbt.NBTStreamer;
 import com.boydti.fawe.object.FaweChunk;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.RunnableVal2;
+import com.boydti.fawe.object.io.FastByteArrayInputStream;
 import com.boydti.fawe.object.io.FastByteArrayOutputStream;
 import com.boydti.fawe.util.ArrayUtil;
 import com.boydti.fawe.util.MainUtil;
@@ -14,6 +15,8 @@ import com.sk89q.jnbt.ListTag;
 import com.sk89q.jnbt.NBTConstants;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,6 +24,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -31,8 +35,8 @@ public class MCAChunk extends FaweChunk<Void> {
 //    data: byte[16][2048]
 //    skylight: byte[16][2048]
 //    blocklight: byte[16][2048]
-//    entities: Map<Short, CompoundTag>
-//    tiles: List<CompoundTag>
+//    entities: Map<UUID, CompoundTag> (or raw nbt until used)
+//    tiles: Map<Short, CompoundTag> (or raw nbt until used)
 //    biomes: byte[256]
 //    compressedSize: int
 //    modified: boolean
@@ -43,8 +47,9 @@ public class MCAChunk extends FaweChunk<Void> {
     public byte[][] skyLight;
     public byte[][] blockLight;
     public byte[] biomes;
-    public Map<Short, CompoundTag> tiles = new HashMap<>();
-    public Map<UUID, CompoundTag> entities = new HashMap<>();
+    // Use getTiles() / getEntityMap(), as these are only decoded when first used
+    private Map<Short, CompoundTag> tiles = new HashMap<>();
+    private Map<UUID, CompoundTag> entities = new HashMap<>();
     private long inhabitedTime;
     private long lastUpdate;
     private int[] heightMap;
@@ -52,6 +57,27 @@ public class MCAChunk extends FaweChunk<Void> {
     private int modified;
     private boolean deleted;
 
+    /**
+     * A list which hasn't been decoded yet: the elements are raw[start, end)
+     */
+    private static final class RawList {
+        private final int type;
+        private final int length;
+        private final int start;
+        private int end = -1;
+
+        private RawList(int type, int length, int start) {
+            this.type = type;
+            this.length = length;
+            this.start = start;
+        }
+    }
+
+    // The decompressed nbt the chunk was read from (while the tiles or entities are still in it)
+    private byte[] raw;
+    private RawList rawTiles;
+    private RawList rawEntities;
+
     public MCAChunk(FaweQueue queue, int x, int z) {
         super(queue, x, z);
         this.ids = new byte[16][];
@@ -68,6 +94,8 @@ public class MCAChunk extends FaweChunk<Void> {
 
     public MCAChunk(MCAChunk parent, boolean shallow) {
         super(parent.getParent(), parent.getX(), parent.getZ());
+        parent.loadTiles();
+        parent.loadEntities();
         if (shallow) {
             this.ids = parent.ids;
             this.data = parent.data;
@@ -113,12 +141,16 @@ public class MCAChunk extends FaweChunk<Void> {
                 out.writeNamedTag("zPos", getZ());
                 out.writeNamedTag("LightPopulated", (byte) 0);
                 out.writeNamedTag("TerrainPopulated", (byte) 1);
-                if (entities.isEmpty()) {
+                if (rawEntities != null) {
+                    writeRawList(out, dataOut, "Entities", rawEntities);
+                } else if (entities.isEmpty()) {
                     out.writeNamedEmptyList("Entities");
                 } else {
                     out.writeNamedTag("Entities", new ListTag(CompoundTag.class, new ArrayList<CompoundTag>(entities.values())));
                 }
-                if (tiles.isEmpty()) {
+                if (rawTiles != null) {
+                    writeRawList(out, dataOut, "TileEntities", rawTiles);
+                } else if (tiles.isEmpty()) {
                     out.writeNamedEmptyList("TileEntities");
                 } else {
                     out.writeNamedTag("TileEntities", new ListTag(CompoundTag.class, new ArrayList<CompoundTag>(tiles.values())));
@@ -155,6 +187,106 @@ public class MCAChunk extends FaweChunk<Void> {
         return buffered.toByteArray();
     }
 
+    /**
+     * Write a list which was never decoded, exactly as it was read
+     */
+    private void writeRawList(NBTOutputStream out, DataOutputStream dataOut, String name, RawList list) throws IOException {
+        out.writeNamedTagName(name, NBTConstants.TYPE_LIST);
+        dataOut.writeByte(list.type);
+        dataOut.writeInt(list.length);
+        dataOut.write(raw, list.start, list.end - list.start);
+    }
+
+    private List<Tag> readRawList(RawList list) throws IOException {
+        NBTInputStream nis = new NBTInputStream(new DataInputStream(new FastByteArrayInputStream(raw, list.start, list.end - list.start)));
+        List<Tag> tags = new ArrayList<>(list.length);
+        for (int i = 0; i < list.length; i++) {
+            tags.add(nis.readTagPayload(list.type, 1));
+        }
+        return tags;
+    }
+
+    private void loadTiles() {
+        if (rawTiles == null) {
+            return;
+        }
+        synchronized (this) {
+            RawList list = rawTiles;
+            if (list != null) {
+                try {
+                    for (Tag tag : readRawList(list)) {
+                        if (tag instanceof CompoundTag) {
+                            addTile((CompoundTag) tag);
+                        }
+                    }
+                } catch (IOException e) {
+                    MainUtil.handleError(e);
+                }
+                rawTiles = null;
+                if (rawEntities == null) {
+                    raw = null;
+                }
+            }
+        }
+    }
+
+    private void loadEntities() {
+        if (rawEntities == null) {
+            return;
+        }
+        synchronized (this) {
+            RawList list = rawEntities;
+            if (list != null) {
+                try {
+                    for (Tag tag : readRawList(list)) {
+                        if (tag instanceof CompoundTag) {
+                            addEntity((CompoundTag) tag);
+                        }
+                    }
+                } catch (IOException e) {
+                    MainUtil.handleError(e);
+                }
+                rawEntities = null;
+                if (rawTiles == null) {
+                    raw = null;
+                }
+            }
+        }
+    }
+
+    private void addTile(CompoundTag tile) {
+        int x = tile.getInt("x") & 15;
+        int y = tile.getInt("y");
+        int z = tile.getInt("z") & 15;
+        short pair = MathMan.tripleBlockCoord(x, y, z);
+        tiles.put(pair, tile);
+    }
+
+    private void addEntity(CompoundTag entityTag) {
+        long least = entityTag.getLong("UUIDLeast");
+        long most = entityTag.getLong("UUIDMost");
+        entities.put(new UUID(most, least), entityTag);
+    }
+
+    /**
+     * @return if the chunk has any tiles (without decoding them)
+     */
+    public boolean hasTiles() {
+        RawList list = rawTiles;
+        if (list != null) {
+            return list.length != 0;
+        }
+        return !tiles.isEmpty();
+    }
+
+    /**
+     * @return the entities by UUID (decoded when first used)
+     */
+    public Map<UUID, CompoundTag> getEntityMap() {
+        loadEntities();
+        return entities;
+    }
+
     public long getInhabitedTime() {
         return inhabitedTime;
     }
@@ -351,6 +483,9 @@ public class MCAChunk extends FaweChunk<Void> {
             }
         }
         // Copy nbt
+        loadTiles();
+        other.loadTiles();
+        other.loadEntities();
         int thisMinY = minY + offsetY;
         int thisMaxY = maxY + offsetY;
         if (!tiles.isEmpty()) {
@@ -404,6 +539,8 @@ public class MCAChunk extends FaweChunk<Void> {
             return null;
         }
         // e.g. by precalculating the length
+        loadTiles();
+        loadEntities();
         HashMap<String, Object> level = new HashMap<String, Object>();
         level.put("Entities", new ListTag(CompoundTag.class, new ArrayList<CompoundTag>(entities.values())));
         level.put("TileEntities", new ListTag(CompoundTag.class, new ArrayList<CompoundTag>(tiles.values())));
@@ -445,6 +582,79 @@ public class MCAChunk extends FaweChunk<Void> {
         skyLight = new byte[16][];
         blockLight = new byte[16][];
         NBTStreamer streamer = new NBTStreamer(nis);
+        addReaders(streamer);
+        streamer.addReader(".Level.TileEntities.#", new RunnableVal2<Integer, CompoundTag>() {
+            @Override
+            public void run(Integer index, CompoundTag tile) {
+                addTile(tile);
+            }
+        });
+        streamer.addReader(".Level.Entities.#", new RunnableVal2<Integer, CompoundTag>() {
+            @Override
+            public void run(Integer index, CompoundTag entityTag) {
+                addEntity(entityTag);
+            }
+        });
+        streamer.readFully();
+    }
+
+    /**
+     * Read a chunk from its decompressed nbt<br>
+     * - The tiles and entities are only decoded when first used<br>
+     * - If they are never used, they are written back byte for byte
+     * @param raw the decompressed nbt (kept until the tiles and entities are decoded)
+     * @param parent
+     * @param x
+     * @param z
+     * @param compressedSize
+     * @throws IOException
+     */
+    public MCAChunk(byte[] raw, FaweQueue parent, int x, int z, int compressedSize) throws IOException {
+        super(parent, x, z);
+        ids = new byte[16][];
+        data = new byte[16][];
+        skyLight = new byte[16][];
+        blockLight = new byte[16][];
+        final FastByteArrayInputStream in = new FastByteArrayInputStream(raw);
+        NBTStreamer streamer = new NBTStreamer(new NBTInputStream(new DataInputStream(in)));
+        addReaders(streamer);
+        streamer.addReader(".Level.TileEntities.?", new RunnableVal2<Integer, Integer>() {
+            @Override
+            public void run(Integer length, Integer type) {
+                rawTiles = new RawList(type, length, (int) in.position());
+            }
+        });
+        streamer.addReader(".Level.TileEntities.!", new RunnableVal2<Integer, Integer>() {
+            @Override
+            public void run(Integer length, Integer type) {
+                rawTiles.end = (int) in.position();
+            }
+        });
+        streamer.addReader(".Level.Entities.?", new RunnableVal2<Integer, Integer>() {
+            @Override
+            public void run(Integer length, Integer type) {
+                rawEntities = new RawList(type, length, (int) in.position());
+            }
+        });
+        streamer.addReader(".Level.Entities.!", new RunnableVal2<Integer, Integer>() {
+            @Override
+            public void run(Integer length, Integer type) {
+                rawEntities.end = (int) in.position();
+            }
+        });
+        streamer.readFully();
+        if (rawTiles != null && rawTiles.end == -1) {
+            rawTiles = null;
+        }
+        if (rawEntities != null && rawEntities.end == -1) {
+            rawEntities = null;
+        }
+        if (rawTiles != null || rawEntities != null) {
+            this.raw = raw;
+        }
+    }
+
+    private void addReaders(NBTStreamer streamer) {
         streamer.addReader(".Level.InhabitedTime", new RunnableVal2<Integer, Long>() {
             @Override
             public void run(Integer index, Long value) {
@@ -467,28 +677,6 @@ public class MCAChunk extends FaweChunk<Void> {
                 blockLight[layer] = tag.getByteArray("BlockLight");
             }
         });
-        streamer.addReader(".Level.TileEntities.#", new RunnableVal2<Integer, CompoundTag>() {
-            @Override
-            public void run(Integer index, CompoundTag tile) {
-                int x = tile.getInt("x") & 15;
-                int y = tile.getInt("y");
-                int z = tile.getInt("z") & 15;
-                short pair = MathMan.tripleBlockCoord(x, y, z);
-                tiles.put(pair, tile);
-            }
-        });
-        streamer.addReader(".Level.Entities.#", new RunnableVal2<Integer, CompoundTag>() {
-            @Override
-            public void run(Integer index, CompoundTag entityTag) {
-                if (entities == null) {
-                    entities = new HashMap<UUID, CompoundTag>();
-                }
-
-                long least = entityTag.getLong("UUIDLeast");
-                long most = entityTag.getLong("UUIDMost");
-                entities.put(new UUID(most, least), entityTag);
-            }
-        });
         streamer.addReader(".Level.Biomes", new RunnableVal2<Integer, byte[]>() {
             @Override
             public void run(Integer index, byte[] value) {
@@ -501,7 +689,6 @@ public class MCAChunk extends FaweChunk<Void> {
                 heightMap = value;
             }
         });
-        streamer.readFully();
     }
 
     public int[] getHeightMapArray() {
@@ -530,6 +717,14 @@ public class MCAChunk extends FaweChunk<Void> {
         this.modified++;
     }
 
+    /**
+     * Mark the chunk as modified by a number of block changes (e.g. after editing a section array directly)
+     * @param amount
+     */
+    public final void setModified(int amount) {
+        this.modified += amount;
+    }
+
     @Override
     public int getBitMask() {
         int bitMask = 0;
@@ -544,6 +739,7 @@ public class MCAChunk extends FaweChunk<Void> {
     @Override
     public void setTile(int x, int y, int z, CompoundTag tile) {
         setModified();
+        loadTiles();
         short pair = MathMan.tripleBlockCoord(x, y, z);
         if (tile != null) {
             tiles.put(pair, tile);
@@ -555,9 +751,8 @@ public class MCAChunk extends FaweChunk<Void> {
     @Override
     public void setEntity(CompoundTag entityTag) {
         setModified();
-        long least = entityTag.getLong("UUIDLeast");
-        long most = entityTag.getLong("UUIDMost");
-        entities.put(new UUID(most, least), entityTag);
+        loadEntities();
+        addEntity(entityTag);
     }
 
     @Override
@@ -568,19 +763,22 @@ public class MCAChunk extends FaweChunk<Void> {
 
     @Override
     public Set<CompoundTag> getEntities() {
+        loadEntities();
         return new HashSet<>(entities.values());
     }
 
     @Override
     public Map<Short, CompoundTag> getTiles() {
-        return tiles == null ? new HashMap<Short, CompoundTag>() : tiles;
+        loadTiles();
+        return tiles;
     }
 
     @Override
     public CompoundTag getTile(int x, int y, int z) {
-        if (tiles == null || tiles.isEmpty()) {
+        if (!hasTiles()) {
             return null;
         }
+        loadTiles();
         short pair = MathMan.tripleBlockCoord(x, y, z);
         return tiles.get(pair);
     }
@@ -742,6 +940,7 @@ public class MCAChunk extends FaweChunk<Void> {
     @Override
     public void removeEntity(UUID uuid) {
         setModified();
+        loadEntities();
         entities.remove(uuid);
     }
 
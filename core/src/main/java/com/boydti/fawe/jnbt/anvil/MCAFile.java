@@ -1,6 +1,7 @@
 package com.boydti.fawe.jnbt.anvil;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.example.MappedFaweQueue;
 import com.boydti.fawe.jnbt.NBTStreamer;
 import com.boydti.fawe.object.FaweQueue;
 import com.boydti.fawe.object.RunnableVal;
@@ -24,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -46,13 +48,32 @@ public class MCAFile {
         }
     }
 
+    /**
+     * Files larger than this are not read into memory by {@link #prefetch()}
+     */
+    private static final int MAX_PREFETCH = 64 << 20;
+
+    private static final class Deflated {
+        private final MCAChunk chunk;
+        private final int modified;
+        private final byte[] bytes;
+
+        private Deflated(MCAChunk chunk, byte[] bytes) {
+            this.chunk = chunk;
+            this.modified = chunk.getModified();
+            this.bytes = bytes;
+        }
+    }
+
     private final FaweQueue queue;
     private final File file;
     private RandomAccessFile raf;
     private byte[] locations;
+    private byte[] prefetched;
     private boolean deleted;
     private final int X, Z;
     private final Int2ObjectOpenHashMap<MCAChunk> chunks = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<Deflated> deflated = new Int2ObjectOpenHashMap<>();
 
     final ThreadLocal<byte[]> byteStore1 = new ThreadLocal<byte[]>() {
         @Override
@@ -66,6 +87,12 @@ public class MCAFile {
             return new byte[4096];
         }
     };
+    final ThreadLocal<Inflater> inflaterStore = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
     final ThreadLocal<byte[]> byteStore3 = new ThreadLocal<byte[]>() {
         @Override
         protected byte[] initialValue() {
@@ -93,7 +120,9 @@ public class MCAFile {
             }
         }
         chunks.clear();
+        deflated.clear();
         locations = null;
+        prefetched = null;
     }
 
     public void setDeleted(boolean deleted) {
@@ -125,6 +154,28 @@ public class MCAFile {
         }
     }
 
+    /**
+     * Read the whole file into memory, so chunks can be read without waiting on the disk (or on other threads reading the file)<br>
+     * - The copy is kept until the file is closed<br>
+     * - Files larger than 64MB are read as usual
+     * @throws IOException
+     */
+    public void prefetch() throws IOException {
+        init();
+        if (raf == null) {
+            return;
+        }
+        synchronized (raf) {
+            long length = raf.length();
+            if (length <= MAX_PREFETCH) {
+                byte[] buffer = new byte[(int) length];
+                raf.seek(0);
+                raf.readFully(buffer);
+                prefetched = buffer;
+            }
+        }
+    }
+
     public MCAFile(FaweQueue parent, int mcrX, int mcrZ) throws Exception {
         this(parent, new File(parent.getSaveFolder(), "r." + mcrX + "." + mcrZ + ".mca"));
     }
@@ -171,9 +222,13 @@ public class MCAFile {
         if (offset == 0) {
             return null;
         }
-        NBTInputStream nis = getChunkIS(offset);
-        MCAChunk chunk = new MCAChunk(nis, queue, cx, cz, size);
-        nis.close();
+        byte[] raw;
+        try {
+            raw = MainUtil.decompress(getChunkCompressedBytes(offset), byteStore2.get(), inflaterStore.get());
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        MCAChunk chunk = new MCAChunk(raw, queue, cx, cz, size);
         int pair = MathMan.pair((short) (cx & 31), (short) (cz & 31));
         synchronized (chunks) {
             chunks.put(pair, chunk);
@@ -266,6 +321,14 @@ public class MCAFile {
         if (offset == 0) {
             return null;
         }
+        byte[] buffer = prefetched;
+        if (buffer != null && offset + 5 <= buffer.length) {
+            int size = ((buffer[offset] & 0xFF) << 24) + ((buffer[offset + 1] & 0xFF) << 16) + ((buffer[offset + 2] & 0xFF) << 8) + (buffer[offset + 3] & 0xFF);
+            int start = offset + 5;
+            if (size >= 0 && start + size <= buffer.length) {
+                return Arrays.copyOfRange(buffer, start, start + size);
+            }
+        }
         synchronized (raf) {
             raf.seek(offset);
             int size = raf.readInt();
@@ -276,22 +339,6 @@ public class MCAFile {
         }
     }
 
-    private NBTInputStream getChunkIS(int offset) throws IOException {
-        try {
-            byte[] data = getChunkCompressedBytes(offset);
-            FastByteArrayInputStream bais = new FastByteArrayInputStream(data);
-            InflaterInputStream iis = new InflaterInputStream(bais, new Inflater(), 1);
-            fieldBuf2.set(iis, byteStore2.get());
-            BufferedInputStream bis = new BufferedInputStream(iis);
-            NBTInputStream nis = new NBTInputStream(bis);
-            fieldBuf3.set(nis, byteStore3.get());
-            return nis;
-        } catch (IllegalAccessException unlikely) {
-            unlikely.printStackTrace();
-            return null;
-        }
-    }
-
     public void streamChunk(int cx, int cz, RunnableVal<NBTStreamer> addReaders) throws IOException {
         streamChunk(getOffset(cx, cz), addReaders);
     }
@@ -353,6 +400,23 @@ public class MCAFile {
         return compressed;
     }
 
+    /**
+     * Compress a modified chunk ahead of {@link #flush(ForkJoinPool)} (e.g. on the thread which filtered it)<br>
+     * - The bytes are only used if the chunk isn't modified again before the flush
+     * @param chunk
+     * @throws Exception
+     */
+    public void deflate(MCAChunk chunk) throws Exception {
+        if (!chunk.isModified() || chunk.isDeleted()) {
+            return;
+        }
+        Deflated value = new Deflated(chunk, toBytes(chunk));
+        int pair = MathMan.pair((short) (chunk.getX() & 31), (short) (chunk.getZ() & 31));
+        synchronized (deflated) {
+            deflated.put(pair, value);
+        }
+    }
+
     private byte[] getChunkBytes(int cx, int cz) throws  Exception{
         MCAChunk mca = getCachedChunk(cx, cz);
         if (mca == null) {
@@ -408,17 +472,67 @@ public class MCAFile {
                 }
                 raf = null;
                 locations = null;
+                prefetched = null;
+                synchronized (deflated) {
+                    deflated.clear();
+                }
+                // The file may have been rewritten, and its chunks are no longer kept
+                if (queue instanceof MappedFaweQueue) {
+                    ((MappedFaweQueue) queue).invalidateSections(X << 5, Z << 5, (X << 5) + 31, (Z << 5) + 31);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the modified chunks over their old sectors, if each of them still fits<br>
+     * - The rest of the file isn't read or written, so the cost is about the size of the change<br>
+     * - New chunks are appended to the end of the file
+     * @param compressedMap the modified chunks which are already in the file
+     * @param append the new chunks
+     * @return false if a chunk no longer fits (and the file needs to be rearranged)
+     * @throws IOException
+     */
+    boolean writeInPlace(Int2ObjectOpenHashMap<byte[]> compressedMap, Int2ObjectOpenHashMap<byte[]> append) throws IOException {
+        for (Int2ObjectMap.Entry<byte[]> entry : compressedMap.int2ObjectEntrySet()) {
+            int pair = entry.getIntKey();
+            int newSize = (entry.getValue().length + 5 + 4095) >> 12;
+            if (newSize > getSize(MathMan.unpairX(pair), MathMan.unpairY(pair)) >> 12) {
+                return false;
+            }
+        }
+        for (Int2ObjectMap.Entry<byte[]> entry : compressedMap.int2ObjectEntrySet()) {
+            int pair = entry.getIntKey();
+            short cx = MathMan.unpairX(pair);
+            short cz = MathMan.unpairY(pair);
+            byte[] bytes = entry.getValue();
+            int offset = getOffset(cx, cz);
+            writeSafe(raf, offset, bytes);
+            writeHeader(raf, cx, cz, offset >> 12, (bytes.length + 5 + 4095) >> 12, true);
+        }
+        for (MCAChunk chunk : getCachedChunks()) {
+            if (chunk.isDeleted() && getOffset(chunk.getX(), chunk.getZ()) != 0) {
+                writeHeader(raf, chunk.getX(), chunk.getZ(), 0, 0, false);
+            }
+        }
+        if (!append.isEmpty()) {
+            int start = (int) ((raf.length() + 4095) >> 12) << 12;
+            for (Int2ObjectMap.Entry<byte[]> entry : append.int2ObjectEntrySet()) {
+                int pair = entry.getIntKey();
+                byte[] bytes = entry.getValue();
+                int newSize = (bytes.length + 5 + 4095) >> 12;
+                writeSafe(raf, start, bytes);
+                writeHeader(raf, MathMan.unpairX(pair), MathMan.unpairY(pair), start >> 12, newSize, true);
+                start += newSize << 12;
             }
+            raf.setLength(start);
         }
+        return true;
     }
 
     public void flush(ForkJoinPool pool) {
         synchronized (raf) {
-            boolean wait;
-            if (pool == null) {
-                wait = true;
-                pool = new ForkJoinPool();
-            } else wait = false;
+            boolean wait = false;
             Int2ObjectOpenHashMap<byte[]> relocate = new Int2ObjectOpenHashMap<>();
             final Int2ObjectOpenHashMap<Integer> offsetMap = new Int2ObjectOpenHashMap<>(); // Offset -> <byte cx, byte cz, short size>
             final Int2ObjectOpenHashMap<byte[]> compressedMap = new Int2ObjectOpenHashMap<>();
@@ -428,6 +542,23 @@ public class MCAFile {
                 if (chunk.isModified() || chunk.isDeleted()) {
                     modified = true;
                     if (!chunk.isDeleted()) {
+                        int pair = MathMan.pair((short) (chunk.getX() & 31), (short) (chunk.getZ() & 31));
+                        Deflated ready;
+                        synchronized (deflated) {
+                            ready = deflated.get(pair);
+                        }
+                        if (ready != null && ready.chunk == chunk && ready.modified == chunk.getModified()) {
+                            if (getOffset(chunk.getX(), chunk.getZ()) == 0) {
+                                append.put(pair, ready.bytes);
+                            } else {
+                                compressedMap.put(pair, ready.bytes);
+                            }
+                            continue;
+                        }
+                        if (pool == null) {
+                            wait = true;
+                            pool = new ForkJoinPool();
+                        }
                         pool.submit(new Runnable() {
                             @Override
                             public void run() {
@@ -460,94 +591,98 @@ public class MCAFile {
                         offsetMap.put((int) offset, (Integer) MathMan.pair(pair1, pair2));
                     }
                 });
-                pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                if (pool != null) {
+                    pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
                 int start = 8192;
                 int written = start;
                 int end = 8192;
                 int nextOffset = 8192;
                 try {
-                    for (int count = 0; count < offsetMap.size(); count++) {
-                        Integer loc = offsetMap.get(nextOffset);
-                        while (loc == null) {
-                            nextOffset += 4096;
-                            loc = offsetMap.get(nextOffset);
-                        }
-                        int offset = nextOffset;
-                        short cxz = MathMan.unpairX(loc);
-                        int cx = MathMan.unpairShortX(cxz);
-                        int cz = MathMan.unpairShortY(cxz);
-                        int size = MathMan.unpairY(loc) << 12;
-                        nextOffset += size;
-                        end = Math.min(start + size, end);
-                        int pair = MathMan.pair((short) (cx & 31), (short) (cz & 31));
-                        byte[] newBytes = relocate.get(pair);
-                        if (newBytes == null) {
-                            MCAChunk cached = getCachedChunk(cx, cz);
-                            if (offset == start) {
-                                if (cached == null || !cached.isModified()) {
-                                    writeHeader(raf, cx, cz, start >> 12, size >> 12, true);
-                                    start += size;
-                                    written = start + size;
-                                    continue;
+                    if (!writeInPlace(compressedMap, append)) {
+                        for (int count = 0; count < offsetMap.size(); count++) {
+                            Integer loc = offsetMap.get(nextOffset);
+                            while (loc == null) {
+                                nextOffset += 4096;
+                                loc = offsetMap.get(nextOffset);
+                            }
+                            int offset = nextOffset;
+                            short cxz = MathMan.unpairX(loc);
+                            int cx = MathMan.unpairShortX(cxz);
+                            int cz = MathMan.unpairShortY(cxz);
+                            int size = MathMan.unpairY(loc) << 12;
+                            nextOffset += size;
+                            end = Math.min(start + size, end);
+                            int pair = MathMan.pair((short) (cx & 31), (short) (cz & 31));
+                            byte[] newBytes = relocate.get(pair);
+                            if (newBytes == null) {
+                                MCAChunk cached = getCachedChunk(cx, cz);
+                                if (offset == start) {
+                                    if (cached == null || !cached.isModified()) {
+                                        writeHeader(raf, cx, cz, start >> 12, size >> 12, true);
+                                        start += size;
+                                        written = start + size;
+                                        continue;
+                                    } else {
+                                        newBytes = compressedMap.get(pair);
+                                    }
                                 } else {
                                     newBytes = compressedMap.get(pair);
-                                }
-                            } else {
-                                newBytes = compressedMap.get(pair);
-                                if (newBytes == null) {
-                                    if (cached == null || !cached.isDeleted()) {
-                                        newBytes = getChunkCompressedBytes(getOffset(cx, cz));
+                                    if (newBytes == null) {
+                                        if (cached == null || !cached.isDeleted()) {
+                                            newBytes = getChunkCompressedBytes(getOffset(cx, cz));
+                                        }
                                     }
                                 }
                             }
-                        }
-                        if (newBytes == null) {
-                            writeHeader(raf, cx, cz, 0, 0, false);
-                            continue;
-                        }
-                        int len = newBytes.length + 5;
-                        int oldSize = (size + 4095) >> 12;
-                        int newSize = (len + 4095) >> 12;
-                        int nextOffset2 = end;
-                        while (start + len > end) {
-                            Integer nextLoc = offsetMap.get(nextOffset2);
-                            if (nextLoc != null) {
-                                short nextCXZ = MathMan.unpairX(nextLoc);
-                                int nextCX = MathMan.unpairShortX(nextCXZ);
-                                int nextCZ = MathMan.unpairShortY(nextCXZ);
-                                MCAChunk cached = getCachedChunk(nextCX, nextCZ);
-                                if (cached == null || !cached.isModified()) {
-                                    byte[] nextBytes = getChunkCompressedBytes(nextOffset2);
-                                    relocate.put(MathMan.pair((short) (nextCX & 31), (short) (nextCZ & 31)), nextBytes);
-                                }
-                                int nextSize = MathMan.unpairY(nextLoc) << 12;
-                                end += nextSize;
-                                nextOffset2 += nextSize;
-                            } else {
-                                end += 4096;
-                                nextOffset2 += 4096;
+                            if (newBytes == null) {
+                                writeHeader(raf, cx, cz, 0, 0, false);
+                                continue;
                             }
-                        }
-                        writeSafe(raf, start, newBytes);
-                        writeHeader(raf, cx, cz, start >> 12, newSize, true);
-                        written = start + newBytes.length + 5;
-                        start += newSize << 12;
-                    }
-                    if (!append.isEmpty()) {
-                        for (Int2ObjectMap.Entry<byte[]> entry : append.int2ObjectEntrySet()) {
-                            int pair = entry.getIntKey();
-                            short cx = MathMan.unpairX(pair);
-                            short cz = MathMan.unpairY(pair);
-                            byte[] bytes = entry.getValue();
-                            int len = bytes.length + 5;
+                            int len = newBytes.length + 5;
+                            int oldSize = (size + 4095) >> 12;
                             int newSize = (len + 4095) >> 12;
-                            writeSafe(raf, start, bytes);
+                            int nextOffset2 = end;
+                            while (start + len > end) {
+                                Integer nextLoc = offsetMap.get(nextOffset2);
+                                if (nextLoc != null) {
+                                    short nextCXZ = MathMan.unpairX(nextLoc);
+                                    int nextCX = MathMan.unpairShortX(nextCXZ);
+                                    int nextCZ = MathMan.unpairShortY(nextCXZ);
+                                    MCAChunk cached = getCachedChunk(nextCX, nextCZ);
+                                    if (cached == null || !cached.isModified()) {
+                                        byte[] nextBytes = getChunkCompressedBytes(nextOffset2);
+                                        relocate.put(MathMan.pair((short) (nextCX & 31), (short) (nextCZ & 31)), nextBytes);
+                                    }
+                                    int nextSize = MathMan.unpairY(nextLoc) << 12;
+                                    end += nextSize;
+                                    nextOffset2 += nextSize;
+                                } else {
+                                    end += 4096;
+                                    nextOffset2 += 4096;
+                                }
+                            }
+                            writeSafe(raf, start, newBytes);
                             writeHeader(raf, cx, cz, start >> 12, newSize, true);
-                            written = start + bytes.length + 5;
+                            written = start + newBytes.length + 5;
                             start += newSize << 12;
                         }
+                        if (!append.isEmpty()) {
+                            for (Int2ObjectMap.Entry<byte[]> entry : append.int2ObjectEntrySet()) {
+                                int pair = entry.getIntKey();
+                                short cx = MathMan.unpairX(pair);
+                                short cz = MathMan.unpairY(pair);
+                                byte[] bytes = entry.getValue();
+                                int len = bytes.length + 5;
+                                int newSize = (len + 4095) >> 12;
+                                writeSafe(raf, start, bytes);
+                                writeHeader(raf, cx, cz, start >> 12, newSize, true);
+                                written = start + bytes.length + 5;
+                                start += newSize << 12;
+                            }
+                        }
+                        raf.setLength(4096 * ((written + 4095) / 4096));
                     }
-                    raf.setLength(4096 * ((written + 4095) / 4096));
                     if (raf instanceof BufferedRandomAccessFile) {
                         ((BufferedRandomAccessFile) raf).flush();
                     }
@@ -69,4 +69,11 @@ public class MCAFilter<T> extends IterableThreadLocal<T> {
      * @return
      */
     public void finishChunk(MCAChunk chunk, T cache) {}
+
+    /**
+     * Do something with the MCAFile after all of its chunks were filtered<br>
+     *  - Called before the file is written<br>
+     * @param file
+     */
+    public void finishFile(MCAFile file) {}
 }
@@ -1,6 +1,7 @@
 package com.boydti.fawe.jnbt.anvil;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.example.CharFaweChunk;
 import com.boydti.fawe.example.NMSMappedFaweQueue;
 import com.boydti.fawe.example.NullFaweChunk;
@@ -22,8 +23,12 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk, FaweChunk> {
 
@@ -227,8 +232,14 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                     tz = Math.min(tz, region.maxZ);
                     int minLayer = region.minY >> 4;
                     int maxLayer = region.maxY >> 4;
+                    MCASectionFilter<G> sectionFilter = filter instanceof MCASectionFilter ? (MCASectionFilter<G>) filter : null;
+                    boolean fullColumn = tx - bx == 15 && tz - bz == 15;
                     for (int layer = minLayer; layer <= maxLayer; layer++) {
                         if (chunk.doesSectionExist(layer)) {
+                            if (sectionFilter != null && fullColumn && region.minY <= layer << 4 && region.maxY >= (layer << 4) + 15) {
+                                sectionFilter.applySection(chunk, layer, chunk.ids[layer], chunk.data[layer], value);
+                                continue;
+                            }
                             mutableBlock.setArrays(layer);
                             int yStart = layer << 4;
                             int yEnd = yStart + 15;
@@ -258,6 +269,11 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
             public void finishChunk(MCAChunk chunk, G cache) {
                 super.finishChunk(chunk, cache);
             }
+
+            @Override
+            public void finishFile(MCAFile file) {
+                filter.finishFile(file);
+            }
         });
         return filter;
     }
@@ -275,9 +291,23 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
         return filter;
     }
 
+    /**
+     * Apply a filter to every region file of the world<br>
+     * Files are processed as a pipeline, so the disk and the CPU are busy at the same time:<br>
+     * - Read: a thread reads the next files into memory<br>
+     * - Filter: chunks are decompressed, filtered and compressed again on the fork join pool<br>
+     * - Write: a thread writes back each file once its chunks are done<br>
+     * At most Settings.EXPERIMENTAL.ANVIL_PIPELINE_FILES files are in the pipeline at once
+     * @param filter
+     * @return
+     */
     public <G, T extends MCAFilter<G>> T filterWorld(final T filter) {
         File folder = getSaveFolder();
         final ForkJoinPool pool = new ForkJoinPool();
+        final ExecutorService reader = Executors.newSingleThreadExecutor();
+        final ExecutorService writer = Executors.newSingleThreadExecutor();
+        final int maxFiles = Math.max(2, Settings.IMP.EXPERIMENTAL.ANVIL_PIPELINE_FILES);
+        final Semaphore inPipeline = new Semaphore(maxFiles);
         MainUtil.traverse(folder.toPath(), new RunnableVal2<Path, BasicFileAttributes>() {
             @Override
             public void run(Path path, BasicFileAttributes attr) {
@@ -287,78 +317,33 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                     final int mcaX = Integer.parseInt(split[1]);
                     final int mcaZ = Integer.parseInt(split[2]);
                     if (filter.appliesFile(mcaX, mcaZ)) {
-                        File file = path.toFile();
+                        final File file = path.toFile();
                         Fawe.debug("Apply file " + file);
-                        MCAFile mcaFile = new MCAFile(MCAQueue.this, file);
-                        final MCAFile original = mcaFile;
-                        final MCAFile finalFile = filter.applyFile(mcaFile);
+                        final MCAFile original = new MCAFile(MCAQueue.this, file);
+                        final MCAFile finalFile = filter.applyFile(original);
                         if (finalFile != null && !finalFile.isDeleted()) {
-                            finalFile.init();
-                            // May not do anything, but seems to lead to smaller lag spikes
-                            final int cbx = mcaX << 5;
-                            final int cbz = mcaZ << 5;
-
-                            finalFile.forEachSortedChunk(new RunnableVal4<Integer, Integer, Integer, Integer>() {
+                            inPipeline.acquireUninterruptibly();
+                            reader.submit(new Runnable() {
                                 @Override
-                                public void run(final Integer rcx, final Integer rcz, Integer offset, Integer size) {
-                                    pool.submit(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            try {
-                                                int cx = cbx + rcx;
-                                                int cz = cbz + rcz;
-                                                if (filter.appliesChunk(cx, cz)) {
-                                                    MCAChunk chunk = finalFile.getChunk(cx, cz);
-                                                    try {
-                                                        final G value = filter.get();
-                                                        chunk = filter.applyChunk(chunk, value);
-                                                        if (chunk != null) {
-                                                            final MutableMCABackedBaseBlock mutableBlock = blockStore.get();
-                                                            mutableBlock.setChunk(chunk);
-                                                            int bx = cx << 4;
-                                                            int bz = cz << 4;
-                                                            for (int layer = 0; layer < chunk.ids.length; layer++) {
-                                                                if (chunk.doesSectionExist(layer)) {
-                                                                    mutableBlock.setArrays(layer);
-                                                                    int yStart = layer << 4;
-                                                                    int index = 0;
-                                                                    for (int y = yStart; y < yStart + 16; y++) {
-                                                                        mutableBlock.setY(y);
-                                                                        for (int z = bz; z < bz + 16; z++) {
-                                                                            mutableBlock.setZ(z);
-                                                                            for (int x = bx; x < bx + 16; x++, index++) {
-                                                                                mutableBlock.setX(x);
-                                                                                mutableBlock.setIndex(index);
-                                                                                filter.applyBlock(x, y, z, mutableBlock, value);
-                                                                            }
-                                                                        }
-                                                                    }
-                                                                }
-                                                            }
-                                                            filter.finishChunk(chunk, value);
-                                                        }
-                                                    } catch (Throwable e) {
-                                                        e.printStackTrace();
-                                                    }
-                                                }
-                                            } catch (Throwable e) {
-                                                e.printStackTrace();
-                                            }
-                                        }
-                                    });
+                                public void run() {
+                                    readFile(filter, original, finalFile, mcaX, mcaZ, pool, writer, inPipeline);
+                                }
+                            });
+                        } else if (original.isDeleted()) {
+                            inPipeline.acquireUninterruptibly();
+                            writer.submit(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        original.close(null);
+                                        file.delete();
+                                    } catch (Throwable ignore) {
+                                        ignore.printStackTrace();
+                                    } finally {
+                                        inPipeline.release();
+                                    }
                                 }
                             });
-                            pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-                            original.close(pool);
-                            pool.shutdown();
-                            if (original != finalFile) finalFile.close(pool);
-                        } else if (mcaFile.isDeleted()) {
-                            try {
-                                original.close(pool);
-                                file.delete();
-                            } catch (Throwable ignore) {
-                                ignore.printStackTrace();
-                            }
                         }
                     }
                 } catch (Throwable ignore) {
@@ -366,6 +351,10 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
                 }
             }
         });
+        // Wait for every file to be written
+        inPipeline.acquireUninterruptibly(maxFiles);
+        reader.shutdown();
+        writer.shutdown();
         pool.shutdown();
         try {
             pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
@@ -375,6 +364,115 @@ public class MCAQueue extends NMSMappedFaweQueue<FaweQueue, FaweChunk, FaweChunk
         return filter;
     }
 
+    /**
+     * Read a file into memory, then queue its chunks to be filtered (on the read thread)<br>
+     * The file is queued to be written once the last chunk is done
+     */
+    private <G> void readFile(final MCAFilter<G> filter, final MCAFile original, final MCAFile finalFile, int mcaX, int mcaZ, final ForkJoinPool pool, final ExecutorService writer, final Semaphore inPipeline) {
+        // One for each chunk, plus one until every chunk has been queued
+        final AtomicInteger remaining = new AtomicInteger(1);
+        try {
+            finalFile.prefetch();
+            final int cbx = mcaX << 5;
+            final int cbz = mcaZ << 5;
+            finalFile.forEachSortedChunk(new RunnableVal4<Integer, Integer, Integer, Integer>() {
+                @Override
+                public void run(final Integer rcx, final Integer rcz, Integer offset, Integer size) {
+                    remaining.incrementAndGet();
+                    pool.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                filterChunk(filter, finalFile, cbx + rcx, cbz + rcz);
+                            } catch (Throwable e) {
+                                e.printStackTrace();
+                            } finally {
+                                if (remaining.decrementAndGet() == 0) {
+                                    writeFile(filter, original, finalFile, writer, inPipeline);
+                                }
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            if (remaining.decrementAndGet() == 0) {
+                writeFile(filter, original, finalFile, writer, inPipeline);
+            }
+        }
+    }
+
+    private void writeFile(final MCAFilter<?> filter, final MCAFile original, final MCAFile finalFile, ExecutorService writer, final Semaphore inPipeline) {
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    filter.finishFile(finalFile);
+                    // The modified chunks were already compressed by the filter stage
+                    original.close(null);
+                    if (original != finalFile) finalFile.close(null);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                } finally {
+                    inPipeline.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Filter a chunk, then compress it if it was modified (on the fork join pool)
+     */
+    private <G> void filterChunk(MCAFilter<G> filter, MCAFile file, int cx, int cz) throws IOException {
+        if (!filter.appliesChunk(cx, cz)) {
+            return;
+        }
+        MCAChunk chunk = file.getChunk(cx, cz);
+        try {
+            final G value = filter.get();
+            chunk = filter.applyChunk(chunk, value);
+            if (chunk != null && filter instanceof MCASectionFilter) {
+                MCASectionFilter<G> sectionFilter = (MCASectionFilter<G>) filter;
+                for (int layer = 0; layer < chunk.ids.length; layer++) {
+                    if (chunk.doesSectionExist(layer)) {
+                        sectionFilter.applySection(chunk, layer, chunk.ids[layer], chunk.data[layer], value);
+                    }
+                }
+                filter.finishChunk(chunk, value);
+                file.deflate(chunk);
+            } else if (chunk != null) {
+                final MutableMCABackedBaseBlock mutableBlock = blockStore.get();
+                mutableBlock.setChunk(chunk);
+                int bx = cx << 4;
+                int bz = cz << 4;
+                for (int layer = 0; layer < chunk.ids.length; layer++) {
+                    if (chunk.doesSectionExist(layer)) {
+                        mutableBlock.setArrays(layer);
+                        int yStart = layer << 4;
+                        int index = 0;
+                        for (int y = yStart; y < yStart + 16; y++) {
+                            mutableBlock.setY(y);
+                            for (int z = bz; z < bz + 16; z++) {
+                                mutableBlock.setZ(z);
+                                for (int x = bx; x < bx + 16; x++, index++) {
+                                    mutableBlock.setX(x);
+                                    mutableBlock.setIndex(index);
+                                    filter.applyBlock(x, y, z, mutableBlock, value);
+                                }
+                            }
+                        }
+                    }
+                }
+                filter.finishChunk(chunk, value);
+                file.deflate(chunk);
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void relight(int x, int y, int z) {
         throw new UnsupportedOperationException("Not supported");
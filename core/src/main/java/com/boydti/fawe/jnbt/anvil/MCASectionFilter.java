@@ -0,0 +1,153 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.FaweCache;
+
+/**
+ * MCAQueue.filterWorld(MCAFilter) for filters which handle a whole chunk section at once<br>
+ *  - applySection is called for each section which exists, rather than applyBlock for each of the 4096 blocks<br>
+ *  - The section arrays are MCAChunk.ids[layer] (one byte per block) and MCAChunk.data[layer] (one nibble per block)<br>
+ *  - The index of a block in a section is (y & 15) << 8 | (z & 15) << 4 | (x & 15)<br>
+ *  - filterRegion still calls applyBlock for sections which are only partly inside the region<br>
+ *  - Call chunk.setModified(amount) after changing the arrays directly (the helpers below already do)
+ */
+public abstract class MCASectionFilter<T> extends MCAFilter<T> {
+
+    /**
+     * Read or modify a chunk section
+     * @param chunk
+     * @param layer the section (y >> 4)
+     * @param ids the block ids (4096)
+     * @param data the block data nibbles (2048)
+     * @param cache
+     */
+    public abstract void applySection(MCAChunk chunk, int layer, byte[] ids, byte[] data, T cache);
+
+    /**
+     * Create a lookup table which doesn't change anything
+     * @return a table for {@link #replace(MCAChunk, int, int[])}
+     */
+    public static int[] createTable() {
+        int[] table = new int[4096];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = -1;
+        }
+        return table;
+    }
+
+    /**
+     * Replace the blocks of a section using a lookup table<br>
+     *  - Tiles are removed from replaced blocks which had one
+     * @param chunk
+     * @param layer
+     * @param table the new combined id (id << 4 | data) for each combined id, or -1 to keep it
+     * @return the number of blocks changed
+     */
+    public static int replace(MCAChunk chunk, int layer, int[] table) {
+        byte[] ids = chunk.ids[layer];
+        byte[] data = chunk.data[layer];
+        boolean tiles = chunk.hasTiles();
+        int changed = 0;
+        // Two blocks share each data byte
+        for (int i = 0, j = 0; j < 2048; i += 2, j++) {
+            int nibbles = data[j];
+            int id1 = ids[i] & 0xFF;
+            int id2 = ids[i + 1] & 0xFF;
+            int combined1 = id1 << 4 | (nibbles & 15);
+            int combined2 = id2 << 4 | ((nibbles >> 4) & 15);
+            int to1 = table[combined1];
+            int to2 = table[combined2];
+            if (to1 < 0 && to2 < 0) {
+                continue;
+            }
+            if (to1 >= 0 && to1 != combined1) {
+                ids[i] = (byte) (to1 >> 4);
+                nibbles = (nibbles & 0xF0) | (to1 & 15);
+                if (tiles && FaweCache.hasNBT(id1)) {
+                    removeTile(chunk, layer, i);
+                }
+                changed++;
+            }
+            if (to2 >= 0 && to2 != combined2) {
+                ids[i + 1] = (byte) (to2 >> 4);
+                nibbles = (nibbles & 0x0F) | ((to2 & 15) << 4);
+                if (tiles && FaweCache.hasNBT(id2)) {
+                    removeTile(chunk, layer, i + 1);
+                }
+                changed++;
+            }
+            data[j] = (byte) nibbles;
+        }
+        if (changed != 0) {
+            chunk.setModified(changed);
+        }
+        return changed;
+    }
+
+    private static void removeTile(MCAChunk chunk, int layer, int index) {
+        chunk.setTile(index & 15, (layer << 4) + (index >> 8), (index >> 4) & 15, null);
+    }
+
+    /**
+     * Count the blocks with an id
+     * @param ids
+     * @param allowedId true for each id to count
+     * @return
+     */
+    public static int count(byte[] ids, boolean[] allowedId) {
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            count += allowedId[ids[i] & 0xFF] ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Count the blocks with a combined id (id << 4 | data)
+     * @param ids
+     * @param data
+     * @param allowed true for each combined id to count
+     * @return
+     */
+    public static int count(byte[] ids, byte[] data, boolean[] allowed) {
+        int count = 0;
+        for (int i = 0, j = 0; j < 2048; i += 2, j++) {
+            int nibbles = data[j];
+            count += allowed[(ids[i] & 0xFF) << 4 | (nibbles & 15)] ? 1 : 0;
+            count += allowed[(ids[i + 1] & 0xFF) << 4 | ((nibbles >> 4) & 15)] ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Add the number of blocks with each id to an array
+     * @param ids
+     * @param counts the count for each id (at least 256)
+     */
+    public static void countIds(byte[] ids, long[] counts) {
+        for (int i = 0; i < ids.length; i++) {
+            counts[ids[i] & 0xFF]++;
+        }
+    }
+
+    /**
+     * Set a bit for each block with an id
+     * @param ids
+     * @param allowedId true for each id to set
+     * @param mask the bits (64 longs for a section), bit i is the block at index i
+     * @return the number of bits set
+     */
+    public static int mask(byte[] ids, boolean[] allowedId, long[] mask) {
+        int count = 0;
+        for (int word = 0, i = 0; word < 64; word++) {
+            long bits = 0;
+            for (int bit = 0; bit < 64; bit++, i++) {
+                if (allowedId[ids[i] & 0xFF]) {
+                    bits |= 1L << bit;
+                }
+            }
+            mask[word] = bits;
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+}
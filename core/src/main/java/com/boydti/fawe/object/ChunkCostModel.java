@@ -0,0 +1,120 @@
+package com.boydti.fawe.object;
+
+import com.boydti.fawe.example.CharFaweChunk;
+import com.boydti.fawe.example.NullRelighter;
+import java.util.concurrent.Callable;
+
+/**
+ * A rolling estimate of how long a queue takes to dispatch a chunk<br>
+ * - Cost is modelled as a weighted sum of the blocks, tiles, entities and relit sections of a chunk<br>
+ * - The weights are fitted online (normalized least mean squares) from the measured call() times
+ */
+public class ChunkCostModel {
+
+    private static final int BASE = 0;
+    private static final int BLOCKS = 1;
+    private static final int TILES = 2;
+    private static final int ENTITIES = 3;
+    private static final int RELIGHT = 4;
+
+    /**
+     * Learning rate for the weight updates
+     */
+    private static final double RATE = 0.2;
+
+    /**
+     * Nanoseconds per unit of each feature (blocks are in units of a full section)
+     */
+    private final double[] weights = new double[] {20000, 150000, 20000, 50000, 100000};
+
+    private long samples;
+
+    private double[] getFeatures(FaweChunk chunk) {
+        double[] features = new double[weights.length];
+        features[BASE] = 1;
+        int bitMask = chunk.getBitMask();
+        if (chunk instanceof CharFaweChunk) {
+            CharFaweChunk fc = (CharFaweChunk) chunk;
+            features[BLOCKS] = fc.getTotalCount() / 4096d;
+            features[TILES] = fc.tiles == null ? 0 : fc.tiles.size();
+            features[ENTITIES] = (fc.entities == null ? 0 : fc.entities.size()) + (fc.entityRemoves == null ? 0 : fc.entityRemoves.size());
+        } else {
+            features[BLOCKS] = Integer.bitCount(bitMask);
+            features[TILES] = chunk.getTiles().size();
+            features[ENTITIES] = chunk.getEntities().size() + chunk.getEntityRemoves().size();
+        }
+        FaweQueue parent = chunk.getParent();
+        if (parent != null && parent.getRelighter() != NullRelighter.INSTANCE) {
+            features[RELIGHT] = Integer.bitCount(bitMask);
+        }
+        return features;
+    }
+
+    /**
+     * Get the predicted time to dispatch a chunk
+     * @param chunk
+     * @return nanoseconds
+     */
+    public long estimate(FaweChunk chunk) {
+        double[] features = getFeatures(chunk);
+        double total = 0;
+        for (int i = 0; i < features.length; i++) {
+            total += weights[i] * features[i];
+        }
+        return (long) total;
+    }
+
+    /**
+     * Update the model with the measured time to dispatch a chunk
+     * @param chunk
+     * @param nanos
+     */
+    public void record(FaweChunk chunk, long nanos) {
+        double[] features = getFeatures(chunk);
+        double norm = 0;
+        for (double feature : features) {
+            norm += feature * feature;
+        }
+        synchronized (weights) {
+            double predicted = 0;
+            for (int i = 0; i < features.length; i++) {
+                predicted += weights[i] * features[i];
+            }
+            double error = nanos - predicted;
+            for (int i = 0; i < features.length; i++) {
+                weights[i] = Math.max(0, weights[i] + RATE * error * features[i] / norm);
+            }
+            samples++;
+        }
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Wrap a chunk so that the time spent in call() is recorded
+     * @param chunk
+     * @return
+     */
+    public Callable<FaweChunk> measure(final FaweChunk chunk) {
+        return new Callable<FaweChunk>() {
+            @Override
+            public FaweChunk call() throws Exception {
+                long start = System.nanoTime();
+                FaweChunk result = chunk.call();
+                record(chunk, System.nanoTime() - start);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Convert a dispatch window to nanoseconds without overflowing
+     * @param millis
+     * @return
+     */
+    public static long toNanos(long millis) {
+        return millis >= Long.MAX_VALUE / 1000000 ? Long.MAX_VALUE : millis * 1000000;
+    }
+}
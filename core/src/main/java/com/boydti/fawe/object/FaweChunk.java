@@ -305,7 +305,8 @@ public abstract class FaweChunk<T> implements Callable<FaweChunk> {
 
     /**
      * Spend time now so that the chunk can be more efficiently dispatched later<br>
-     *     - Modifications after this call will be ignored
+     *     - Modifications after this call will be ignored<br>
+     *     - May be called from a worker thread (must not overlap with call())
      */
     public void optimize() {}
 
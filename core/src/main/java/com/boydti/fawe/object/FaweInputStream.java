@@ -2,6 +2,7 @@ package com.boydti.fawe.object;
 
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NamedTag;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -22,6 +23,21 @@ public class FaweInputStream extends InputStream {
         return parent.read();
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return parent.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return parent.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return parent.available();
+    }
+
     public long readLong() throws IOException {
         return (long)
                 (read() << 64) +
@@ -67,6 +83,25 @@ public class FaweInputStream extends InputStream {
                         read());
     }
 
+    /**
+     * Read an int written by FaweOutputStream.writeVarInt
+     * @return
+     * @throws IOException
+     */
+    public int readVarInt() throws IOException {
+        int i = 0;
+        int offset = 0;
+        int b;
+        while (((b = read()) & 0x80) != 0) {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            i |= (b & 0x7F) << offset;
+            offset += 7;
+        }
+        return i | (b << offset);
+    }
+
     private NBTInputStream nbtIn;
 
     public NamedTag readNBT() throws IOException {
@@ -57,6 +57,19 @@ public class FaweOutputStream extends OutputStream {
         write((byte) (m));
     }
 
+    /**
+     * Write an unsigned int using 1-5 bytes (7 bits per byte, smaller values use fewer bytes)
+     * @param i
+     * @throws IOException
+     */
+    public void writeVarInt(int i) throws IOException {
+        while ((i & ~0x7F) != 0) {
+            write((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        write(i);
+    }
+
     private NBTOutputStream nbtOut;
 
     public void writeNBT(String name, Tag tag) throws IOException {
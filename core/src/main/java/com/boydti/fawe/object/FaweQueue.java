@@ -16,8 +16,11 @@ import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MutableBlockVector;
 import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockMaterial;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.biome.BaseBiome;
@@ -40,6 +43,7 @@ public abstract class FaweQueue implements HasFaweQueue {
     private RunnableVal2<ProgressType, Integer> progressTask;
     private SetQueue.QueueStage stage;
     private Settings settings = Settings.IMP;
+    private final ChunkCostModel costModel = new ChunkCostModel();
 
     public FaweQueue(String world) {
         this.world = world;
@@ -52,6 +56,14 @@ public abstract class FaweQueue implements HasFaweQueue {
         }
     }
 
+    /**
+     * Get the measured cost of dispatching chunks for this queue
+     * @return
+     */
+    public ChunkCostModel getCostModel() {
+        return costModel;
+    }
+
     public Relighter getRelighter() {
         return NullRelighter.INSTANCE;
     }
@@ -194,6 +206,62 @@ public abstract class FaweQueue implements HasFaweQueue {
         return cuboid.getArea();
     }
 
+    /**
+     * Set a cuboid to a pattern without going through the extent chain for each block<br>
+     *     - Blocks are visited a section at a time, in the order they are stored<br>
+     *     - The caller must have checked the extents can be bypassed (see EditSession#canBypassAll)
+     * @param cuboid
+     * @param pattern
+     * @param tileExtent the extent to set blocks with a tile entity through, or null to set them directly
+     * @return the number of blocks set
+     */
+    public int setBlocks(CuboidRegion cuboid, final Pattern pattern, @Nullable final Extent tileExtent) {
+        RegionWrapper current = new RegionWrapper(cuboid.getMinimumPoint(), cuboid.getMaximumPoint());
+        final int minY = cuboid.getMinimumY();
+        final int maxY = cuboid.getMaximumY();
+        MainUtil.chunkTaskSync(current, new RunnableVal<int[]>() {
+            @Override
+            public void run(int[] value) {
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = value[3]; z <= value[5]; z++) {
+                        for (int x = value[2]; x <= value[4]; x++) {
+                            BaseBlock block = pattern.apply(x, y, z);
+                            if (!setTileBlock(x, y, z, block, tileExtent)) {
+                                setBlock(x, y, z, block.getId(), block.getData());
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        return cuboid.getArea();
+    }
+
+    /**
+     * Set a block from a pattern if it has a tile entity
+     * @param x
+     * @param y
+     * @param z
+     * @param block
+     * @param tileExtent
+     * @return false if the block has no tile entity and still needs to be set
+     */
+    protected boolean setTileBlock(int x, int y, int z, BaseBlock block, @Nullable Extent tileExtent) {
+        if (!block.hasNbtData() && !FaweCache.hasNBT(block.getId())) {
+            return false;
+        }
+        if (tileExtent == null) {
+            setBlock(x, y, z, block.getId(), block.getData(), block.getNbtData());
+        } else {
+            try {
+                tileExtent.setBlock(x, y, z, block);
+            } catch (WorldEditException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return true;
+    }
+
     public abstract boolean setBlock(final int x, final int y, final int z, final int id, final int data);
 
     public boolean setBlock(int x, int y, int z, int id) {
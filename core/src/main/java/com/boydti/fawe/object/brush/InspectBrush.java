@@ -4,11 +4,10 @@ import com.boydti.fawe.Fawe;
 import com.boydti.fawe.FaweCache;
 import com.boydti.fawe.config.BBC;
 import com.boydti.fawe.config.Settings;
-import com.boydti.fawe.database.DBHandler;
-import com.boydti.fawe.database.RollbackDatabase;
+import com.boydti.fawe.database.RollbackQuery;
 import com.boydti.fawe.object.FawePlayer;
+import com.boydti.fawe.object.RegionWrapper;
 import com.boydti.fawe.object.RunnableVal;
-import com.boydti.fawe.object.change.MutableFullBlockChange;
 import com.boydti.fawe.object.changeset.DiskStorageHistory;
 import com.boydti.fawe.util.EditSessionBuilder;
 import com.boydti.fawe.util.MainUtil;
@@ -22,8 +21,6 @@ import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.extension.platform.Actor;
 import com.sk89q.worldedit.extension.platform.Platform;
 import com.sk89q.worldedit.world.World;
-import java.io.IOException;
-import java.util.Iterator;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -73,39 +70,26 @@ public class InspectBrush extends BrushTool implements DoubleActionTraceTool {
         World world = player.getWorld();
         final FawePlayer fp = FawePlayer.wrap(player);
         EditSessionBuilder editSession = new EditSessionBuilder(world).player(fp);
-        RollbackDatabase db = DBHandler.IMP.getDatabase(world);
         final AtomicInteger count = new AtomicInteger();
-        db.getPotentialEdits(null, 0, target, target, new RunnableVal<DiskStorageHistory>() {
+        new RollbackQuery(world, new RegionWrapper(x, x, y, y, z, z)).limitPerEdit(1).run(new RunnableVal<RollbackQuery.Result>() {
             @Override
-            public void run(DiskStorageHistory value) {
-                try {
-                    Iterator<MutableFullBlockChange> iter = value.getFullBlockIterator(null, 0, false);
-                    while (iter.hasNext()) {
-                        MutableFullBlockChange change = iter.next();
-                        if (change.x != x || change.y != y || change.z != z) {
-                            continue;
-                        }
-                        int from = change.from;
-                        int to = change.to;
-                        UUID uuid = value.getUUID();
-                        String name = Fawe.imp().getName(uuid);
-                        int index = value.getIndex();
-                        long age = System.currentTimeMillis() - value.getBDFile().lastModified();
-                        String ageFormatted = MainUtil.secToTime(age / 1000);
-                        BBC.TOOL_INSPECT_INFO.send(fp, name, FaweCache.getMaterialName(from), FaweCache.getMaterialName(to), ageFormatted);
-                        count.incrementAndGet();
-                        return;
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            public void run(RollbackQuery.Result result) {
+                DiskStorageHistory value = result.getHistory();
+                int from = result.getFrom(0);
+                int to = result.getTo(0);
+                UUID uuid = value.getUUID();
+                String name = Fawe.imp().getName(uuid);
+                long age = System.currentTimeMillis() - value.getBDFile().lastModified();
+                String ageFormatted = MainUtil.secToTime(age / 1000);
+                BBC.TOOL_INSPECT_INFO.send(fp, name, FaweCache.getMaterialName(from), FaweCache.getMaterialName(to), ageFormatted);
+                count.incrementAndGet();
             }
         }, new Runnable() {
             @Override
             public void run() {
                 BBC.TOOL_INSPECT_INFO_FOOTER.send(fp, count);
             }
-        }, false);
+        });
         return true;
     }
 
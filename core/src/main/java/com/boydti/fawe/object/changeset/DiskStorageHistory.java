@@ -8,19 +8,31 @@ import com.boydti.fawe.object.FaweInputStream;
 import com.boydti.fawe.object.FawePlayer;
 import com.boydti.fawe.object.IntegerPair;
 import com.boydti.fawe.object.RegionWrapper;
+import com.boydti.fawe.object.change.MutableBlockChange;
+import com.boydti.fawe.object.change.MutableFullBlockChange;
+import com.boydti.fawe.object.io.ChunkIndexedBlockReader;
+import com.boydti.fawe.object.io.ChunkIndexedBlockWriter;
+import com.boydti.fawe.object.io.MappedFileInputStream;
 import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.MathMan;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NBTOutputStream;
 import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.extent.inventory.BlockBag;
 import com.sk89q.worldedit.world.World;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.UUID;
 
 /**
@@ -48,8 +60,11 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
      * 
      * [contents]...
      * { short rel x, short rel z, unsigned byte y, short combinedFrom, short combinedTo }
+     *
+     * Or if Settings.HISTORY.CHUNK_INDEX is enabled, the format of ChunkIndexedBlockReader
      */
     private OutputStream osBD;
+    private ChunkIndexedBlockWriter writerBD;
     // biome
     private OutputStream osBIO;
     // NBT From
@@ -158,9 +173,10 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
     public boolean flush() {
         super.flush();
         synchronized (this) {
-            boolean flushed = osBD != null || osBIO != null || osNBTF != null || osNBTT != null && osENTCF != null || osENTCT != null;
+            boolean flushed = osBD != null || writerBD != null || osBIO != null || osNBTF != null || osNBTT != null && osENTCF != null || osENTCT != null;
             try {
                 if (osBD != null) osBD.flush();
+                if (writerBD != null) writerBD.flush();
                 if (osBIO != null) osBIO.flush();
                 if (osNBTF != null) osNBTF.flush();
                 if (osNBTT != null) osNBTT.flush();
@@ -177,12 +193,16 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
     public boolean close() {
         super.close();
         synchronized (this) {
-            boolean flushed = osBD != null || osBIO != null || osNBTF != null || osNBTT != null && osENTCF != null || osENTCT != null;
+            boolean flushed = osBD != null || writerBD != null || osBIO != null || osNBTF != null || osNBTT != null && osENTCF != null || osENTCT != null;
             try {
                 if (osBD != null) {
                     osBD.close();
                     osBD = null;
                 }
+                if (writerBD != null) {
+                    writerBD.close();
+                    writerBD = null;
+                }
                 if (osBIO != null) {
                     osBIO.close();
                     osBIO = null;
@@ -258,6 +278,31 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         }
     }
 
+    @Override
+    protected void writeChange(int x, int y, int z, int combinedFrom, int combinedTo) throws IOException {
+        if (Settings.IMP.HISTORY.CHUNK_INDEX) {
+            getBlockWriter(x, y, z).add(x, y, z, combinedFrom, combinedTo);
+        } else {
+            super.writeChange(x, y, z, combinedFrom, combinedTo);
+        }
+    }
+
+    private ChunkIndexedBlockWriter getBlockWriter(int x, int y, int z) throws IOException {
+        if (writerBD != null) {
+            return writerBD;
+        }
+        synchronized (this) {
+            if (writerBD == null) {
+                bdFile.getParentFile().mkdirs();
+                bdFile.createNewFile();
+                ChunkIndexedBlockWriter writer = new ChunkIndexedBlockWriter(bdFile, getCompressionLevel(), isStoreRedo(), Settings.IMP.HISTORY.ASYNC_WRITER);
+                writeHeader(writer.getHeaderStream(), x, y, z);
+                writerBD = writer;
+            }
+            return writerBD;
+        }
+    }
+
     @Override
     public OutputStream getBiomeOS() throws IOException {
         if (osBIO != null) {
@@ -315,12 +360,16 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         return osNBTF;
     }
 
+    /**
+     * @return null if the block history is chunk indexed (use the block iterators or getBlockReader instead)
+     * @throws IOException
+     */
     @Override
     public InputStream getBlockIS() throws IOException {
-        if (!bdFile.exists()) {
+        if (!bdFile.exists() || ChunkIndexedBlockReader.isIndexed(bdFile)) {
             return null;
         }
-        InputStream is = MainUtil.getCompressedIS(new FileInputStream(bdFile));
+        InputStream is = MainUtil.getCompressedIS(new MappedFileInputStream(bdFile));
         readHeader(is);
         return is;
     }
@@ -330,7 +379,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!bioFile.exists()) {
             return null;
         }
-        InputStream is = MainUtil.getCompressedIS(new FileInputStream(bioFile));
+        InputStream is = MainUtil.getCompressedIS(new MappedFileInputStream(bioFile));
         return is;
     }
 
@@ -339,7 +388,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!enttFile.exists()) {
             return null;
         }
-        return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(enttFile)));
+        return new NBTInputStream(MainUtil.getCompressedIS(new MappedFileInputStream(enttFile)));
     }
 
     @Override
@@ -347,7 +396,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!entfFile.exists()) {
             return null;
         }
-        return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(entfFile)));
+        return new NBTInputStream(MainUtil.getCompressedIS(new MappedFileInputStream(entfFile)));
     }
 
     @Override
@@ -355,7 +404,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!nbttFile.exists()) {
             return null;
         }
-        return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(nbttFile)));
+        return new NBTInputStream(MainUtil.getCompressedIS(new MappedFileInputStream(nbttFile)));
     }
 
     @Override
@@ -363,10 +412,199 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         if (!nbtfFile.exists()) {
             return null;
         }
-        return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(nbtfFile)));
+        return new NBTInputStream(MainUtil.getCompressedIS(new MappedFileInputStream(nbtfFile)));
+    }
+
+    /**
+     * Open the block history for random access
+     * @return the reader, or null if the history was not written with Settings.HISTORY.CHUNK_INDEX
+     * @throws IOException
+     */
+    public ChunkIndexedBlockReader getBlockReader() throws IOException {
+        if (!ChunkIndexedBlockReader.isIndexed(bdFile)) {
+            return null;
+        }
+        ChunkIndexedBlockReader reader = new ChunkIndexedBlockReader(bdFile);
+        setOrigin(reader.getOriginX(), reader.getOriginZ());
+        return reader;
+    }
+
+    @Override
+    public Iterator<MutableBlockChange> getBlockIterator(final boolean dir) throws IOException {
+        ChunkIndexedBlockReader reader = getBlockReader();
+        if (reader == null) {
+            return super.getBlockIterator(dir);
+        }
+        final MutableBlockChange change = new MutableBlockChange(0, 0, 0, (short) 0, (byte) 0);
+        return new IndexedIterator<MutableBlockChange>(reader, null) {
+            @Override
+            protected MutableBlockChange set(int x, int y, int z, int from, int to) {
+                int combined = dir ? to : from;
+                change.x = x;
+                change.y = y;
+                change.z = z;
+                change.id = (short) (combined >> 4);
+                change.data = (byte) (combined & 0xF);
+                return change;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<MutableFullBlockChange> getFullBlockIterator(BlockBag blockBag, int inventory, boolean dir) throws IOException {
+        return getFullBlockIterator(blockBag, inventory, dir, null);
+    }
+
+    /**
+     * Iterate over the block changes inside a region<br>
+     * - Only the chunks of the region are decompressed if the history is chunk indexed
+     * @param blockBag
+     * @param inventory
+     * @param dir
+     * @param region the region, or null for every change
+     * @return
+     * @throws IOException
+     */
+    public Iterator<MutableFullBlockChange> getFullBlockIterator(BlockBag blockBag, int inventory, boolean dir, final RegionWrapper region) throws IOException {
+        ChunkIndexedBlockReader reader = getBlockReader();
+        if (reader == null) {
+            if (!bdFile.exists()) {
+                return new ArrayList<MutableFullBlockChange>().iterator();
+            }
+            final Iterator<MutableFullBlockChange> iter = super.getFullBlockIterator(blockBag, inventory, dir);
+            if (region == null) {
+                return iter;
+            }
+            // The whole stream still has to be read
+            return new Iterator<MutableFullBlockChange>() {
+                private MutableFullBlockChange next;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && iter.hasNext()) {
+                        MutableFullBlockChange change = iter.next();
+                        if (change != null && region.isIn(change.x, change.y, change.z)) {
+                            next = change;
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public MutableFullBlockChange next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    MutableFullBlockChange tmp = next;
+                    next = null;
+                    return tmp;
+                }
+
+                @Override
+                public void remove() {
+                    throw new IllegalArgumentException("CANNOT REMOVE");
+                }
+            };
+        }
+        final MutableFullBlockChange change = new MutableFullBlockChange(blockBag, inventory, dir);
+        return new IndexedIterator<MutableFullBlockChange>(reader, region) {
+            @Override
+            protected MutableFullBlockChange set(int x, int y, int z, int from, int to) {
+                change.x = x;
+                change.y = y;
+                change.z = z;
+                change.from = from;
+                change.to = to;
+                return change;
+            }
+        };
+    }
+
+    /**
+     * Iterates over the records of a chunk indexed file, a block at a time (the returned change is reused)
+     */
+    static abstract class IndexedIterator<T> implements Iterator<T> {
+        private final ChunkIndexedBlockReader reader;
+        private final RegionWrapper region;
+        private final List<ChunkIndexedBlockReader.Entry> entries;
+        private final boolean redo;
+        private final int recordSize;
+        private int index;
+        private ChunkIndexedBlockReader.Entry entry;
+        private byte[] records;
+        private int position;
+        private T next;
+
+        IndexedIterator(ChunkIndexedBlockReader reader, RegionWrapper region) {
+            this.reader = reader;
+            this.region = region;
+            this.entries = region == null ? reader.getEntries() : reader.getEntries(region);
+            this.redo = reader.hasRedo();
+            this.recordSize = reader.getRecordSize();
+        }
+
+        protected abstract T set(int x, int y, int z, int from, int to);
+
+        private T read() {
+            try {
+                while (true) {
+                    if (records == null || position + recordSize > records.length) {
+                        if (index >= entries.size()) {
+                            reader.close();
+                            return null;
+                        }
+                        entry = entries.get(index++);
+                        records = reader.readRecords(entry);
+                        position = 0;
+                        continue;
+                    }
+                    int i = position;
+                    position += recordSize;
+                    int pair = records[i] & 0xFF;
+                    int x = (entry.chunkX << 4) + (pair >> 4);
+                    int z = (entry.chunkZ << 4) + (pair & 15);
+                    int y = records[i + 1] & 0xFF;
+                    if (region != null && !region.isIn(x, y, z)) {
+                        continue;
+                    }
+                    int from = (records[i + 2] & 0xFF) + ((records[i + 3] & 0xFF) << 8);
+                    int to = redo ? (records[i + 4] & 0xFF) + ((records[i + 5] & 0xFF) << 8) : 0;
+                    return set(x, y, z, from, to);
+                }
+            } catch (IOException e) {
+                MainUtil.handleError(e);
+                try {
+                    reader.close();
+                } catch (IOException ignore) {}
+                return null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null || (next = read()) != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T tmp = next;
+            next = null;
+            return tmp;
+        }
+
+        @Override
+        public void remove() {
+            throw new IllegalArgumentException("CANNOT REMOVE");
+        }
     }
 
     public DiskStorageSummary summarize(RegionWrapper requiredRegion, boolean shallow) {
+        if (ChunkIndexedBlockReader.isIndexed(bdFile)) {
+            return summarizeIndexed(requiredRegion, shallow);
+        }
         if (bdFile.exists()) {
             int ox = getOriginX();
             int oz = getOriginZ();
@@ -388,13 +626,17 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
                     return summary;
                 }
                 byte[] buffer = new byte[9];
-                int i = 0;
+                // Only the changes in the first buffer are counted, so a large edit isn't decompressed just to be listed
                 int amount = (Settings.IMP.HISTORY.BUFFER_SIZE - HEADER_SIZE) / 9;
-                while (!shallow && ++i < amount) {
-                    if (gis.read(buffer) == -1) {
-                        fis.close();
-                        gis.close();
-                        return summary;
+                for (int i = 0; !shallow && i < amount; i++) {
+                    for (int read = 0; read < buffer.length; ) {
+                        int len = gis.read(buffer, read, buffer.length - read);
+                        if (len == -1) {
+                            fis.close();
+                            gis.close();
+                            return summary;
+                        }
+                        read += len;
                     }
                     int x = ((byte) buffer[0] & 0xFF) + ((byte) buffer[1] << 8) + ox;
                     int z = ((byte) buffer[2] & 0xFF) + ((byte) buffer[3] << 8) + oz;
@@ -410,10 +652,57 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         return null;
     }
 
+    /**
+     * Summarize a chunk indexed file<br>
+     * - The bounds and chunk counts are exact, and come from the index without decompressing anything<br>
+     * - The block counts (of the ids changed to) are read from the end of the file if it has them, otherwise every change is counted (unless shallow, or redo isn't stored)
+     */
+    private DiskStorageSummary summarizeIndexed(RegionWrapper requiredRegion, boolean shallow) {
+        try (ChunkIndexedBlockReader reader = getBlockReader()) {
+            DiskStorageSummary summary = new DiskStorageSummary(reader.getOriginX(), reader.getOriginZ());
+            boolean intersects = false;
+            for (ChunkIndexedBlockReader.Entry entry : reader.getEntries()) {
+                summary.add(entry.minX, entry.minZ);
+                summary.add(entry.maxX, entry.maxZ);
+                summary.chunks.addTo(MathMan.pairInt(entry.chunkX, entry.chunkZ), entry.count);
+                intersects |= entry.maxX >= requiredRegion.minX && entry.minX <= requiredRegion.maxX && entry.maxZ >= requiredRegion.minZ && entry.minZ <= requiredRegion.maxZ;
+            }
+            int[] histogram = reader.getHistogram();
+            if (histogram != null) {
+                System.arraycopy(histogram, 0, summary.blocks, 0, Math.min(histogram.length, summary.blocks.length));
+                return summary;
+            }
+            if (shallow || !intersects || !reader.hasRedo()) {
+                return summary;
+            }
+            final int[] blocks = summary.blocks;
+            ChunkIndexedBlockReader.BlockVisitor counter = new ChunkIndexedBlockReader.BlockVisitor() {
+                @Override
+                public void run(int x, int y, int z, int combinedFrom, int combinedTo) {
+                    blocks[(combinedTo >> 4) & 4095]++;
+                }
+            };
+            for (ChunkIndexedBlockReader.Entry entry : reader.getEntries()) {
+                reader.forEach(entry, counter);
+            }
+            return summary;
+        } catch (IOException e) {
+            MainUtil.handleError(e);
+        }
+        return null;
+    }
+
     public IntegerPair readHeader() {
         int ox = getOriginX();
         int oz = getOriginZ();
-        if (ox == 0 && oz == 0 && bdFile.exists()) {
+        if (ox == 0 && oz == 0 && ChunkIndexedBlockReader.isIndexed(bdFile)) {
+            try (ChunkIndexedBlockReader reader = getBlockReader()) {
+                ox = reader.getOriginX();
+                oz = reader.getOriginZ();
+            } catch (IOException e) {
+                MainUtil.handleError(e);
+            }
+        } else if (ox == 0 && oz == 0 && bdFile.exists()) {
             try (FileInputStream fis = new FileInputStream(bdFile)) {
                 final InputStream gis = MainUtil.getCompressedIS(fis);
                 // skip mode
@@ -436,6 +725,10 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         private final int z;
         private final int x;
         public int[] blocks;
+        /**
+         * The number of changes in each chunk (see MathMan.pairInt)
+         */
+        public final Long2IntOpenHashMap chunks = new Long2IntOpenHashMap();
 
         public int minX;
         public int minZ;
@@ -444,7 +737,7 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         public int maxZ;
 
         public DiskStorageSummary(int x, int z) {
-            blocks = new int[256];
+            blocks = new int[4096];
             this.x = x;
             this.z = z;
             minX = x;
@@ -454,7 +747,17 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
         }
 
         public void add(int x, int z, int id) {
-            blocks[id]++;
+            blocks[id & 4095]++;
+            chunks.addTo(MathMan.pairInt(x >> 4, z >> 4), 1);
+            add(x, z);
+        }
+
+        /**
+         * Expand the bounds to include a position
+         * @param x
+         * @param z
+         */
+        public void add(int x, int z) {
             if (x < minX) {
                 minX = x;
             } else if (x > maxX) {
@@ -42,6 +42,8 @@ public abstract class FaweChangeSet implements ChangeSet {
     public static FaweChangeSet getDefaultChangeSet(World world, UUID uuid) {
         if (Settings.IMP.HISTORY.USE_DISK) {
             return new DiskStorageHistory(world, uuid);
+        } else if (Settings.IMP.HISTORY.OFF_HEAP_MB > 0) {
+            return new OffHeapHistory(world);
         } else {
             return new MemoryOptimizedHistory(world);
         }
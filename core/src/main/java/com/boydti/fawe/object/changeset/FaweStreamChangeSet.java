@@ -240,6 +240,17 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
         setupStreamDelegates(mode);
     }
 
+    /**
+     * @return true if the block each position was changed to is stored (needed for redo)
+     */
+    public boolean isStoreRedo() {
+        return mode == 3 || mode == 4;
+    }
+
+    public int getCompressionLevel() {
+        return compression;
+    }
+
     public FaweOutputStream getCompressedOS(OutputStream os) throws IOException {
         return MainUtil.getCompressedOS(os, compression);
     }
@@ -307,16 +318,29 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
     public void add(int x, int y, int z, int combinedFrom, int combinedTo) {
         blockSize++;
         try {
-            OutputStream stream = getBlockOS(x, y, z);
-            //x
-            posDel.write(stream, x - originX, y, z - originZ);
-            idDel.writeChange(stream, combinedFrom, combinedTo);
+            writeChange(x, y, z, combinedFrom, combinedTo);
         }
         catch (Throwable e) {
             MainUtil.handleError(e);
         }
     }
 
+    /**
+     * Write a block change to the block stream
+     * @param x
+     * @param y
+     * @param z
+     * @param combinedFrom
+     * @param combinedTo
+     * @throws IOException
+     */
+    protected void writeChange(int x, int y, int z, int combinedFrom, int combinedTo) throws IOException {
+        OutputStream stream = getBlockOS(x, y, z);
+        //x
+        posDel.write(stream, x - originX, y, z - originZ);
+        idDel.writeChange(stream, combinedFrom, combinedTo);
+    }
+
     @Override
     public void addBiomeChange(int x, int z, BaseBiome from, BaseBiome to) {
         blockSize++;
@@ -655,6 +679,16 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
     }
 
     public Iterator<Change> getIterator(final boolean dir) {
+        return getIterator(dir, true);
+    }
+
+    /**
+     * Get the changes in this set
+     * @param dir true for redo, false for undo
+     * @param blocks false to skip block changes (e.g. if they have already been applied from the block stream)
+     * @return
+     */
+    public Iterator<Change> getIterator(final boolean dir, boolean blocks) {
         close();
         try {
             final Iterator<MutableTileChange> tileCreate = getTileIterator(getTileCreateIS(), true, dir);
@@ -663,7 +697,7 @@ public abstract class FaweStreamChangeSet extends FaweChangeSet {
             final Iterator<MutableEntityChange> entityCreate = getEntityIterator(getEntityCreateIS(), true, dir);
             final Iterator<MutableEntityChange> entityRemove = getEntityIterator(getEntityRemoveIS(), false, dir);
 
-            final Iterator<MutableBlockChange> blockChange = getBlockIterator(dir);
+            final Iterator<MutableBlockChange> blockChange = blocks ? getBlockIterator(dir) : new ArrayList<MutableBlockChange>().iterator();
 
             final Iterator<MutableBiomeChange> biomeChange = getBiomeIterator(dir);
 
@@ -0,0 +1,266 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweOutputStream;
+import com.boydti.fawe.object.RunnableVal;
+import com.boydti.fawe.object.io.ChunkIndexedBlockReader;
+import com.boydti.fawe.object.io.ChunkIndexedBlockWriter;
+import com.boydti.fawe.util.MainUtil;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Recompresses history on disk which is old enough that it is unlikely to be undone<br>
+ * - Files are rewritten with Settings.HISTORY.COMPACT_COMPRESSION_LEVEL (7+ uses Zstd)<br>
+ * - The new file replaces the old one under the same name, and keeps its last modified time, so the RollbackDatabase entries and DELETE_AFTER_DAYS are unaffected<br>
+ * - Chunk indexed history is recompressed one block at a time, keeping the index<br>
+ * - Reads and writes are throttled to COMPACT_MB_PER_SECOND
+ */
+public class HistoryCompactor implements Runnable {
+
+    private static final String[] EXTENSIONS = {".bd", ".bio", ".nbtf", ".nbtt", ".entf", ".entt"};
+
+    private final File directory;
+    private final AtomicBoolean running = new AtomicBoolean();
+    // Files which are already compacted, didn't get smaller, or couldn't be read -> their last modified time when checked
+    private final Map<File, Long> skip = new HashMap<>();
+
+    private long throttleStart;
+    private long throttleBytes;
+
+    public HistoryCompactor(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final int level = Math.max(1, Math.min(9, Settings.IMP.HISTORY.COMPACT_COMPRESSION_LEVEL));
+            final long minAge = TimeUnit.HOURS.toMillis(Settings.IMP.HISTORY.COMPACT_AFTER_HOURS);
+            final long now = System.currentTimeMillis();
+            // Forget files which were deleted (e.g. by DELETE_AFTER_DAYS or /clearhistory)
+            Iterator<File> iterator = skip.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (!iterator.next().exists()) {
+                    iterator.remove();
+                }
+            }
+            final List<File> files = new ArrayList<>();
+            MainUtil.iterateFiles(directory, new RunnableVal<File>() {
+                @Override
+                public void run(File file) {
+                    String name = file.getName();
+                    if (name.endsWith(".tmp")) {
+                        // Left behind by a compaction which was interrupted
+                        if (now - file.lastModified() > TimeUnit.HOURS.toMillis(1)) {
+                            file.delete();
+                        }
+                        return;
+                    }
+                    long modified = file.lastModified();
+                    if (now - modified < minAge) {
+                        return;
+                    }
+                    Long checked = skip.get(file);
+                    if (checked != null && checked == modified) {
+                        return;
+                    }
+                    for (String extension : EXTENSIONS) {
+                        if (name.endsWith(extension)) {
+                            files.add(file);
+                            return;
+                        }
+                    }
+                }
+            });
+            if (files.isEmpty()) {
+                return;
+            }
+            throttleStart = System.currentTimeMillis();
+            throttleBytes = 0;
+            long before = 0;
+            long after = 0;
+            int compacted = 0;
+            for (File file : files) {
+                long size = file.length();
+                if (compact(file, level)) {
+                    before += size;
+                    after += file.length();
+                    compacted++;
+                }
+            }
+            if (compacted != 0) {
+                Fawe.debug("Compacted " + compacted + " history files (" + (before >> 10) + "KB -> " + (after >> 10) + "KB)");
+            }
+        } catch (Throwable e) {
+            MainUtil.handleError(e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Recompress a history file, if it isn't already at the level
+     * @param file
+     * @param level
+     * @return true if the file was replaced
+     */
+    public boolean compact(File file, int level) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            boolean written;
+            if (ChunkIndexedBlockReader.isIndexed(file)) {
+                written = compactIndexed(file, tmp, level);
+            } else {
+                written = compactStream(file, tmp, level);
+            }
+            if (!written) {
+                // Already at the level, so there is no need to open it again
+                skip.put(file, file.lastModified());
+                return false;
+            }
+            if (tmp.length() >= file.length()) {
+                tmp.delete();
+                skip.put(file, file.lastModified());
+                return false;
+            }
+            long modified = file.lastModified();
+            // Don't bring back history which was deleted while it was being compacted
+            if (!file.exists()) {
+                tmp.delete();
+                return false;
+            }
+            tmp.setLastModified(modified);
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            skip.put(file, modified);
+            return true;
+        } catch (IOException e) {
+            // e.g. an incomplete stream, or the file is in use (Windows)
+            Fawe.debug("Could not compact " + file + ": " + e.getMessage());
+            tmp.delete();
+            skip.put(file, file.lastModified());
+            return false;
+        }
+    }
+
+    /**
+     * Get the level of a compressed stream (see MainUtil.getCompressedOS)
+     */
+    private static int getLevel(int header) {
+        return Math.abs((byte) header);
+    }
+
+    private boolean compactStream(File file, File tmp, int level) throws IOException {
+        try (InputStream raw = new FileInputStream(file)) {
+            int header = raw.read();
+            if (header == -1 || getLevel(header) >= level) {
+                return false;
+            }
+        }
+        byte[] buffer = new byte[8192];
+        try (FaweInputStream in = MainUtil.getCompressedIS(new FileInputStream(file)); FaweOutputStream out = MainUtil.getCompressedOS(new FileOutputStream(tmp), level)) {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+                throttle(len);
+            }
+        }
+        return true;
+    }
+
+    private boolean compactIndexed(File file, File tmp, int level) throws IOException {
+        byte[] header = new byte[ChunkIndexedBlockReader.HEADER_SIZE];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(header);
+        }
+        try (ChunkIndexedBlockReader reader = new ChunkIndexedBlockReader(file)) {
+            List<ChunkIndexedBlockReader.Entry> entries = reader.getEntries();
+            if (entries.isEmpty() || getLevel(reader.readCompressed(entries.get(0))[0]) >= level) {
+                return false;
+            }
+            List<ChunkIndexedBlockReader.Entry> index = new ArrayList<>(entries.size());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 8192))) {
+                out.write(header);
+                long position = header.length;
+                for (ChunkIndexedBlockReader.Entry entry : entries) {
+                    byte[] compressed = reader.readCompressed(entry);
+                    // The payload is kept as is (the version in the header still applies)
+                    byte[] payload = decompress(compressed);
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream(compressed.length);
+                    try (FaweOutputStream os = MainUtil.getCompressedOS(baos, level, Math.max(1024, payload.length))) {
+                        os.write(payload);
+                    }
+                    ChunkIndexedBlockReader.Entry moved = entry.moveTo(position + ChunkIndexedBlockReader.FRAME_SIZE, baos.size());
+                    moved.write(out);
+                    baos.writeTo(out);
+                    position += ChunkIndexedBlockReader.FRAME_SIZE + baos.size();
+                    index.add(moved);
+                    throttle(payload.length);
+                }
+                ChunkIndexedBlockWriter.writeIndex(out, index, reader.getHistogram(), position);
+            }
+        }
+        return true;
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length << 2);
+        try (FaweInputStream in = MainUtil.getCompressedIS(new ByteArrayInputStream(compressed), Math.max(1024, compressed.length))) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Sleep if more than COMPACT_MB_PER_SECOND has been processed
+     * @param bytes
+     */
+    private void throttle(int bytes) throws IOException {
+        int limit = Settings.IMP.HISTORY.COMPACT_MB_PER_SECOND;
+        if (limit <= 0) {
+            return;
+        }
+        throttleBytes += bytes;
+        long expected = throttleBytes * 1000 / ((long) limit << 20);
+        long elapsed = System.currentTimeMillis() - throttleStart;
+        if (expected > elapsed) {
+            try {
+                Thread.sleep(expected - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.change.MutableBlockChange;
+import com.boydti.fawe.object.change.MutableFullBlockChange;
+import com.boydti.fawe.object.io.ChunkIndexedBlockReader;
+import com.boydti.fawe.object.io.ChunkIndexedBlockWriter;
+import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.MathMan;
+import com.sk89q.worldedit.extent.inventory.BlockBag;
+import com.sk89q.worldedit.world.World;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChangeSet which stores block changes outside of the java heap
+ *  - No disk usage (unless it grows past Settings.HISTORY.OFF_HEAP_MB, or all edits together grow past OFF_HEAP_TOTAL_MB)
+ *  - Low CPU usage
+ *  - Moderate memory usage (but not on the heap, so large edits don't cause full garbage collections)
+ *
+ * Block changes are grouped by chunk, in pages sliced from direct buffers:
+ * { byte local x << 4 | local z, unsigned byte y, short combinedFrom, [short combinedTo] }...
+ * Past the limit, every block change is moved to a temporary chunk indexed file (see {@link ChunkIndexedBlockWriter})<br>
+ * Biomes, tiles and entities are stored the same as {@link MemoryOptimizedHistory}
+ */
+public class OffHeapHistory extends MemoryOptimizedHistory {
+
+    private static final int PAGE_SIZE = 1 << 12;
+    private static final int SLAB_SIZE = 1 << 20;
+
+    // Bytes allocated by every instance, checked against Settings.HISTORY.OFF_HEAP_TOTAL_MB
+    private static final AtomicLong TOTAL_ALLOCATED = new AtomicLong();
+
+    // History which was never deleted (e.g. not remembered) gives back its budget once it is garbage collected
+    private static final ReferenceQueue<OffHeapHistory> COLLECTED = new ReferenceQueue<>();
+    private static final Set<Budget> BUDGETS = Collections.newSetFromMap(new ConcurrentHashMap<Budget, Boolean>());
+
+    /**
+     * The bytes allocated by one instance<br>
+     *     - Released explicitly when the pages are dropped, otherwise from {@link #COLLECTED}
+     */
+    private static final class Budget extends PhantomReference<OffHeapHistory> {
+        private final AtomicLong allocated = new AtomicLong();
+
+        private Budget(OffHeapHistory history) {
+            super(history, COLLECTED);
+            BUDGETS.add(this);
+        }
+
+        private void add(long bytes) {
+            allocated.addAndGet(bytes);
+            TOTAL_ALLOCATED.addAndGet(bytes);
+        }
+
+        private void release() {
+            TOTAL_ALLOCATED.addAndGet(-allocated.getAndSet(0));
+        }
+    }
+
+    /**
+     * Give back the budget of every instance which was garbage collected without being deleted
+     */
+    private static void releaseCollected() {
+        Reference<? extends OffHeapHistory> reference;
+        while ((reference = COLLECTED.poll()) != null) {
+            Budget budget = (Budget) reference;
+            budget.release();
+            BUDGETS.remove(budget);
+        }
+    }
+
+    private static final class Column {
+        private final int x;
+        private final int z;
+        private ByteBuffer[] pages = new ByteBuffer[1];
+        private int pageCount;
+        private ByteBuffer page;
+
+        private Column(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    private final boolean redo;
+    private final int recordSize;
+    private final long maxBytes;
+
+    private final Long2ObjectOpenHashMap<Column> columnMap = new Long2ObjectOpenHashMap<>();
+    // Iterated by index, in the order the chunks were first changed
+    private final ArrayList<Column> columns = new ArrayList<>();
+    private Column lastColumn;
+    private ByteBuffer slab;
+    private final Budget budget = new Budget(this);
+
+    private File spillFile;
+    private ChunkIndexedBlockWriter spill;
+
+    public OffHeapHistory(World world) {
+        super(world);
+        this.redo = isStoreRedo();
+        this.recordSize = redo ? 6 : 4;
+        this.maxBytes = (long) Settings.IMP.HISTORY.OFF_HEAP_MB << 20;
+    }
+
+    public OffHeapHistory(String world) {
+        super(world);
+        this.redo = isStoreRedo();
+        this.recordSize = redo ? 6 : 4;
+        this.maxBytes = (long) Settings.IMP.HISTORY.OFF_HEAP_MB << 20;
+    }
+
+    private ByteBuffer allocatePage() {
+        if (slab == null || slab.remaining() < PAGE_SIZE) {
+            slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+            budget.add(SLAB_SIZE);
+        }
+        int start = slab.position();
+        slab.limit(start + PAGE_SIZE);
+        ByteBuffer page = slab.slice();
+        slab.limit(slab.capacity());
+        slab.position(start + PAGE_SIZE);
+        return page;
+    }
+
+    @Override
+    protected void writeChange(int x, int y, int z, int combinedFrom, int combinedTo) throws IOException {
+        if (spill != null) {
+            spill.add(x, y, z, combinedFrom, combinedTo);
+            return;
+        }
+        int cx = x >> 4;
+        int cz = z >> 4;
+        Column column = lastColumn;
+        if (column == null || column.x != cx || column.z != cz) {
+            long pair = MathMan.pairInt(cx, cz);
+            column = columnMap.get(pair);
+            if (column == null) {
+                column = new Column(cx, cz);
+                columnMap.put(pair, column);
+                columns.add(column);
+            }
+            lastColumn = column;
+        }
+        ByteBuffer page = column.page;
+        if (page == null || page.remaining() < recordSize) {
+            if (slab == null || slab.remaining() < PAGE_SIZE) {
+                releaseCollected();
+                if (budget.allocated.get() + SLAB_SIZE > maxBytes || TOTAL_ALLOCATED.get() + SLAB_SIZE > ((long) Settings.IMP.HISTORY.OFF_HEAP_TOTAL_MB << 20)) {
+                    spill();
+                    spill.add(x, y, z, combinedFrom, combinedTo);
+                    return;
+                }
+            }
+            page = allocatePage();
+            if (column.pageCount == column.pages.length) {
+                column.pages = Arrays.copyOf(column.pages, column.pageCount << 1);
+            }
+            column.pages[column.pageCount++] = page;
+            column.page = page;
+        }
+        page.put((byte) ((x & 15) << 4 | (z & 15)));
+        page.put((byte) y);
+        page.putShort((short) combinedFrom);
+        if (redo) {
+            page.putShort((short) combinedTo);
+        }
+    }
+
+    /**
+     * @return the folder the temporary file is created in, once the limit is reached
+     */
+    protected File getSpillFolder() {
+        return MainUtil.getFile(Fawe.imp().getDirectory(), Settings.IMP.PATHS.HISTORY + File.separator + "off-heap");
+    }
+
+    /**
+     * Move every block change to a temporary file, and write the rest there
+     */
+    private void spill() throws IOException {
+        File folder = getSpillFolder();
+        folder.mkdirs();
+        spillFile = File.createTempFile("history", ".bd", folder);
+        spillFile.deleteOnExit();
+        ChunkIndexedBlockWriter writer = new ChunkIndexedBlockWriter(spillFile, getCompressionLevel(), redo, false);
+        writeHeader(writer.getHeaderStream(), 0, 0, 0);
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            int bx = column.x << 4;
+            int bz = column.z << 4;
+            for (int j = 0; j < column.pageCount; j++) {
+                ByteBuffer page = column.pages[j];
+                for (int k = 0, end = page.position(); k < end; k += recordSize) {
+                    int pair = page.get(k) & 0xFF;
+                    int from = page.getShort(k + 2) & 0xFFFF;
+                    int to = redo ? page.getShort(k + 4) & 0xFFFF : 0;
+                    writer.add(bx + (pair >> 4), page.get(k + 1) & 0xFF, bz + (pair & 15), from, to);
+                }
+            }
+        }
+        spill = writer;
+        release();
+    }
+
+    /**
+     * Drop the pages and return their size to the global budget<br>
+     * - The direct buffers are freed once they are garbage collected
+     */
+    private synchronized void release() {
+        columns.clear();
+        columnMap.clear();
+        lastColumn = null;
+        slab = null;
+        budget.release();
+    }
+
+    @Override
+    public boolean flush() {
+        releaseCollected();
+        boolean result = super.flush();
+        if (spill != null) {
+            try {
+                spill.flush();
+            } catch (IOException e) {
+                MainUtil.handleError(e);
+                return false;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean close() {
+        releaseCollected();
+        boolean result = super.close();
+        if (spill != null) {
+            synchronized (this) {
+                if (spill != null) {
+                    try {
+                        spill.close();
+                    } catch (IOException e) {
+                        MainUtil.handleError(e);
+                        result = false;
+                    }
+                    spill = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void delete() {
+        release();
+        if (spillFile != null) {
+            spillFile.delete();
+        }
+    }
+
+    @Override
+    public long getSizeInMemory() {
+        return super.getSizeInMemory() + budget.allocated.get() + columns.size() * 64L;
+    }
+
+    @Override
+    public long getSizeOnDisk() {
+        return spillFile != null ? spillFile.length() : 0;
+    }
+
+    private ChunkIndexedBlockReader getSpillReader() throws IOException {
+        if (spillFile == null || !ChunkIndexedBlockReader.isIndexed(spillFile)) {
+            return null;
+        }
+        return new ChunkIndexedBlockReader(spillFile);
+    }
+
+    @Override
+    public Iterator<MutableBlockChange> getBlockIterator(final boolean dir) throws IOException {
+        final MutableBlockChange change = new MutableBlockChange(0, 0, 0, (short) 0, (byte) 0);
+        ChunkIndexedBlockReader reader = getSpillReader();
+        if (reader != null) {
+            return new DiskStorageHistory.IndexedIterator<MutableBlockChange>(reader, null) {
+                @Override
+                protected MutableBlockChange set(int x, int y, int z, int from, int to) {
+                    return setBlock(change, x, y, z, dir ? to : from);
+                }
+            };
+        }
+        return new PageIterator<MutableBlockChange>() {
+            @Override
+            protected MutableBlockChange set(int x, int y, int z, int from, int to) {
+                return setBlock(change, x, y, z, dir ? to : from);
+            }
+        };
+    }
+
+    private static MutableBlockChange setBlock(MutableBlockChange change, int x, int y, int z, int combined) {
+        change.x = x;
+        change.y = y;
+        change.z = z;
+        change.id = (short) (combined >> 4);
+        change.data = (byte) (combined & 0xF);
+        return change;
+    }
+
+    @Override
+    public Iterator<MutableFullBlockChange> getFullBlockIterator(BlockBag blockBag, int inventory, boolean dir) throws IOException {
+        final MutableFullBlockChange change = new MutableFullBlockChange(blockBag, inventory, dir);
+        ChunkIndexedBlockReader reader = getSpillReader();
+        if (reader != null) {
+            return new DiskStorageHistory.IndexedIterator<MutableFullBlockChange>(reader, null) {
+                @Override
+                protected MutableFullBlockChange set(int x, int y, int z, int from, int to) {
+                    return setFullBlock(change, x, y, z, from, to);
+                }
+            };
+        }
+        return new PageIterator<MutableFullBlockChange>() {
+            @Override
+            protected MutableFullBlockChange set(int x, int y, int z, int from, int to) {
+                return setFullBlock(change, x, y, z, from, to);
+            }
+        };
+    }
+
+    private static MutableFullBlockChange setFullBlock(MutableFullBlockChange change, int x, int y, int z, int from, int to) {
+        change.x = x;
+        change.y = y;
+        change.z = z;
+        change.from = from;
+        change.to = to;
+        return change;
+    }
+
+    /**
+     * Reads the pages in place, setting the same change each time (nothing is allocated per block)
+     */
+    private abstract class PageIterator<T> implements Iterator<T> {
+        private int columnIndex = -1;
+        private Column column;
+        private int pageIndex;
+        private ByteBuffer page;
+        private int position;
+        private int end;
+
+        protected abstract T set(int x, int y, int z, int from, int to);
+
+        @Override
+        public boolean hasNext() {
+            while (position >= end) {
+                if (column != null && pageIndex + 1 < column.pageCount) {
+                    page = column.pages[++pageIndex];
+                } else if (columnIndex + 1 < columns.size()) {
+                    column = columns.get(++columnIndex);
+                    pageIndex = 0;
+                    page = column.pages[0];
+                } else {
+                    return false;
+                }
+                position = 0;
+                end = page == null ? 0 : page.position();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = position;
+            position += recordSize;
+            int pair = page.get(i) & 0xFF;
+            int x = (column.x << 4) + (pair >> 4);
+            int z = (column.z << 4) + (pair & 15);
+            int y = page.get(i + 1) & 0xFF;
+            int from = page.getShort(i + 2) & 0xFFFF;
+            int to = redo ? page.getShort(i + 4) & 0xFFFF : 0;
+            return set(x, y, z, from, to);
+        }
+
+        @Override
+        public void remove() {
+            throw new IllegalArgumentException("CANNOT REMOVE");
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.jnbt.NBTStreamer;
 import com.boydti.fawe.object.IntegerTrio;
 import com.boydti.fawe.object.io.BufferedRandomAccessFile;
+import com.boydti.fawe.object.io.MappedFileInputStream;
 import com.boydti.fawe.util.MainUtil;
 import com.boydti.fawe.util.ReflectionUtils;
 import com.sk89q.jnbt.CompoundTag;
@@ -32,6 +33,7 @@ import java.util.UUID;
 /**
  * A clipboard with disk backed storage. (lower memory + loads on crash)
  *  - Uses an auto closable RandomAccessFile for getting / setting id / data
+ *  - Bulk reads (e.g. pasting) map the file instead
  *  - I don't know how to reduce nbt / entities to O(2) complexity, so it is stored in memory.
  *
  */
@@ -205,6 +207,18 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
 //        }, 200);
     }
 
+    /**
+     * Open the blocks for a bulk read (mapped, rather than going through the 16 byte buffer of the random access file)
+     * @return
+     * @throws IOException
+     */
+    private MappedFileInputStream openBlocks() throws IOException {
+        raf.flush();
+        MappedFileInputStream in = new MappedFileInputStream(file);
+        in.seek(HEADER_SIZE);
+        return in;
+    }
+
     private int ylast;
     private int ylasti;
     private int zlast;
@@ -212,13 +226,12 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
 
     @Override
     public void streamIds(NBTStreamer.ByteReader task) {
-        try {
-            raf.seek(HEADER_SIZE);
+        try (MappedFileInputStream in = openBlocks()) {
             int index = 0;
             for (int y = 0; y < height; y++) {
                 for (int z = 0; z < length; z++) {
                     for (int x = 0; x < width; x++) {
-                        int combinedId = raf.readChar();
+                        int combinedId = in.readChar();
                         task.run(index++, FaweCache.getId(combinedId));
                     }
                 }
@@ -232,13 +245,12 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
 
     @Override
     public void streamDatas(NBTStreamer.ByteReader task) {
-        try {
-            raf.seek(HEADER_SIZE);
+        try (MappedFileInputStream in = openBlocks()) {
             int index = 0;
             for (int y = 0; y < height; y++) {
                 for (int z = 0; z < length; z++) {
                     for (int x = 0; x < width; x++) {
-                        int combinedId = raf.readChar();
+                        int combinedId = in.readChar();
                         task.run(index++, FaweCache.getData(combinedId));
                     }
                 }
@@ -255,8 +267,7 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
 
     @Override
     public void forEach(final BlockReader task, boolean air) {
-        try {
-            raf.seek(HEADER_SIZE);
+        try (MappedFileInputStream in = openBlocks()) {
             IntegerTrio trio = new IntegerTrio();
             final boolean hasTile = !nbtMap.isEmpty();
             if (air) {
@@ -264,7 +275,7 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
                     for (int y = 0; y < height; y++) {
                         for (int z = 0; z < length; z++) {
                             for (int x = 0; x < width; x++) {
-                                char combinedId = raf.readChar();
+                                char combinedId = in.readChar();
                                 BaseBlock block = FaweCache.CACHE_BLOCK[combinedId];
                                 if (block.canStoreNBTData()) {
                                     trio.set(x, y, z);
@@ -282,7 +293,7 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
                     for (int y = 0; y < height; y++) {
                         for (int z = 0; z < length; z++) {
                             for (int x = 0; x < width; x++) {
-                                char combinedId = raf.readChar();
+                                char combinedId = in.readChar();
                                 BaseBlock block = FaweCache.CACHE_BLOCK[combinedId];
                                 task.run(x, y, z, block);
                             }
@@ -293,7 +304,7 @@ public class DiskOptimizedClipboard extends FaweClipboard implements Closeable {
                 for (int y = 0; y < height; y++) {
                     for (int z = 0; z < length; z++) {
                         for (int x = 0; x < width; x++) {
-                            int combinedId = raf.readChar();
+                            int combinedId = in.readChar();
                             if (combinedId != 0) {
                                 BaseBlock block = FaweCache.CACHE_BLOCK[combinedId];
                                 if (block.canStoreNBTData()) {
@@ -0,0 +1,366 @@
+package com.boydti.fawe.object.io;
+
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.RegionWrapper;
+import com.boydti.fawe.util.MainUtil;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads block history grouped by chunk column<br>
+ * - Each block can be read and decompressed on its own, from any thread<br>
+ * - If the index is missing (e.g. the server stopped before the file was closed), it is rebuilt from the block frames
+ *
+ * [header]
+ * {int magic, byte version, byte mode, int origin x, int origin z}
+ *
+ * [blocks]...
+ * {frame, compressed records}
+ * frame: { int chunk x, int chunk z, int length, int count, byte x range, byte z range, byte min y, byte max y }
+ * record: { byte local x << 4 | local z, unsigned byte y, short combinedFrom, [short combinedTo] }
+ * Since version 2 the records are stored as columns (see {@link ColumnarBlockCodec}), and are read back in position order
+ *
+ * [index]
+ * { int size, {long offset, frame}... }
+ * { int size, {short id, int count}... } (the histogram of block ids, if written by this version)
+ *
+ * [footer]
+ * { long index offset, int magic }
+ */
+public class ChunkIndexedBlockReader implements AutoCloseable {
+
+    public static final int MAGIC = 0x46415749;
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 14;
+    public static final int FRAME_SIZE = 20;
+    private static final int FOOTER_SIZE = 12;
+
+    /**
+     * A compressed block of records from a single chunk column
+     */
+    public static final class Entry {
+        public final int chunkX;
+        public final int chunkZ;
+        public final long offset;
+        public final int length;
+        public final int count;
+        public final int minX, maxX, minY, maxY, minZ, maxZ;
+        private final int rangeX, rangeZ;
+
+        public Entry(int chunkX, int chunkZ, long offset, int length, int count, int rangeX, int rangeZ, int minY, int maxY) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.rangeX = rangeX & 0xFF;
+            this.rangeZ = rangeZ & 0xFF;
+            this.minX = (chunkX << 4) + (this.rangeX >> 4);
+            this.maxX = (chunkX << 4) + (this.rangeX & 15);
+            this.minZ = (chunkZ << 4) + (this.rangeZ >> 4);
+            this.maxZ = (chunkZ << 4) + (this.rangeZ & 15);
+            this.minY = minY & 0xFF;
+            this.maxY = maxY & 0xFF;
+        }
+
+        private static Entry read(DataInputStream in, long offset) throws IOException {
+            int chunkX = in.readInt();
+            int chunkZ = in.readInt();
+            int length = in.readInt();
+            int count = in.readInt();
+            return new Entry(chunkX, chunkZ, offset, length, count, in.read(), in.read(), in.read(), in.read());
+        }
+
+        /**
+         * Write the frame of this block
+         * @param out
+         * @throws IOException
+         */
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(chunkX);
+            out.writeInt(chunkZ);
+            out.writeInt(length);
+            out.writeInt(count);
+            out.write(rangeX);
+            out.write(rangeZ);
+            out.write(minY);
+            out.write(maxY);
+        }
+
+        /**
+         * The same block stored somewhere else (e.g. after it was recompressed)
+         * @param offset
+         * @param length
+         * @return
+         */
+        public Entry moveTo(long offset, int length) {
+            return new Entry(chunkX, chunkZ, offset, length, count, rangeX, rangeZ, minY, maxY);
+        }
+
+        public boolean intersects(RegionWrapper region) {
+            return maxX >= region.minX && minX <= region.maxX && maxZ >= region.minZ && minZ <= region.maxZ && maxY >= region.minY && minY <= region.maxY;
+        }
+    }
+
+    public interface BlockVisitor {
+        void run(int x, int y, int z, int combinedFrom, int combinedTo);
+    }
+
+    /**
+     * Check if a file was written by {@link ChunkIndexedBlockWriter}
+     * @param file
+     * @return false for the sequential stream format, or if the file can't be read
+     */
+    public static boolean isIndexed(File file) {
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException ignore) {
+            return false;
+        }
+    }
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int version;
+    private final int mode;
+    private final int originX;
+    private final int originZ;
+    private final List<Entry> entries;
+    private int[] histogram;
+
+    public ChunkIndexedBlockReader(File file) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(0, HEADER_SIZE)));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a chunk indexed history file: " + file);
+            }
+            this.version = in.read();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported history version " + version + ": " + file);
+            }
+            this.mode = in.read();
+            this.originX = in.readInt();
+            this.originZ = in.readInt();
+            List<Entry> index = readIndex();
+            this.entries = Collections.unmodifiableList(index != null ? index : scan());
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private List<Entry> readIndex() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE + 4 + FOOTER_SIZE) {
+            return null;
+        }
+        DataInputStream footer = new DataInputStream(new ByteArrayInputStream(read(size - FOOTER_SIZE, FOOTER_SIZE)));
+        long indexOffset = footer.readLong();
+        if (footer.readInt() != MAGIC || indexOffset < HEADER_SIZE || indexOffset > size - FOOTER_SIZE - 4) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(indexOffset, (int) (size - FOOTER_SIZE - indexOffset))));
+        int amount = in.readInt();
+        List<Entry> index = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            index.add(Entry.read(in, in.readLong()));
+        }
+        if (in.available() >= 4) {
+            int ids = in.readInt();
+            histogram = new int[4096];
+            for (int i = 0; i < ids; i++) {
+                histogram[in.readUnsignedShort() & 4095] = in.readInt();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Rebuild the index from the block frames, stopping at the first incomplete block
+     * @return
+     */
+    private List<Entry> scan() throws IOException {
+        List<Entry> index = new ArrayList<>();
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        while (position + FRAME_SIZE <= size) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(position, FRAME_SIZE)));
+            Entry entry = Entry.read(in, position + FRAME_SIZE);
+            if (entry.length < 0 || entry.count < 0 || entry.offset + entry.length > size) {
+                break;
+            }
+            index.add(entry);
+            position = entry.offset + entry.length;
+        }
+        return index;
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        return buffer.array();
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public boolean hasRedo() {
+        return mode == 3 || mode == 4;
+    }
+
+    public int getRecordSize() {
+        return hasRedo() ? 6 : 4;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    /**
+     * @return every block, in the order they were written
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Get the blocks which may have changes inside a region
+     * @param region
+     * @return
+     */
+    public List<Entry> getEntries(RegionWrapper region) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.intersects(region)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of changes to each block id (the id changed to, even if redo isn't stored)<br>
+     * - Read from the end of the file, so nothing needs to be decompressed
+     * @return the counts indexed by id, or null if the file doesn't have them (older files, or the index was rebuilt)
+     */
+    public int[] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return the total number of changes
+     */
+    public long getCount() {
+        long count = 0;
+        for (Entry entry : entries) {
+            count += entry.count;
+        }
+        return count;
+    }
+
+    /**
+     * Read the compressed bytes of a block, as they are stored
+     * @param entry
+     * @return
+     * @throws IOException
+     */
+    public byte[] readCompressed(Entry entry) throws IOException {
+        return read(entry.offset, entry.length);
+    }
+
+    /**
+     * Read and decompress the records of a block (safe to call from several threads)
+     * @param entry
+     * @return the records, getRecordSize() bytes each
+     * @throws IOException
+     */
+    public byte[] readRecords(Entry entry) throws IOException {
+        byte[] compressed = readCompressed(entry);
+        try (FaweInputStream is = MainUtil.getCompressedIS(new ByteArrayInputStream(compressed), Math.max(1024, compressed.length))) {
+            if (version >= 2) {
+                return ColumnarBlockCodec.decode(is, entry.count, hasRedo());
+            }
+            byte[] records = new byte[entry.count * getRecordSize()];
+            new DataInputStream(is).readFully(records);
+            return records;
+        }
+    }
+
+    /**
+     * Visit the records of a block
+     * @param entry
+     * @param visitor
+     * @throws IOException
+     */
+    public void forEach(Entry entry, BlockVisitor visitor) throws IOException {
+        forEach(entry, readRecords(entry), null, visitor);
+    }
+
+    /**
+     * Visit the records of a block which are inside a region
+     * @param entry
+     * @param region the region, or null for every record
+     * @param visitor
+     * @throws IOException
+     */
+    public void forEach(Entry entry, RegionWrapper region, BlockVisitor visitor) throws IOException {
+        forEach(entry, readRecords(entry), region, visitor);
+    }
+
+    /**
+     * Visit records which have already been read
+     * @param entry
+     * @param records
+     * @param region the region, or null for every record
+     * @param visitor
+     */
+    public void forEach(Entry entry, byte[] records, RegionWrapper region, BlockVisitor visitor) {
+        int bx = entry.chunkX << 4;
+        int bz = entry.chunkZ << 4;
+        boolean redo = hasRedo();
+        int recordSize = getRecordSize();
+        for (int i = 0; i + recordSize <= records.length; i += recordSize) {
+            int pair = records[i] & 0xFF;
+            int x = bx + (pair >> 4);
+            int z = bz + (pair & 15);
+            int y = records[i + 1] & 0xFF;
+            // Not RegionWrapper.isIn, which caches the last row and isn't safe to share between threads
+            if (region != null && (x < region.minX || x > region.maxX || z < region.minZ || z > region.maxZ || y < region.minY || y > region.maxY)) {
+                continue;
+            }
+            int from = (records[i + 2] & 0xFF) + ((records[i + 3] & 0xFF) << 8);
+            int to = redo ? (records[i + 4] & 0xFF) + ((records[i + 5] & 0xFF) << 8) : 0;
+            visitor.run(x, y, z, from, to);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,381 @@
+package com.boydti.fawe.object.io;
+
+import com.boydti.fawe.object.FaweOutputStream;
+import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.MathMan;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Writes block history grouped by chunk column (see {@link ChunkIndexedBlockReader} for the format)<br>
+ * - Records are buffered per column, and a column is encoded and compressed as its own block once it reaches BLOCK_SIZE<br>
+ * - Every buffered column is written once MAX_BUFFERED bytes are waiting, or on flush<br>
+ * - The index, and a histogram of the block ids, are written to the end of the file on close<br>
+ * - If async, blocks are compressed and appended by the {@link HistoryWriter} (flush and close wait for it)
+ */
+public class ChunkIndexedBlockWriter implements AutoCloseable {
+
+    /**
+     * Uncompressed bytes of a column written as one block
+     */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Uncompressed bytes which can be buffered across all columns
+     */
+    private static final int MAX_BUFFERED = 1 << 22;
+
+    private static final class Column {
+        private final int x;
+        private final int z;
+        private byte[] data = new byte[256];
+        private int size;
+        private int count;
+        private int minX, maxX, minY, maxY, minZ, maxZ;
+
+        private Column(int x, int z) {
+            this.x = x;
+            this.z = z;
+            reset();
+        }
+
+        private void reset() {
+            size = 0;
+            count = 0;
+            minX = minY = minZ = Integer.MAX_VALUE;
+            maxX = maxY = maxZ = Integer.MIN_VALUE;
+        }
+    }
+
+    private final File file;
+    private final int compression;
+    private final boolean redo;
+    private final int recordSize;
+    private final boolean async;
+
+    private final Long2ObjectOpenHashMap<Column> columns = new Long2ObjectOpenHashMap<>();
+    private final int[] histogram = new int[4096];
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream(ChunkIndexedBlockReader.HEADER_SIZE);
+    private Column lastColumn;
+    private long buffered;
+    private boolean started;
+
+    // Only used by the thread writing the file (the history writer if async)
+    private final List<ChunkIndexedBlockReader.Entry> index = new ArrayList<>();
+    private DataOutputStream out;
+    private long position;
+    private volatile IOException error;
+
+    /**
+     * @param file
+     * @param compression the compression level of each block (see Settings.HISTORY.COMPRESSION_LEVEL)
+     * @param redo if the block a position was changed to is stored
+     * @param async if blocks are compressed and written by the {@link HistoryWriter}
+     * @throws IOException
+     */
+    public ChunkIndexedBlockWriter(File file, int compression, boolean redo, boolean async) throws IOException {
+        this.file = file;
+        this.compression = compression;
+        this.redo = redo;
+        this.recordSize = redo ? 6 : 4;
+        this.async = async;
+        // The history writer appends, so start from an empty file
+        FileOutputStream fos = new FileOutputStream(file);
+        if (async) {
+            fos.close();
+        } else {
+            out = new DataOutputStream(new BufferedOutputStream(fos, 8192));
+        }
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(ChunkIndexedBlockReader.MAGIC);
+        headerOut.write(ChunkIndexedBlockReader.VERSION);
+    }
+
+    /**
+     * The stream to write the history header to (only before any block is added)
+     * @return
+     */
+    public OutputStream getHeaderStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                if (started) {
+                    throw new IllegalStateException("Header must be written before any blocks");
+                }
+                header.write(b);
+            }
+        };
+    }
+
+    public boolean hasRedo() {
+        return redo;
+    }
+
+    /**
+     * Add a change
+     * @param x
+     * @param y
+     * @param z
+     * @param combinedFrom
+     * @param combinedTo (always counted in the histogram, but only stored if redo is)
+     * @throws IOException
+     */
+    public void add(int x, int y, int z, int combinedFrom, int combinedTo) throws IOException {
+        int cx = x >> 4;
+        int cz = z >> 4;
+        Column column = lastColumn;
+        if (column == null || column.x != cx || column.z != cz) {
+            long pair = MathMan.pairInt(cx, cz);
+            column = columns.get(pair);
+            if (column == null) {
+                column = new Column(cx, cz);
+                columns.put(pair, column);
+            }
+            lastColumn = column;
+        }
+        int size = column.size;
+        if (size + recordSize > column.data.length) {
+            column.data = Arrays.copyOf(column.data, Math.max(column.data.length << 1, size + recordSize));
+        }
+        byte[] data = column.data;
+        int lx = x & 15;
+        int lz = z & 15;
+        data[size] = (byte) (lx << 4 | lz);
+        data[size + 1] = (byte) y;
+        data[size + 2] = (byte) combinedFrom;
+        data[size + 3] = (byte) (combinedFrom >> 8);
+        if (redo) {
+            data[size + 4] = (byte) combinedTo;
+            data[size + 5] = (byte) (combinedTo >> 8);
+        }
+        column.size = size + recordSize;
+        column.count++;
+        histogram[(combinedTo >> 4) & 4095]++;
+        if (lx < column.minX) column.minX = lx;
+        if (lx > column.maxX) column.maxX = lx;
+        if (lz < column.minZ) column.minZ = lz;
+        if (lz > column.maxZ) column.maxZ = lz;
+        y &= 0xFF;
+        if (y < column.minY) column.minY = y;
+        if (y > column.maxY) column.maxY = y;
+        buffered += recordSize;
+        if (column.size >= BLOCK_SIZE) {
+            writeBlock(column);
+        } else if (buffered >= MAX_BUFFERED) {
+            writeColumns();
+        }
+    }
+
+    private interface Task {
+        void run(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Run a task which appends to the file (on the history writer if async)
+     * @param task
+     * @throws IOException a previous task failed
+     */
+    private void execute(final Task task) throws IOException {
+        IOException last = error;
+        if (last != null) {
+            throw last;
+        }
+        if (!started) {
+            started = true;
+            final byte[] headerBytes = header.toByteArray();
+            execute(new Task() {
+                @Override
+                public void run(DataOutputStream out) throws IOException {
+                    out.write(headerBytes);
+                    position += headerBytes.length;
+                }
+            });
+        }
+        if (!async) {
+            task.run(out);
+            return;
+        }
+        HistoryWriter.IMP.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    return;
+                }
+                IOException failed = HistoryWriter.IMP.takeError(file);
+                if (failed != null) {
+                    error = failed;
+                    return;
+                }
+                try {
+                    task.run(new DataOutputStream(HistoryWriter.IMP.getOutput(file)));
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        });
+    }
+
+    private void writeBlock(Column column) throws IOException {
+        if (column.count == 0) {
+            return;
+        }
+        final int x = column.x;
+        final int z = column.z;
+        final int size = column.size;
+        final int count = column.count;
+        final int rangeX = column.minX << 4 | column.maxX;
+        final int rangeZ = column.minZ << 4 | column.maxZ;
+        final int minY = column.minY;
+        final int maxY = column.maxY;
+        // The column is reused once this returns
+        final byte[] data = async ? Arrays.copyOf(column.data, size) : column.data;
+        execute(new Task() {
+            @Override
+            public void run(DataOutputStream out) throws IOException {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, size >> 1));
+                FaweOutputStream compressed = MainUtil.getCompressedOS(baos, compression, Math.max(1024, size));
+                ColumnarBlockCodec.encode(data, count, redo, compressed);
+                compressed.close();
+                int length = baos.size();
+                ChunkIndexedBlockReader.Entry entry = new ChunkIndexedBlockReader.Entry(x, z, position + ChunkIndexedBlockReader.FRAME_SIZE, length, count, rangeX, rangeZ, minY, maxY);
+                entry.write(out);
+                baos.writeTo(out);
+                position += ChunkIndexedBlockReader.FRAME_SIZE + length;
+                index.add(entry);
+            }
+        });
+        buffered -= size;
+        column.reset();
+        if (column.data.length > BLOCK_SIZE << 1) {
+            column.data = new byte[256];
+        }
+    }
+
+    private void writeColumns() throws IOException {
+        for (Column column : columns.values()) {
+            writeBlock(column);
+        }
+        columns.clear();
+        lastColumn = null;
+        buffered = 0;
+    }
+
+    /**
+     * Write the index, histogram and footer (the end of the file)
+     * @param out
+     * @param index every block in the file
+     * @param histogram the counts indexed by block id, or null
+     * @param indexOffset the position in the file the index starts at
+     * @throws IOException
+     */
+    public static void writeIndex(DataOutputStream out, List<ChunkIndexedBlockReader.Entry> index, int[] histogram, long indexOffset) throws IOException {
+        out.writeInt(index.size());
+        for (ChunkIndexedBlockReader.Entry entry : index) {
+            out.writeLong(entry.offset);
+            entry.write(out);
+        }
+        if (histogram != null) {
+            int ids = 0;
+            for (int count : histogram) {
+                if (count != 0) {
+                    ids++;
+                }
+            }
+            out.writeInt(ids);
+            for (int id = 0; id < histogram.length; id++) {
+                if (histogram[id] != 0) {
+                    out.writeShort(id);
+                    out.writeInt(histogram[id]);
+                }
+            }
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(ChunkIndexedBlockReader.MAGIC);
+    }
+
+    /**
+     * Wait until the history writer has written (and flushed) every task queued so far
+     * @param close if the file should also be synced and closed
+     * @throws IOException
+     */
+    private void await(final boolean close) throws IOException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        HistoryWriter.IMP.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (close) {
+                    HistoryWriter.IMP.sync(file);
+                    HistoryWriter.IMP.close(file);
+                }
+                HistoryWriter.IMP.afterCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The batch may have failed to flush, sync or close the file
+                        IOException failed = HistoryWriter.IMP.takeError(file);
+                        if (failed != null && error == null) {
+                            error = failed;
+                        }
+                        latch.countDown();
+                    }
+                });
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the history writer");
+        }
+        IOException last = error;
+        if (last != null) {
+            throw last;
+        }
+    }
+
+    /**
+     * Write every buffered column to the file
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        writeColumns();
+        if (!started) {
+            return;
+        }
+        if (async) {
+            await(false);
+        } else {
+            out.flush();
+        }
+    }
+
+    /**
+     * Write the remaining columns, and the index
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        writeColumns();
+        execute(new Task() {
+            @Override
+            public void run(DataOutputStream out) throws IOException {
+                writeIndex(out, index, histogram, position);
+            }
+        });
+        if (async) {
+            await(true);
+        } else {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.boydti.fawe.object.io;
+
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Stores the records of a chunk column as columns rather than rows (before the block is compressed)<br>
+ * - Positions are sorted and stored as deltas, so most take a single byte<br>
+ * - The from and to ids are run length encoded in position order (e.g. a layer of stone is a single run)<br>
+ * - The sort is stable, so changes to the same position keep the order they were recorded in
+ *
+ * [positions]
+ * { varint delta of (y << 8 | local x << 4 | local z) }...
+ *
+ * [from], [to] (if redo is stored)
+ * { varint run length, varint combined id }...
+ */
+public final class ColumnarBlockCodec {
+
+    private ColumnarBlockCodec() {}
+
+    /**
+     * Write row records as columns
+     * @param records the records (see ChunkIndexedBlockReader)
+     * @param count the number of records
+     * @param redo if the records have a combinedTo
+     * @param out
+     * @throws IOException
+     */
+    public static void encode(byte[] records, int count, boolean redo, FaweOutputStream out) throws IOException {
+        int recordSize = redo ? 6 : 4;
+        long[] order = new long[count];
+        for (int i = 0, j = 0; i < count; i++, j += recordSize) {
+            long pos = ((records[j + 1] & 0xFF) << 8) | (records[j] & 0xFF);
+            order[i] = (pos << 32) | i;
+        }
+        Arrays.sort(order);
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int pos = (int) (order[i] >>> 32);
+            out.writeVarInt(pos - last);
+            last = pos;
+        }
+        writeRuns(records, order, recordSize, 2, out);
+        if (redo) {
+            writeRuns(records, order, recordSize, 4, out);
+        }
+    }
+
+    private static void writeRuns(byte[] records, long[] order, int recordSize, int offset, FaweOutputStream out) throws IOException {
+        int run = 0;
+        int value = -1;
+        for (long key : order) {
+            int j = (int) key * recordSize + offset;
+            int combined = (records[j] & 0xFF) + ((records[j + 1] & 0xFF) << 8);
+            if (combined != value) {
+                if (run != 0) {
+                    out.writeVarInt(run);
+                    out.writeVarInt(value);
+                }
+                value = combined;
+                run = 0;
+            }
+            run++;
+        }
+        if (run != 0) {
+            out.writeVarInt(run);
+            out.writeVarInt(value);
+        }
+    }
+
+    /**
+     * Read columns back into row records (in position order)
+     * @param in
+     * @param count the number of records
+     * @param redo if the records have a combinedTo
+     * @return the records, 6 bytes each if redo is stored, otherwise 4
+     * @throws IOException
+     */
+    public static byte[] decode(FaweInputStream in, int count, boolean redo) throws IOException {
+        int recordSize = redo ? 6 : 4;
+        byte[] records = new byte[count * recordSize];
+        int pos = 0;
+        for (int j = 0; j < records.length; j += recordSize) {
+            pos += in.readVarInt();
+            records[j] = (byte) pos;
+            records[j + 1] = (byte) (pos >> 8);
+        }
+        readRuns(in, records, recordSize, 2);
+        if (redo) {
+            readRuns(in, records, recordSize, 4);
+        }
+        return records;
+    }
+
+    private static void readRuns(FaweInputStream in, byte[] records, int recordSize, int offset) throws IOException {
+        for (int j = offset; j < records.length; ) {
+            int run = in.readVarInt();
+            int combined = in.readVarInt();
+            if (run <= 0) {
+                throw new IOException("Invalid run length: " + run);
+            }
+            byte lo = (byte) combined;
+            byte hi = (byte) (combined >> 8);
+            for (int end = Math.min(records.length, j + run * recordSize); j < end; j += recordSize) {
+                records[j] = lo;
+                records[j + 1] = hi;
+            }
+        }
+    }
+}
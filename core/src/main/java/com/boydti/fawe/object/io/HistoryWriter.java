@@ -0,0 +1,226 @@
+package com.boydti.fawe.object.io;
+
+import com.boydti.fawe.util.MainUtil;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A single background thread which writes history files for every edit<br>
+ * - Edit threads queue tasks (e.g. compressing and writing a block), and wait only if the queue is full<br>
+ * - Tasks are run in batches, and the files written to by a batch are flushed (and synced if requested) once at the end of the batch<br>
+ * - At most MAX_OPEN files are kept open, the least recently used is closed and re-opened for append when needed<br>
+ * - A file which fails to flush, sync or close keeps the exception until it is taken with {@link #takeError(File)}
+ */
+public class HistoryWriter {
+
+    public static final HistoryWriter IMP = new HistoryWriter();
+
+    /**
+     * Tasks which can be waiting (each is at most one compressed history block)
+     */
+    private static final int QUEUE_SIZE = 256;
+
+    private static final int MAX_BATCH = 64;
+
+    private static final int MAX_OPEN = 64;
+
+    private static final class OpenFile {
+        private final FileOutputStream fos;
+        private final OutputStream out;
+
+        private OpenFile(File file) throws IOException {
+            this.fos = new FileOutputStream(file, true);
+            this.out = new BufferedOutputStream(fos, 8192);
+        }
+
+        private void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private final ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    // Only used by the writer thread
+    private final LinkedHashMap<File, OpenFile> open = new LinkedHashMap<File, OpenFile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, OpenFile> eldest) {
+            if (size() > MAX_OPEN) {
+                try {
+                    eldest.getValue().close();
+                } catch (IOException e) {
+                    errors.put(eldest.getKey(), e);
+                }
+                return true;
+            }
+            return false;
+        }
+    };
+    private final Map<File, IOException> errors = new HashMap<>();
+    private final Set<File> written = new LinkedHashSet<>();
+    private final Set<File> sync = new LinkedHashSet<>();
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private Thread thread;
+
+    private HistoryWriter() {}
+
+    private synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    HistoryWriter.this.run();
+                }
+            }, "FAWE History Writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queue a task, waiting if the writer is behind
+     * @param task
+     * @throws IOException if interrupted while waiting
+     */
+    public void submit(Runnable task) throws IOException {
+        if (thread == null) {
+            start();
+        }
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the history writer");
+        }
+    }
+
+    /**
+     * Get the stream to append to a file (only from a task)
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public OutputStream getOutput(File file) throws IOException {
+        OpenFile openFile = open.get(file);
+        if (openFile == null) {
+            openFile = new OpenFile(file);
+            open.put(file, openFile);
+        }
+        written.add(file);
+        return openFile.out;
+    }
+
+    /**
+     * Sync a file to disk at the end of the current batch (only from a task)
+     * @param file
+     */
+    public void sync(File file) {
+        sync.add(file);
+    }
+
+    /**
+     * Close a file at the end of the current batch (only from a task)
+     * @param file
+     */
+    public void close(final File file) {
+        afterCommit.add(new Runnable() {
+            @Override
+            public void run() {
+                OpenFile openFile = open.remove(file);
+                if (openFile != null) {
+                    try {
+                        openFile.close();
+                    } catch (IOException e) {
+                        errors.put(file, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Get and clear the exception from flushing, syncing or closing a file (only from a task)
+     * @param file
+     * @return the exception, or null
+     */
+    public IOException takeError(File file) {
+        return errors.isEmpty() ? null : errors.remove(file);
+    }
+
+    /**
+     * Run a task once the current batch has been written (only from a task)
+     * @param task
+     */
+    public void afterCommit(Runnable task) {
+        afterCommit.add(task);
+    }
+
+    private void run() {
+        List<Runnable> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (Runnable task : batch) {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        MainUtil.handleError(e);
+                    }
+                }
+                batch.clear();
+                commit();
+            } catch (InterruptedException e) {
+                MainUtil.handleError(e);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Flush (and sync) every file written to by the batch, then run the waiting tasks
+     */
+    private void commit() {
+        for (File file : written) {
+            OpenFile openFile = open.get(file);
+            if (openFile == null) {
+                continue;
+            }
+            try {
+                openFile.out.flush();
+                if (sync.contains(file)) {
+                    openFile.fos.getChannel().force(false);
+                }
+            } catch (IOException e) {
+                errors.put(file, e);
+            }
+        }
+        written.clear();
+        sync.clear();
+        if (!afterCommit.isEmpty()) {
+            Runnable[] tasks = afterCommit.toArray(new Runnable[afterCommit.size()]);
+            afterCommit.clear();
+            for (Runnable task : tasks) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    MainUtil.handleError(e);
+                }
+            }
+        }
+    }
+}
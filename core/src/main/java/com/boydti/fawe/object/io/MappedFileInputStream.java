@@ -0,0 +1,191 @@
+package com.boydti.fawe.object.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file through memory mapped windows, rather than copying it through a FileInputStream and buffers<br>
+ * - Reads come straight from the page cache<br>
+ * - Files larger than a window are mapped a window at a time<br>
+ * - The mapping is released on close, so the file can be deleted or resized right after (e.g. on Windows)
+ */
+public class MappedFileInputStream extends InputStream {
+
+    private static final int WINDOW_SIZE = 1 << 28;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer buffer;
+    private long windowStart;
+    private long mark;
+
+    public MappedFileInputStream(File file) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.size = channel.size();
+        try {
+            map(0);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private void map(long position) throws IOException {
+        unmap(buffer);
+        windowStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+    }
+
+    /**
+     * Map the next window if the current one has been read
+     * @return false at the end of the file
+     */
+    private boolean ensureRemaining() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        long position = windowStart + buffer.position();
+        if (position >= size) {
+            return false;
+        }
+        map(position);
+        return true;
+    }
+
+    public long getPosition() {
+        return windowStart + buffer.position();
+    }
+
+    public long length() {
+        return size;
+    }
+
+    /**
+     * Move to a position in the file
+     * @param position
+     * @throws IOException
+     */
+    public void seek(long position) throws IOException {
+        if (position < 0 || position > size) {
+            throw new EOFException("Position " + position + " is outside of the file (" + size + ")");
+        }
+        long relative = position - windowStart;
+        if (relative >= 0 && relative <= buffer.limit()) {
+            buffer.position((int) relative);
+        } else {
+            map(position);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        return len;
+    }
+
+    /**
+     * Read two bytes as an unsigned big endian value (the same as RandomAccessFile.readChar)
+     * @return
+     * @throws IOException
+     */
+    public char readChar() throws IOException {
+        if (buffer.remaining() >= 2) {
+            return buffer.getChar();
+        }
+        int b1 = read();
+        int b2 = read();
+        if ((b1 | b2) < 0) {
+            throw new EOFException();
+        }
+        return (char) ((b1 << 8) + b2);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long position = getPosition();
+        long skipped = Math.max(0, Math.min(n, size - position));
+        seek(position + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, size - getPosition());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = getPosition();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        seek(mark);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            unmap(buffer);
+            buffer = null;
+        }
+        raf.close();
+    }
+
+    /**
+     * Release a mapping now rather than when it is garbage collected (best effort)
+     * @param buffer
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            invokeCleaner.invoke(field.get(null), buffer);
+            return;
+        } catch (Throwable ignore) {}
+        try {
+            // Java 8
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Throwable ignore) {}
+    }
+}
@@ -12,6 +12,8 @@ import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.biome.BaseBiome;
@@ -129,6 +131,11 @@ public class DelegateFaweQueue extends FaweQueue {
         return parent.setBlocks(cuboid, id, data);
     }
 
+    @Override
+    public int setBlocks(CuboidRegion cuboid, Pattern pattern, Extent tileExtent) {
+        return parent.setBlocks(cuboid, pattern, tileExtent);
+    }
+
     @Override
     public boolean setBlock(int x, int y, int z, int id, int data) {
         return parent.setBlock(x, y, z, id, data);
@@ -12,6 +12,7 @@ import com.boydti.fawe.object.RegionWrapper;
 import com.boydti.fawe.object.changeset.DiskStorageHistory;
 import com.boydti.fawe.object.changeset.FaweChangeSet;
 import com.boydti.fawe.object.changeset.MemoryOptimizedHistory;
+import com.boydti.fawe.object.changeset.OffHeapHistory;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.event.extent.EditSessionEvent;
 import com.sk89q.worldedit.extent.inventory.BlockBag;
@@ -119,6 +120,8 @@ public class EditSessionBuilder {
                 } else {
                     this.changeSet = new DiskStorageHistory(worldName, uuid);
                 }
+            } else if (Settings.IMP.HISTORY.OFF_HEAP_MB > 0) {
+                this.changeSet = new OffHeapHistory(worldName);
             } else {
                 this.changeSet = new MemoryOptimizedHistory(worldName);
             }
@@ -128,6 +131,8 @@ public class EditSessionBuilder {
             } else {
                 this.changeSet = new DiskStorageHistory(world, uuid);
             }
+        } else if (Settings.IMP.HISTORY.OFF_HEAP_MB > 0) {
+            this.changeSet = new OffHeapHistory(world);
         } else {
             this.changeSet = new MemoryOptimizedHistory(world);
         }
@@ -0,0 +1,144 @@
+package com.boydti.fawe.util;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.FawePlayer;
+import com.boydti.fawe.object.FaweQueue;
+import com.sk89q.worldedit.EditSession;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Deficit round robin over the owners of the active queues<br>
+ * - Each owner (player, or console) is a flow which earns QUANTUM * weight milliseconds per round<br>
+ * - The time spent placing a queue is charged to its owner<br>
+ * - An owner's queues are placed in the order they were enqueued
+ */
+public class FairQueueScheduler {
+
+    /**
+     * Milliseconds of placement time a flow of weight 1 earns per round (one tick)
+     */
+    private static final int QUANTUM = 50;
+
+    private static final String CONSOLE = "";
+
+    private final Map<String, Flow> flows = new HashMap<>();
+    private final ArrayDeque<Flow> round = new ArrayDeque<>();
+
+    private static final class Flow {
+        private final String owner;
+        private final int weight;
+        private long deficit;
+
+        private Flow(String owner, int weight) {
+            this.owner = owner;
+            this.weight = Math.max(1, weight);
+        }
+    }
+
+    /**
+     * Get the name of the player which owns a queue, or an empty string for console / plugins
+     * @param queue
+     * @return
+     */
+    public String getOwner(FaweQueue queue) {
+        Collection<EditSession> sessions = queue.getSessions();
+        if (sessions != null) {
+            for (EditSession session : sessions) {
+                FawePlayer player = session.getPlayer();
+                if (player != null) {
+                    return player.getName();
+                }
+            }
+        }
+        return CONSOLE;
+    }
+
+    private int getWeight(String owner, FaweQueue queue) {
+        Settings.QUEUE.FAIR settings = Settings.IMP.QUEUE.FAIR;
+        if (owner.equals(CONSOLE)) {
+            return settings.CONSOLE_WEIGHT;
+        }
+        for (String entry : settings.PLAYER_WEIGHTS) {
+            int index = entry.lastIndexOf(':');
+            if (index != -1 && entry.substring(0, index).equalsIgnoreCase(owner) && MathMan.isInteger(entry.substring(index + 1))) {
+                return Integer.parseInt(entry.substring(index + 1));
+            }
+        }
+        for (EditSession session : queue.getSessions()) {
+            FawePlayer player = session.getPlayer();
+            if (player != null) {
+                return player.getLimit().QUEUE_WEIGHT;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Select the next queue to place
+     * @param queues the active queues, in the order they were enqueued
+     * @return the queue, or null if there are none
+     */
+    public synchronized FaweQueue select(Collection<FaweQueue> queues) {
+        LinkedHashMap<String, FaweQueue> heads = new LinkedHashMap<>();
+        for (FaweQueue queue : queues) {
+            String owner = getOwner(queue);
+            if (!heads.containsKey(owner)) {
+                heads.put(owner, queue);
+            }
+        }
+        if (heads.isEmpty()) {
+            flows.clear();
+            round.clear();
+            return null;
+        }
+        // Idle flows leave the round and lose their deficit
+        Iterator<Flow> iter = round.iterator();
+        while (iter.hasNext()) {
+            Flow flow = iter.next();
+            if (!heads.containsKey(flow.owner)) {
+                iter.remove();
+                flows.remove(flow.owner);
+            }
+        }
+        for (Map.Entry<String, FaweQueue> entry : heads.entrySet()) {
+            String owner = entry.getKey();
+            if (!flows.containsKey(owner)) {
+                Flow flow = new Flow(owner, getWeight(owner, entry.getValue()));
+                flows.put(owner, flow);
+                round.add(flow);
+            }
+        }
+        while (true) {
+            Flow flow = round.peek();
+            if (flow.deficit > 0) {
+                return heads.get(flow.owner);
+            }
+            flow.deficit += QUANTUM * flow.weight;
+            if (flow.deficit > 0) {
+                return heads.get(flow.owner);
+            }
+            round.add(round.poll());
+        }
+    }
+
+    /**
+     * Charge the owner of a queue for the time spent placing it
+     * @param queue
+     * @param millis
+     */
+    public synchronized void charge(FaweQueue queue, long millis) {
+        Flow flow = flows.get(getOwner(queue));
+        if (flow == null) {
+            return;
+        }
+        flow.deficit -= Math.max(1, millis);
+        if (flow.deficit <= 0 && round.peek() == flow) {
+            round.add(round.poll());
+        }
+    }
+}
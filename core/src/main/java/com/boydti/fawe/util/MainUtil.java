@@ -12,6 +12,7 @@ import com.boydti.fawe.object.RunnableVal2;
 import com.boydti.fawe.object.changeset.CPUOptimizedChangeSet;
 import com.boydti.fawe.object.changeset.FaweStreamChangeSet;
 import com.boydti.fawe.object.io.AbstractDelegateOutputStream;
+import com.boydti.fawe.object.io.MappedFileInputStream;
 import com.github.luben.zstd.ZstdInputStream;
 import com.github.luben.zstd.ZstdOutputStream;
 import com.sk89q.jnbt.CompoundTag;
@@ -27,6 +28,7 @@ import com.sk89q.worldedit.util.Location;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -281,6 +283,7 @@ public class MainUtil {
         while (!inflater.finished()) {
             int n = inflater.inflate(buffer);
             if (n != 0) baos.write(buffer, 0, n);
+            else if (inflater.needsInput() || inflater.needsDictionary()) throw new EOFException("Unexpected end of compressed data");
         }
         return baos.toByteArray();
     }
@@ -343,7 +346,10 @@ public class MainUtil {
 
     public static FaweInputStream getCompressedIS(InputStream is, int buffer) throws IOException {
         int amount = (byte) is.read();
-        is = new BufferedInputStream(is, buffer);
+        if (!(is instanceof MappedFileInputStream)) {
+            // A mapped file is already in memory
+            is = new BufferedInputStream(is, buffer);
+        }
         if (amount == 0) {
             return new FaweInputStream(is);
         }
@@ -37,11 +37,18 @@ public class SetQueue {
     private long secondLast;
     private long lastSuccess;
 
+    /**
+     * Rolling average of how far (ms) dispatching has run past its allocated time
+     */
+    private double overshoot;
+
     /**
      * A queue of tasks that will run when the queue is empty
      */
     private final ConcurrentLinkedDeque<Runnable> emptyTasks = new ConcurrentLinkedDeque<>();
 
+    private final FairQueueScheduler scheduler = new FairQueueScheduler();
+
     private ForkJoinPool pool = new ForkJoinPool();
     private ExecutorCompletionService completer = new ExecutorCompletionService(pool);
 
@@ -117,6 +124,9 @@ public class SetQueue {
                         throw new IllegalStateException("This shouldn't be possible for placement to occur off the main thread");
                     }
                     long time = Settings.IMP.QUEUE.EXTRA_TIME_MS + 50 + Math.min((50 + SetQueue.this.last) - (SetQueue.this.last = System.currentTimeMillis()), SetQueue.this.secondLast - System.currentTimeMillis());
+                    // The queue maps size each batch with the queue's ChunkCostModel, this corrects for any remaining error
+                    time -= (long) overshoot;
+                    long dispatchStart = System.currentTimeMillis();
                     // Disable the async catcher as it can't discern async vs parallel
                     boolean parallel = Settings.IMP.QUEUE.PARALLEL_THREADS > 1;
                     queue.startSet(parallel);
@@ -141,6 +151,8 @@ public class SetQueue {
                         }
                     }
                     secondLast = System.currentTimeMillis();
+                    overshoot = overshoot * 0.8 + Math.max(0, (secondLast - dispatchStart) - time) * 0.2;
+                    scheduler.charge(queue, secondLast - dispatchStart);
                     queue.endSet(parallel);
                 } catch (Throwable e) {
                     e.printStackTrace();
@@ -236,14 +248,14 @@ public class SetQueue {
     public FaweQueue getNextQueue() {
         long now = System.currentTimeMillis();
         while (!activeQueues.isEmpty()) {
-            FaweQueue queue = activeQueues.peek();
+            FaweQueue queue = Settings.IMP.QUEUE.FAIR.ENABLED ? scheduler.select(activeQueues) : activeQueues.peek();
             if (queue != null && queue.size() > 0) {
                 queue.setModified(now);
                 return queue;
-            } else {
+            } else if (queue != null) {
                 queue.setStage(QueueStage.NONE);
                 queue.runTasks();
-                activeQueues.poll();
+                activeQueues.remove(queue);
             }
         }
         int size = inactiveQueues.size();
@@ -205,6 +205,7 @@ public final class NBTInputStream implements Closeable {
                 if (reader != null) {
                     reader.run(length, childType);
                 }
+                String listNode = node;
                 node += ".#";
                 reader = getReader.runAndGet(node, null).value2;
                 depth++;
@@ -212,6 +213,11 @@ public final class NBTInputStream implements Closeable {
                     for (int i = 0; i < length; ++i) {
                         readTagPaylodLazy(childType, depth, node, getReader);
                     }
+                    // After the last element of a list which was skipped (e.g. to find where it ends)
+                    reader = getReader.runAndGet(listNode + ".!", null).value2;
+                    if (reader != null) {
+                        reader.run(length, childType);
+                    }
                     return;
                 }
                 for (int i = 0; i < length; ++i) {
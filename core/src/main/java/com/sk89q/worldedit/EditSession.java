@@ -25,6 +25,7 @@ import com.boydti.fawe.FaweCache;
 import com.boydti.fawe.config.BBC;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.example.MappedFaweQueue;
+import com.boydti.fawe.example.ParallelRegionTask;
 import com.boydti.fawe.jnbt.anvil.MCAQueue;
 import com.boydti.fawe.jnbt.anvil.MCAWorld;
 import com.boydti.fawe.logging.LoggingChangeSet;
@@ -103,6 +104,7 @@ import com.sk89q.worldedit.function.operation.ForwardExtentCopy;
 import com.sk89q.worldedit.function.operation.Operation;
 import com.sk89q.worldedit.function.operation.Operations;
 import com.sk89q.worldedit.function.pattern.BlockPattern;
+import com.sk89q.worldedit.function.pattern.Patterns;
 import com.sk89q.worldedit.function.util.RegionOffset;
 import com.sk89q.worldedit.function.visitor.DownwardVisitor;
 import com.sk89q.worldedit.function.visitor.LayerVisitor;
@@ -1674,6 +1676,9 @@ public class EditSession extends AbstractWorld implements HasFaweQueue, Lighting
         if (pattern instanceof BlockPattern) {
             return setBlocks(region, ((BlockPattern) pattern).getBlock());
         }
+        if (canBypassAll(region, false, true)) {
+            return changes = queue.setBlocks((CuboidRegion) region, Patterns.wrap(pattern), bypassAll);
+        }
         final BlockReplace replace = new BlockReplace(EditSession.this, pattern);
         final RegionVisitor visitor = new RegionVisitor(region, replace, queue instanceof MappedFaweQueue ? (MappedFaweQueue) queue : null);
         Operations.completeBlindly(visitor);
@@ -1740,6 +1745,12 @@ public class EditSession extends AbstractWorld implements HasFaweQueue, Lighting
         checkNotNull(region);
         checkNotNull(mask);
         checkNotNull(pattern);
+        if (canBypassAll(region, true, true) && ParallelRegionTask.isEnabled(queue, region)) {
+            com.sk89q.worldedit.function.pattern.Pattern wrapped = Patterns.wrap(pattern);
+            if (ParallelRegionTask.isThreadSafe(mask) && ParallelRegionTask.isThreadSafe(wrapped)) {
+                return this.changes = replaceBlocksParallel((CuboidRegion) region, mask, wrapped);
+            }
+        }
         final BlockReplace replace = new BlockReplace(EditSession.this, pattern);
         final RegionMaskingFilter filter = new RegionMaskingFilter(mask, replace);
         final RegionVisitor visitor = new RegionVisitor(region, filter, queue instanceof MappedFaweQueue ? (MappedFaweQueue) queue : null);
@@ -1747,6 +1758,65 @@ public class EditSession extends AbstractWorld implements HasFaweQueue, Lighting
         return this.changes = visitor.getAffected();
     }
 
+    /**
+     * Replace the blocks in a cuboid, split between threads by chunk column<br>
+     *     - The caller must have checked the extents can be bypassed, and that the mask and pattern are thread safe<br>
+     *     - Each worker tests its own copy of the mask, which reads from the world directly (the same blocks it would get through the bypassed extents)
+     * @param region
+     * @param mask the mask, or null to set every block
+     * @param pattern
+     * @return number of blocks affected
+     */
+    private int replaceBlocksParallel(final CuboidRegion region, @Nullable final Mask mask, final com.sk89q.worldedit.function.pattern.Pattern pattern) {
+        List<ParallelRegionTask.Worker> workers = new ParallelRegionTask<ParallelRegionTask.Worker>((MappedFaweQueue) queue, region) {
+            @Override
+            protected Worker newWorker() {
+                final Mask workerMask = mask == null ? null : ParallelRegionTask.copy(mask, ParallelRegionTask.newExtent(ParallelRegionTask.newQueue(queue)));
+                return new Worker() {
+                    private final MutableBlockVector mutable = new MutableBlockVector();
+
+                    @Override
+                    public void run(int cx, int cz, int minX, int minZ, int maxX, int maxZ, int minY, int maxY) {
+                        for (int y = minY; y <= maxY; y++) {
+                            for (int z = minZ; z <= maxZ; z++) {
+                                for (int x = minX; x <= maxX; x++) {
+                                    mutable.setComponents(x, y, z);
+                                    if (workerMask != null) {
+                                        checked++;
+                                        if (!workerMask.test(mutable)) {
+                                            continue;
+                                        }
+                                    }
+                                    BaseBlock block = pattern.apply(mutable);
+                                    getChunk().setBlock(x & 15, y, z & 15, block.getId(), block.getData());
+                                    changed++;
+                                }
+                            }
+                        }
+                    }
+                };
+            }
+        }.run();
+        return chargeLimit(workers);
+    }
+
+    /**
+     * Take the blocks checked and changed by a parallel operation from the limit
+     * @param workers
+     * @return the number of blocks changed
+     */
+    private int chargeLimit(List<? extends ParallelRegionTask.Worker> workers) {
+        int checked = 0;
+        int changed = 0;
+        for (ParallelRegionTask.Worker worker : workers) {
+            checked += worker.getChecked();
+            changed += worker.getChanged();
+        }
+        limit.MAX_CHECKS -= checked;
+        limit.MAX_CHANGES -= changed;
+        return changed;
+    }
+
     /**
      * Sets the blocks at the center of the given region to the given pattern.
      * If the center sits between two blocks on a certain axis, then two blocks
@@ -1936,6 +2006,9 @@ public class EditSession extends AbstractWorld implements HasFaweQueue, Lighting
      */
     public int naturalizeCuboidBlocks(final Region region) throws MaxChangedBlocksException {
         checkNotNull(region);
+        if (canBypassAll(region, true, true) && ParallelRegionTask.isEnabled(queue, region) && !hasGroundAbove((CuboidRegion) region)) {
+            return this.changes = naturalizeParallel((CuboidRegion) region);
+        }
         final Naturalizer naturalizer = new Naturalizer(EditSession.this);
         final FlatRegion flatRegion = Regions.asFlatRegion(region);
         final LayerVisitor visitor = new LayerVisitor(flatRegion, minimumBlockY(region), maximumBlockY(region), naturalizer);
@@ -1943,6 +2016,71 @@ public class EditSession extends AbstractWorld implements HasFaweQueue, Lighting
         return this.changes = naturalizer.getAffected();
     }
 
+    private static boolean isNatural(int id) {
+        return id == BlockID.STONE || id == BlockID.GRASS || id == BlockID.DIRT;
+    }
+
+    /**
+     * Check the layer above a cuboid for natural blocks<br>
+     *     - The serial naturalizer stops at the first column with ground above the region, which can't be split between threads
+     * @param region
+     * @return
+     */
+    private boolean hasGroundAbove(CuboidRegion region) {
+        int y = region.getMaximumY() + 1;
+        if (y > maxY) {
+            return false;
+        }
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        for (int z = min.getBlockZ(); z <= max.getBlockZ(); z++) {
+            for (int x = min.getBlockX(); x <= max.getBlockX(); x++) {
+                if (isNatural(FaweCache.getId(queue.getCombinedId4Data(x, y, z)))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Naturalize a cuboid, split between threads by chunk column (see {@link Naturalizer})
+     * @param region
+     * @return number of blocks affected
+     */
+    private int naturalizeParallel(CuboidRegion region) {
+        List<ParallelRegionTask.Worker> workers = new ParallelRegionTask<ParallelRegionTask.Worker>((MappedFaweQueue) queue, region) {
+            @Override
+            protected Worker newWorker() {
+                final FaweQueue reader = ParallelRegionTask.newQueue(queue);
+                return new Worker() {
+                    @Override
+                    public void run(int cx, int cz, int minX, int minZ, int maxX, int maxZ, int minY, int maxY) {
+                        for (int z = minZ; z <= maxZ; z++) {
+                            for (int x = minX; x <= maxX; x++) {
+                                int groundY = -1;
+                                for (int y = maxY; y >= minY; y--) {
+                                    checked++;
+                                    if (!isNatural(FaweCache.getId(reader.getCombinedId4Data(x, y, z)))) {
+                                        continue;
+                                    }
+                                    if (groundY == -1) {
+                                        groundY = y;
+                                    }
+                                    int depth = groundY - y;
+                                    int id = depth == 0 ? BlockID.GRASS : depth <= 3 ? BlockID.DIRT : BlockID.STONE;
+                                    getChunk().setBlock(x & 15, y, z & 15, id, 0);
+                                    changed++;
+                                }
+                            }
+                        }
+                    }
+                };
+            }
+        }.run();
+        return chargeLimit(workers);
+    }
+
     /**
      * Stack a cuboid region.
      *
@@ -2686,6 +2824,45 @@ public class EditSession extends AbstractWorld implements HasFaweQueue, Lighting
         return this.changes;
     }
 
+    /**
+     * Count the blocks in a cuboid, split between threads by chunk column
+     * @param region
+     * @param counter the counter to add to (256 long to count ids, or 65536 to count ids with data)
+     */
+    private void countBlocksParallel(CuboidRegion region, int[] counter) {
+        final int size = counter.length;
+        final boolean data = size > 256;
+        final List<int[]> results = new ArrayList<>();
+        List<ParallelRegionTask.Worker> workers = new ParallelRegionTask<ParallelRegionTask.Worker>((MappedFaweQueue) queue, region) {
+            @Override
+            protected Worker newWorker() {
+                final int[] result = new int[size];
+                results.add(result);
+                final FaweQueue reader = ParallelRegionTask.newQueue(queue);
+                return new Worker() {
+                    @Override
+                    public void run(int cx, int cz, int minX, int minZ, int maxX, int maxZ, int minY, int maxY) {
+                        for (int y = minY; y <= maxY; y++) {
+                            for (int z = minZ; z <= maxZ; z++) {
+                                for (int x = minX; x <= maxX; x++) {
+                                    int combined = reader.getCombinedId4Data(x, y, z);
+                                    result[data ? combined : FaweCache.getId(combined)]++;
+                                }
+                            }
+                        }
+                        checked += (maxX - minX + 1) * (maxZ - minZ + 1) * (maxY - minY + 1);
+                    }
+                };
+            }
+        }.run();
+        for (int[] result : results) {
+            for (int i = 0; i < size; i++) {
+                counter[i] += result[i];
+            }
+        }
+        chargeLimit(workers);
+    }
+
     /**
      * Get the block distribution inside a region.
      *
@@ -2707,7 +2884,9 @@ public class EditSession extends AbstractWorld implements HasFaweQueue, Lighting
             final int maxY = max.getBlockY();
             final int maxZ = max.getBlockZ();
 
-            if (canBypassAll(region, true, false)) {
+            if (canBypassAll(region, true, false) && ParallelRegionTask.isEnabled(queue, region)) {
+                countBlocksParallel((CuboidRegion) region, counter);
+            } else if (canBypassAll(region, true, false)) {
                 for (int x = minX; x <= maxX; ++x) {
                     for (int y = minY; y <= maxY; ++y) {
                         for (int z = minZ; z <= maxZ; ++z) {
@@ -2768,7 +2947,9 @@ public class EditSession extends AbstractWorld implements HasFaweQueue, Lighting
             final int maxY = max.getBlockY();
             final int maxZ = max.getBlockZ();
 
-            if (canBypassAll(region, true, false)) {
+            if (canBypassAll(region, true, false) && ParallelRegionTask.isEnabled(queue, region)) {
+                countBlocksParallel((CuboidRegion) region, counter);
+            } else if (canBypassAll(region, true, false)) {
                 for (int x = minX; x <= maxX; ++x) {
                     for (int y = minY; y <= maxY; ++y) {
                         for (int z = minZ; z <= maxZ; ++z) {
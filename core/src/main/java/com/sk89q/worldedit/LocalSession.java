@@ -206,7 +206,7 @@ public class LocalSession {
             this.uuid = uuid;
             // Save history
             saveHistoryNegativeIndex(uuid, currentWorld);
-            history.clear();
+            clearHistoryChangeSets();
             currentWorld = world;
             // Load history
             if (loadHistoryChangeSets(uuid, currentWorld)) {
@@ -411,11 +411,26 @@ public class LocalSession {
      * Clear history.
      */
     public void clearHistory() {
-        history.clear();
+        clearHistoryChangeSets();
         historyNegativeIndex = 0;
         historySize = 0;
     }
 
+    /**
+     * Remove every change set from the history<br>
+     * - History kept in memory is deleted so anything it spilled to a temporary file is removed
+     */
+    private void clearHistoryChangeSets() {
+        synchronized (history) {
+            for (Object item : history) {
+                if (item instanceof FaweChangeSet && !(item instanceof DiskStorageHistory)) {
+                    ((FaweChangeSet) item).delete();
+                }
+            }
+            history.clear();
+        }
+    }
+
     /**
      * Remember an edit session for the undo history. If the history maximum
      * size is reached, old edit sessions will be discarded.
@@ -493,8 +508,8 @@ public class LocalSession {
         }
         while (((!Settings.IMP.HISTORY.USE_DISK && history.size() > MAX_HISTORY_SIZE) || (historySize >> 20) > limitMb) && history.size() > 1) {
             FaweChangeSet item = (FaweChangeSet) history.remove(0);
-            item.delete();
             long size = MainUtil.getSize(item);
+            item.delete();
             historySize -= size;
         }
     }
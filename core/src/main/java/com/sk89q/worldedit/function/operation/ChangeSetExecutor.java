@@ -19,6 +19,8 @@
 
 package com.sk89q.worldedit.function.operation;
 
+import com.boydti.fawe.example.ParallelHistoryTask;
+import com.boydti.fawe.object.changeset.DiskStorageHistory;
 import com.boydti.fawe.object.changeset.FaweChangeSet;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.extent.inventory.BlockBag;
@@ -38,9 +40,10 @@ public class ChangeSetExecutor implements Operation {
 
     public enum Type {UNDO, REDO}
 
-    private final Iterator<Change> iterator;
+    private Iterator<Change> iterator;
     private final Type type;
     private final UndoContext context;
+    private DiskStorageHistory parallel;
 
     /**
      * Create a new instance.
@@ -55,7 +58,10 @@ public class ChangeSetExecutor implements Operation {
         checkNotNull(context);
         this.type = type;
         this.context = context;
-        if (changeSet instanceof FaweChangeSet) {
+        if (ParallelHistoryTask.isEnabled(changeSet, blockBag, inventory)) {
+            // The iterator is created once we know if the blocks can be applied in parallel
+            parallel = (DiskStorageHistory) changeSet;
+        } else if (changeSet instanceof FaweChangeSet) {
             iterator = ((FaweChangeSet) changeSet).getIterator(blockBag, inventory, type == Type.REDO);
         }
          else if (type == Type.UNDO) {
@@ -67,6 +73,12 @@ public class ChangeSetExecutor implements Operation {
 
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
+        if (parallel != null) {
+            boolean redo = type == Type.REDO;
+            boolean blocks = !ParallelHistoryTask.apply(parallel, context, redo);
+            iterator = parallel.getIterator(redo, blocks);
+            parallel = null;
+        }
         if (type == Type.UNDO) {
             while (iterator.hasNext()) {
                 iterator.next().undo(context);
@@ -0,0 +1,170 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.object.RunnableVal2;
+import com.boydti.fawe.object.RunnableVal3;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MCABlockIndexTest {
+
+    private static final int STONE = 1 << 4;
+    private static final int RED_WOOL = 35 << 4 | 14;
+
+    private File regionFolder;
+    private File indexFolder;
+    private MCABlockIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        regionFolder = Files.createTempDirectory("region").toFile();
+        indexFolder = Files.createTempDirectory("index").toFile();
+        index = new MCABlockIndex(null, regionFolder, indexFolder);
+
+        MCABlockIndex.Builder region00 = new MCABlockIndex.Builder(1234);
+        int[] blocks = new int[4096];
+        blocks[0] = 500;
+        blocks[STONE] = 100;
+        blocks[RED_WOOL] = 7;
+        region00.add(3, 5, blocks, Arrays.asList(tile("Chest", 50, 64, 85)));
+        blocks[STONE] = 10;
+        region00.add(31, 31, blocks, Collections.<CompoundTag>emptyList());
+        region00.write(new File(indexFolder, "r.0.0.idx"));
+
+        MCABlockIndex.Builder region12 = new MCABlockIndex.Builder(5678);
+        blocks[RED_WOOL] = 3;
+        region12.add(-5, 70, blocks, Arrays.asList(tile("minecraft:chest", -80, 10, 1120), tile("MobSpawner", -75, 20, 1125)));
+        region12.write(new File(indexFolder, "r.-1.2.idx"));
+    }
+
+    @After
+    public void tearDown() {
+        for (File folder : new File[] {regionFolder, indexFolder}) {
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            folder.delete();
+        }
+    }
+
+    private static CompoundTag tile(String id, int x, int y, int z) {
+        Map<String, Tag> map = new HashMap<>();
+        map.put("id", new StringTag(id));
+        map.put("x", new IntTag(x));
+        map.put("y", new IntTag(y));
+        map.put("z", new IntTag(z));
+        return new CompoundTag(map);
+    }
+
+    private static boolean[] allowed(int... combined) {
+        boolean[] allowed = new boolean[4096];
+        for (int id : combined) {
+            allowed[id] = true;
+        }
+        return allowed;
+    }
+
+    private Set<List<Integer>> locate(boolean[] allowed) throws IOException {
+        final Set<List<Integer>> chunks = new HashSet<>();
+        index.locate(allowed, new RunnableVal2<Integer, Integer>() {
+            @Override
+            public void run(Integer cx, Integer cz) {
+                assertTrue(chunks.add(Arrays.asList(cx, cz)));
+            }
+        });
+        return chunks;
+    }
+
+    @SafeVarargs
+    private static Set<List<Integer>> set(List<Integer>... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    @Test
+    public void header() {
+        assertEquals(1234, MCABlockIndex.readLastModified(new File(indexFolder, "r.0.0.idx")));
+        assertEquals(5678, MCABlockIndex.readLastModified(new File(indexFolder, "r.-1.2.idx")));
+        assertTrue(index.exists());
+    }
+
+    @Test
+    public void count() {
+        assertEquals(110, index.count(allowed(STONE)));
+        assertEquals(10, index.count(allowed(RED_WOOL)));
+        assertEquals(120, index.count(allowed(STONE, RED_WOOL)));
+        // Air isn't indexed
+        assertEquals(0, index.count(allowed(0)));
+    }
+
+    @Test
+    public void regions() {
+        final List<List<Long>> regions = new ArrayList<>();
+        index.regions(allowed(STONE), new RunnableVal3<Integer, Integer, Long>() {
+            @Override
+            public void run(Integer mcaX, Integer mcaZ, Long count) {
+                regions.add(Arrays.asList((long) mcaX, (long) mcaZ, count));
+            }
+        });
+        assertEquals(Arrays.asList(Arrays.asList(0L, 0L, 110L)), regions);
+    }
+
+    @Test
+    public void locate() throws IOException {
+        assertEquals(set(Arrays.asList(3, 5), Arrays.asList(31, 31)), locate(allowed(STONE)));
+        assertEquals(set(Arrays.asList(3, 5), Arrays.asList(-5, 70)), locate(allowed(RED_WOOL)));
+        assertEquals(set(Arrays.asList(3, 5), Arrays.asList(31, 31), Arrays.asList(-5, 70)), locate(allowed(STONE, RED_WOOL)));
+        assertTrue(locate(allowed(2 << 4)).isEmpty());
+    }
+
+    @Test
+    public void tiles() throws IOException {
+        assertEquals(2, index.countTiles("chest"));
+        assertEquals(1, index.countTiles("minecraft:mob_spawner"));
+        assertEquals(0, index.countTiles("furnace"));
+        final Set<List<Integer>> chests = new HashSet<>();
+        index.tiles("Chest", new RunnableVal3<Integer, Integer, Integer>() {
+            @Override
+            public void run(Integer x, Integer y, Integer z) {
+                chests.add(Arrays.asList(x, y, z));
+            }
+        });
+        assertEquals(set(Arrays.asList(50, 64, 85), Arrays.asList(-80, 10, 1120)), chests);
+    }
+
+    @Test
+    public void invalidIndexIsIgnored() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(indexFolder, "r.5.5.idx"))) {
+            out.write(new byte[] {1, 2, 3, 4, 5});
+        }
+        assertEquals(-1, MCABlockIndex.readLastModified(new File(indexFolder, "r.5.5.idx")));
+        assertEquals(110, index.count(allowed(STONE)));
+    }
+
+    @Test
+    public void emptyFolderIsNotIndexed() {
+        assertFalse(new MCABlockIndex(null, regionFolder, regionFolder).exists());
+    }
+}
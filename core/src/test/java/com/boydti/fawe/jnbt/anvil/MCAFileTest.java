@@ -0,0 +1,119 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.util.MathMan;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MCAFileTest {
+
+    private File folder;
+    private File file;
+    private byte[] chunk00;
+    private byte[] chunk10;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("region").toFile();
+        file = new File(folder, "r.0.0.mca");
+        chunk00 = randomBytes(5000);
+        chunk10 = randomBytes(100);
+        // Chunk 0,0 takes sectors 2-3, and chunk 1,0 takes sector 4
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(5 << 12);
+            writeChunk(raf, 0, 0, 2, 2, chunk00);
+            writeChunk(raf, 1, 0, 4, 1, chunk10);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        folder.delete();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void writeChunk(RandomAccessFile raf, int cx, int cz, int sector, int sectors, byte[] bytes) throws IOException {
+        raf.seek((cx << 2) + (cz << 7));
+        raf.writeInt(sector << 8 | sectors);
+        raf.seek(sector << 12);
+        raf.writeInt(bytes.length);
+        raf.write(2);
+        raf.write(bytes);
+    }
+
+    private static int pair(int cx, int cz) {
+        return MathMan.pair((short) cx, (short) cz);
+    }
+
+    @Test
+    public void writesChunksInPlace() throws IOException {
+        byte[] smaller = randomBytes(3000);
+        byte[] appended = randomBytes(200);
+        Int2ObjectOpenHashMap<byte[]> compressed = new Int2ObjectOpenHashMap<>();
+        compressed.put(pair(0, 0), smaller);
+        Int2ObjectOpenHashMap<byte[]> append = new Int2ObjectOpenHashMap<>();
+        append.put(pair(2, 0), appended);
+
+        MCAFile mca = new MCAFile(null, file);
+        mca.init();
+        assertTrue(mca.writeInPlace(compressed, append));
+        // The smaller chunk keeps its offset and gives back a sector, and the new one goes after the last sector
+        assertEquals(2 << 12, mca.getOffset(0, 0));
+        assertEquals(1 << 12, mca.getSize(0, 0));
+        assertEquals(4 << 12, mca.getOffset(1, 0));
+        assertEquals(5 << 12, mca.getOffset(2, 0));
+        assertEquals(1 << 12, mca.getSize(2, 0));
+        assertArrayEquals(smaller, mca.getChunkCompressedBytes(mca.getOffset(0, 0)));
+        assertArrayEquals(chunk10, mca.getChunkCompressedBytes(mca.getOffset(1, 0)));
+        assertArrayEquals(appended, mca.getChunkCompressedBytes(mca.getOffset(2, 0)));
+        mca.clear();
+        assertEquals(6 << 12, file.length());
+
+        // The header on disk matches
+        mca = new MCAFile(null, file);
+        mca.init();
+        assertEquals(2 << 12, mca.getOffset(0, 0));
+        assertEquals(1 << 12, mca.getSize(0, 0));
+        assertEquals(5 << 12, mca.getOffset(2, 0));
+        assertArrayEquals(appended, mca.getChunkCompressedBytes(mca.getOffset(2, 0)));
+        mca.clear();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(4096 + (2 << 2));
+            assertTrue("The new chunk should have a timestamp", raf.readInt() != 0);
+        }
+    }
+
+    @Test
+    public void largerChunkIsNotWrittenInPlace() throws IOException {
+        byte[] before = Files.readAllBytes(file.toPath());
+        Int2ObjectOpenHashMap<byte[]> compressed = new Int2ObjectOpenHashMap<>();
+        compressed.put(pair(0, 0), randomBytes(10));
+        // 1,0 has a single sector, and no longer fits
+        compressed.put(pair(1, 0), randomBytes(5000));
+
+        MCAFile mca = new MCAFile(null, file);
+        mca.init();
+        assertFalse(mca.writeInPlace(compressed, new Int2ObjectOpenHashMap<byte[]>()));
+        assertArrayEquals(chunk00, mca.getChunkCompressedBytes(mca.getOffset(0, 0)));
+        mca.clear();
+        // Nothing is written, so the file can still be rearranged from what is on disk
+        assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+    }
+}
@@ -0,0 +1,122 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.change.MutableBlockChange;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapHistoryTest {
+
+    private int offHeapMb;
+    private boolean storeRedo;
+    private File folder;
+    private List<Long> from;
+    private List<Long> to;
+
+    @Before
+    public void setUp() throws IOException {
+        offHeapMb = Settings.IMP.HISTORY.OFF_HEAP_MB;
+        storeRedo = Settings.IMP.HISTORY.STORE_REDO;
+        // A single slab, which holds a page for each of 256 chunks
+        Settings.IMP.HISTORY.OFF_HEAP_MB = 1;
+        Settings.IMP.HISTORY.STORE_REDO = true;
+        folder = Files.createTempDirectory("off-heap").toFile();
+        from = new ArrayList<>();
+        to = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        Settings.IMP.HISTORY.OFF_HEAP_MB = offHeapMb;
+        Settings.IMP.HISTORY.STORE_REDO = storeRedo;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    private OffHeapHistory create() {
+        return new OffHeapHistory("world") {
+            @Override
+            protected File getSpillFolder() {
+                return folder;
+            }
+        };
+    }
+
+    private static long record(int x, int y, int z, int combined) {
+        return ((long) (x + 32768) << 40) | ((long) (z + 32768) << 24) | ((long) y << 16) | combined;
+    }
+
+    /**
+     * Add random changes spread over a square of chunks
+     */
+    private void add(OffHeapHistory history, int chunks, int count) {
+        Random random = new Random(chunks);
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(chunks << 4) - (chunks << 3);
+            int y = random.nextInt(256);
+            int z = random.nextInt(chunks << 4) - (chunks << 3);
+            int combinedFrom = random.nextInt(4096) << 4;
+            int combinedTo = random.nextInt(4096) << 4 | random.nextInt(16);
+            history.add(x, y, z, combinedFrom, combinedTo);
+            from.add(record(x, y, z, combinedFrom));
+            to.add(record(x, y, z, combinedTo));
+        }
+    }
+
+    private static void assertChanges(List<Long> expected, Iterator<MutableBlockChange> iterator) {
+        List<Long> read = new ArrayList<>(expected.size());
+        while (iterator.hasNext()) {
+            MutableBlockChange change = iterator.next();
+            read.add(record(change.x, change.y, change.z, (change.id << 4) | change.data));
+        }
+        expected = new ArrayList<>(expected);
+        Collections.sort(expected);
+        Collections.sort(read);
+        assertEquals(expected, read);
+    }
+
+    @Test
+    public void staysInMemory() throws IOException {
+        OffHeapHistory history = create();
+        add(history, 8, 50000);
+        history.close();
+        assertEquals(0, history.getSizeOnDisk());
+        assertTrue(history.getSizeInMemory() >= 1 << 20);
+        assertChanges(from, history.getBlockIterator(false));
+        assertChanges(to, history.getBlockIterator(true));
+        history.delete();
+    }
+
+    @Test
+    public void spillsToDisk() throws IOException {
+        OffHeapHistory history = create();
+        // More chunks than there are pages in the limit, so the changes have to be moved to a file
+        add(history, 20, 200000);
+        history.close();
+        assertTrue(history.getSizeOnDisk() > 0);
+        File[] files = folder.listFiles();
+        assertEquals(1, files.length);
+        assertChanges(from, history.getBlockIterator(false));
+        assertChanges(to, history.getBlockIterator(true));
+        history.delete();
+        assertFalse(files[0].exists());
+    }
+}
@@ -0,0 +1,184 @@
+package com.boydti.fawe.object.io;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkIndexedBlockWriterTest {
+
+    private static final int ORIGIN_X = 1234;
+    private static final int ORIGIN_Z = -5678;
+
+    private File file;
+    private int[] histogram;
+    private List<Long> written;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("history", ".bd");
+        histogram = new int[4096];
+        written = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static long record(int x, int y, int z, int from, int to) {
+        return ((long) (x + 1024) << 51) | ((long) (z + 1024) << 40) | ((long) y << 32) | ((long) from << 16) | to;
+    }
+
+    /**
+     * Write random changes around the origin, and keep what was written
+     */
+    private void write(boolean redo, boolean async, int count) throws IOException {
+        Random random = new Random(count);
+        ChunkIndexedBlockWriter writer = new ChunkIndexedBlockWriter(file, 1, redo, async);
+        DataOutputStream header = new DataOutputStream(writer.getHeaderStream());
+        header.write(redo ? 3 : 2);
+        header.writeInt(ORIGIN_X);
+        header.writeInt(ORIGIN_Z);
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(1000) - 500;
+            int y = random.nextInt(256);
+            int z = random.nextInt(1000) - 500;
+            int from = random.nextInt(256) << 4;
+            int to = random.nextInt(256) << 4 | random.nextInt(16);
+            writer.add(x, y, z, from, to);
+            histogram[to >> 4]++;
+            written.add(record(x, y, z, from, redo ? to : 0));
+            if (i == count / 3) {
+                writer.flush();
+            }
+        }
+        writer.close();
+    }
+
+    private List<Long> readAll(final ChunkIndexedBlockReader reader) throws IOException {
+        final List<Long> read = new ArrayList<>();
+        for (final ChunkIndexedBlockReader.Entry entry : reader.getEntries()) {
+            reader.forEach(entry, new ChunkIndexedBlockReader.BlockVisitor() {
+                @Override
+                public void run(int x, int y, int z, int combinedFrom, int combinedTo) {
+                    assertEquals(entry.chunkX, x >> 4);
+                    assertEquals(entry.chunkZ, z >> 4);
+                    assertTrue(x >= entry.minX && x <= entry.maxX);
+                    assertTrue(z >= entry.minZ && z <= entry.maxZ);
+                    assertTrue(y >= entry.minY && y <= entry.maxY);
+                    read.add(record(x, y, z, combinedFrom, combinedTo));
+                }
+            });
+        }
+        return read;
+    }
+
+    private void assertSameChanges(List<Long> read) {
+        List<Long> expected = new ArrayList<>(written);
+        Collections.sort(expected);
+        Collections.sort(read);
+        assertEquals(expected, read);
+    }
+
+    private void roundTrip(boolean redo, boolean async) throws IOException {
+        write(redo, async, 100000);
+        assertTrue(ChunkIndexedBlockReader.isIndexed(file));
+        try (ChunkIndexedBlockReader reader = new ChunkIndexedBlockReader(file)) {
+            assertEquals(redo, reader.hasRedo());
+            assertEquals(ORIGIN_X, reader.getOriginX());
+            assertEquals(ORIGIN_Z, reader.getOriginZ());
+            assertEquals(written.size(), reader.getCount());
+            assertArrayEquals(histogram, reader.getHistogram());
+            assertSameChanges(readAll(reader));
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        roundTrip(true, false);
+    }
+
+    @Test
+    public void roundTripAsync() throws IOException {
+        roundTrip(true, true);
+    }
+
+    @Test
+    public void roundTripWithoutRedo() throws IOException {
+        // The histogram still counts the ids changed to
+        roundTrip(false, false);
+    }
+
+    @Test
+    public void indexIsRebuiltWithoutTrailer() throws IOException {
+        write(true, false, 20000);
+        List<ChunkIndexedBlockReader.Entry> indexed;
+        try (ChunkIndexedBlockReader reader = new ChunkIndexedBlockReader(file)) {
+            indexed = reader.getEntries();
+        }
+        // Cut the file where the index starts, as if it was never closed
+        long indexOffset;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 12);
+            indexOffset = raf.readLong();
+            assertEquals(ChunkIndexedBlockReader.MAGIC, raf.readInt());
+            raf.setLength(indexOffset);
+        }
+        try (ChunkIndexedBlockReader reader = new ChunkIndexedBlockReader(file)) {
+            assertNull(reader.getHistogram());
+            List<ChunkIndexedBlockReader.Entry> scanned = reader.getEntries();
+            assertEquals(indexed.size(), scanned.size());
+            for (int i = 0; i < indexed.size(); i++) {
+                ChunkIndexedBlockReader.Entry a = indexed.get(i);
+                ChunkIndexedBlockReader.Entry b = scanned.get(i);
+                assertEquals(a.offset, b.offset);
+                assertEquals(a.length, b.length);
+                assertEquals(a.count, b.count);
+                assertEquals(a.chunkX, b.chunkX);
+                assertEquals(a.chunkZ, b.chunkZ);
+                assertArrayEquals(new int[] {a.minX, a.maxX, a.minY, a.maxY, a.minZ, a.maxZ}, new int[] {b.minX, b.maxX, b.minY, b.maxY, b.minZ, b.maxZ});
+            }
+            assertSameChanges(readAll(reader));
+        }
+        // A partly written block is dropped, rather than read past the end of the file
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(indexOffset - 1);
+        }
+        try (ChunkIndexedBlockReader reader = new ChunkIndexedBlockReader(file)) {
+            assertEquals(indexed.size() - 1, reader.getEntries().size());
+        }
+    }
+
+    @Test
+    public void headerOnly() throws IOException {
+        write(true, false, 0);
+        try (ChunkIndexedBlockReader reader = new ChunkIndexedBlockReader(file)) {
+            assertTrue(reader.getEntries().isEmpty());
+            assertEquals(0, reader.getCount());
+            assertNotNull(reader.getHistogram());
+        }
+    }
+
+    @Test
+    public void sequentialFileIsNotIndexed() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[64]);
+        }
+        assertFalse(ChunkIndexedBlockReader.isIndexed(file));
+    }
+}
@@ -0,0 +1,112 @@
+package com.boydti.fawe.object.io;
+
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ColumnarBlockCodecTest {
+
+    private static byte[] randomRecords(Random random, int count, int recordSize) {
+        byte[] records = new byte[count * recordSize];
+        for (int j = 0; j < records.length; j += recordSize) {
+            records[j] = (byte) random.nextInt(256);
+            // A few layers, so there are repeated positions and long runs
+            records[j + 1] = (byte) random.nextInt(4);
+            int from = random.nextInt(3) << 4;
+            records[j + 2] = (byte) from;
+            records[j + 3] = (byte) (from >> 8);
+            if (recordSize == 6) {
+                int to = random.nextInt(4096) << 4;
+                records[j + 4] = (byte) to;
+                records[j + 5] = (byte) (to >> 8);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * The records in the order they should be decoded: by position, then in the order they were added
+     */
+    private static byte[] sorted(final byte[] records, int count, final int recordSize) {
+        List<Integer> order = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(position(records, a * recordSize), position(records, b * recordSize));
+            }
+        });
+        byte[] result = new byte[count * recordSize];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(records, order.get(i) * recordSize, result, i * recordSize, recordSize);
+        }
+        return result;
+    }
+
+    private static int position(byte[] records, int index) {
+        return ((records[index + 1] & 0xFF) << 8) | (records[index] & 0xFF);
+    }
+
+    private static byte[] roundTrip(byte[] records, int count, boolean redo) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FaweOutputStream out = new FaweOutputStream(bytes);
+        ColumnarBlockCodec.encode(records, count, redo, out);
+        out.flush();
+        FaweInputStream in = new FaweInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        byte[] decoded = ColumnarBlockCodec.decode(in, count, redo);
+        assertEquals("Every encoded byte should be read", -1, in.read());
+        return decoded;
+    }
+
+    @Test
+    public void roundTripRedo() throws IOException {
+        Random random = new Random(1);
+        int count = 20000;
+        byte[] records = randomRecords(random, count, 6);
+        assertArrayEquals(sorted(records, count, 6), roundTrip(records, count, true));
+    }
+
+    @Test
+    public void roundTripWithoutRedo() throws IOException {
+        Random random = new Random(2);
+        int count = 20000;
+        byte[] records = randomRecords(random, count, 4);
+        assertArrayEquals(sorted(records, count, 4), roundTrip(records, count, false));
+    }
+
+    @Test
+    public void keepsTheOrderOfChangesToThePosition() throws IOException {
+        // The same position changed three times, after a change to an earlier position
+        byte[] records = {
+                5, 1, 16, 0, 32, 0,
+                5, 1, 32, 0, 48, 0,
+                4, 1, 1, 0, 2, 0,
+                5, 1, 48, 0, 64, 0,
+        };
+        byte[] expected = {
+                4, 1, 1, 0, 2, 0,
+                5, 1, 16, 0, 32, 0,
+                5, 1, 32, 0, 48, 0,
+                5, 1, 48, 0, 64, 0,
+        };
+        assertArrayEquals(expected, roundTrip(records, 4, true));
+    }
+
+    @Test
+    public void roundTripEmpty() throws IOException {
+        assertEquals(0, roundTrip(new byte[0], 0, true).length);
+    }
+}
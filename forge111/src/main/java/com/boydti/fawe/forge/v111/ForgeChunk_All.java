@@ -125,17 +125,59 @@ public class ForgeChunk_All extends CharFaweChunk<Chunk, ForgeQueue_All> {
         return world.getChunkProvider().provideChunk(getX(), getZ());
     }
 
-    public void optimize() {
+    /**
+     * Create a palette where every block is the same<br>
+     *     - The packed storage is filled directly instead of setting each block
+     * @param combinedId
+     * @return
+     */
+    @Override
+    public BlockStateContainer newUniformPalette(char combinedId) {
+        BlockStateContainer palette = new BlockStateContainer();
+        IBlockState block = Block.getBlockById(combinedId >> 4).getStateFromMeta(combinedId & 0xF);
+        palette.set(0, 0, 0, block);
+        try {
+            Field fieldBits = BlockStateContainer.class.getDeclaredField("storage");
+            fieldBits.setAccessible(true);
+            long[] raw = ((BitArray) fieldBits.get(palette)).getBackingLongArray();
+            if (fillUniformPalette(raw)) {
+                return palette;
+            }
+        } catch (Throwable e) {
+            MainUtil.handleError(e);
+        }
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    palette.set(x, y, z, block);
+                }
+            }
+        }
+        return palette;
+    }
+
+    @Override
+    protected void onSectionChange(int layer) {
         if (sectionPalettes != null) {
-            return;
+            sectionPalettes[layer] = null;
         }
+    }
+
+    public synchronized void optimize() {
         char[][] arrays = getCombinedIdArrays();
         char lastChar = Character.MAX_VALUE;
         for (int layer = 0; layer < 16; layer++) {
-            if (getCount(layer) > 0) {
+            // Only whole sections are swapped for their palette (a palette which is still set is up to date)
+            int count = getCount(layer);
+            if (count >= 4096 && count > getAir(layer) && (sectionPalettes == null || sectionPalettes[layer] == null)) {
                 if (sectionPalettes == null) {
                     sectionPalettes = new BlockStateContainer[16];
                 }
+                BlockStateContainer uniform = getUniformPalette(layer);
+                if (uniform != null) {
+                    sectionPalettes[layer] = uniform;
+                    continue;
+                }
                 BlockStateContainer palette = new BlockStateContainer();
                 char[] blocks = getIdArray(layer);
                 for (int y = 0; y < 16; y++) {
@@ -148,12 +190,13 @@ public class ForgeChunk_All extends CharFaweChunk<Chunk, ForgeQueue_All> {
                         }
                     }
                 }
+                sectionPalettes[layer] = palette;
             }
         }
     }
 
     @Override
-    public ForgeChunk_All call() {
+    public synchronized ForgeChunk_All call() {
         net.minecraft.world.chunk.Chunk nmsChunk = this.getChunk();
         int bx = this.getX() << 4;
         int bz = this.getZ() << 4;
@@ -291,9 +334,10 @@ public class ForgeChunk_All extends CharFaweChunk<Chunk, ForgeQueue_All> {
                     if (count == countAir) {
                         continue;
                     }
-                    if (this.sectionPalettes != null && this.sectionPalettes[j] != null) {
+                    BlockStateContainer palette = getSectionPalette(this.sectionPalettes, j);
+                    if (palette != null) {
                         section = sections[j] = new ExtendedBlockStorage(j << 4, flag);
-                        getParent().setPalette(section, this.sectionPalettes[j]);
+                        getParent().setPalette(section, palette);
                         getParent().setCount(0, count - this.getAir(j), section);
                         continue;
                     } else {
@@ -304,8 +348,9 @@ public class ForgeChunk_All extends CharFaweChunk<Chunk, ForgeQueue_All> {
                         sections[j] = null;
                         continue;
                     }
-                    if (this.sectionPalettes != null && this.sectionPalettes[j] != null) {
-                        getParent().setPalette(section, this.sectionPalettes[j]);
+                    BlockStateContainer palette = getSectionPalette(this.sectionPalettes, j);
+                    if (palette != null) {
+                        getParent().setPalette(section, palette);
                         getParent().setCount(0, count - this.getAir(j), section);
                         continue;
                     }
@@ -1,6 +1,7 @@
 package com.boydti.fawe.forge;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.example.ChunkSectionCache;
 import com.boydti.fawe.object.FawePlayer;
 import cpw.mods.fml.common.FMLCommonHandler;
 import cpw.mods.fml.common.Mod;
@@ -17,6 +18,7 @@ import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.MinecraftServer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.world.ChunkEvent;
 import org.apache.logging.log4j.Logger;
 
 @Mod(modid = "com.boydti.fawe", name = "FastAsyncWorldEdit", version = "3.5.1", acceptableRemoteVersions = "*", dependencies = "before:worldedit")
@@ -72,4 +74,14 @@ public class ForgeMain {
             return;
         }
     }
+
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event) {
+        net.minecraft.world.World world = event.world;
+        if (world.isRemote) {
+            return;
+        }
+        net.minecraft.world.chunk.Chunk chunk = event.getChunk();
+        ChunkSectionCache.invalidate(IMP.getWorldName(world), chunk.xPosition, chunk.zPosition);
+    }
 }
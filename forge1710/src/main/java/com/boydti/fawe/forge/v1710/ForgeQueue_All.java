@@ -455,6 +455,14 @@ public class ForgeQueue_All extends NMSMappedFaweQueue<World, Chunk, ExtendedBlo
         return new ForgeChunk_All(this, x, z);
     }
 
+    /**
+     * Palette chunks only copy the combined ids, but placement here reads the byte id and data arrays
+     */
+    @Override
+    public FaweChunk getQueuedFaweChunk(int x, int z) {
+        return getFaweChunk(x, z);
+    }
+
     @Override
     public boolean removeLighting(ExtendedBlockStorage[] sections, RelightMode mode, boolean sky) {
         if (mode == RelightMode.ALL) {
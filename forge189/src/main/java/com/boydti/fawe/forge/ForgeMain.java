@@ -1,6 +1,7 @@
 package com.boydti.fawe.forge;
 
 import com.boydti.fawe.Fawe;
+import com.boydti.fawe.example.ChunkSectionCache;
 import com.boydti.fawe.object.FawePlayer;
 import java.io.File;
 import java.util.List;
@@ -9,6 +10,7 @@ import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.MinecraftServer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.world.ChunkEvent;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
@@ -72,4 +74,14 @@ public class ForgeMain {
             return;
         }
     }
+
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event) {
+        net.minecraft.world.World world = event.world;
+        if (world.isRemote) {
+            return;
+        }
+        net.minecraft.world.chunk.Chunk chunk = event.getChunk();
+        ChunkSectionCache.invalidate(IMP.getWorldName(world), chunk.xPosition, chunk.zPosition);
+    }
 }
@@ -2,7 +2,9 @@ package com.boydti.fawe.sponge;
 
 import com.boydti.fawe.Fawe;
 import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.example.ChunkSectionCache;
 import com.boydti.fawe.object.FawePlayer;
+import com.flowpowered.math.vector.Vector3i;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.spongepowered.api.Game;
@@ -12,9 +14,11 @@ import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.Order;
 import org.spongepowered.api.event.game.state.GamePreInitializationEvent;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
+import org.spongepowered.api.event.world.chunk.UnloadChunkEvent;
 import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.plugin.PluginContainer;
 import org.spongepowered.api.profile.GameProfileManager;
+import org.spongepowered.api.world.Chunk;
 
 @Plugin(id = "fastasyncworldedit", name = " FastAsyncWorldEdit", description = "fawe", url = "https://github.com/boy0001/FastAsyncWorldedit", version = "development", authors = "Empire92")
 public class SpongeMain {
@@ -59,4 +63,11 @@ public class SpongeMain {
         fp.unregister();
         Fawe.get().unregister(player.getName());
     }
+
+    @Listener
+    public void onChunkUnload(UnloadChunkEvent event) {
+        Chunk chunk = event.getTargetChunk();
+        Vector3i position = chunk.getPosition();
+        ChunkSectionCache.invalidate(chunk.getWorld().getName(), position.getX(), position.getZ());
+    }
 }